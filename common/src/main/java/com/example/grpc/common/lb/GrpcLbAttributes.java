@@ -1,9 +1,16 @@
 package com.example.grpc.common.lb;
 
+import com.example.grpc.load.ConcurrencyReport;
+import com.example.grpc.load.LoadReport;
 import io.grpc.Attributes;
 import io.grpc.ConnectivityStateInfo;
+import io.grpc.EquivalentAddressGroup;
 import io.grpc.LoadBalancer;
+import io.grpc.Metadata;
+import io.grpc.protobuf.ProtoUtils;
 
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -16,42 +23,143 @@ public final class GrpcLbAttributes {
     public static final Attributes.Key<Ref<ConnectivityStateInfo>> STATE_INFO =
             Attributes.Key.create("state-info");
 
+    /**
+     * Untyped host parameters, read only when an address carries no {@link #HOST_INFO}.
+     *
+     * @deprecated attach a {@link HostInfo} with {@link #HOST_INFO} instead
+     */
+    @Deprecated
     public static final Attributes.Key<Ref<Map<String, ?>>> HOST_CONFIG =
             Attributes.Key.create("grpc-hostConfig");
 
+    public static final Attributes.Key<HostInfo> HOST_INFO = Attributes.Key.create("host-info");
+
+    /**
+     * The host of a subchannel. Set by the balancer instead of {@link #HOST_INFO}, so that a
+     * registration change that keeps the address, such as a new weight, is applied to the existing
+     * subchannel.
+     */
+    static final Attributes.Key<Ref<HostInfo>> HOST_INFO_REF = Attributes.Key.create("host-info-ref");
+
     public static final Attributes.Key<Ref<LoadBalancer.Subchannel>> STICKY_REF = Attributes.Key.create("sticky-ref");
 
+    static final Attributes.Key<SubchannelStats> SUBCHANNEL_STATS = Attributes.Key.create("subchannel-stats");
+
+    /**
+     * Trailer carrying the {@link LoadReport} of the server, read by the
+     * {@value #LOAD_REPORT_WEIGHTED} policy.
+     */
+    public static final Metadata.Key<LoadReport> LOAD_REPORT_KEY =
+            ProtoUtils.keyForProto(LoadReport.getDefaultInstance());
+
+    /**
+     * Trailer carrying the {@link ConcurrencyReport} of a server that limits its concurrency, read
+     * by the {@value #LOAD_REPORT_WEIGHTED} policy.
+     */
+    public static final Metadata.Key<ConcurrencyReport> CONCURRENCY_REPORT_KEY =
+            ProtoUtils.keyForProto(ConcurrencyReport.getDefaultInstance());
+
     public static final String HOST_LB_WEIGHT = "lb_weight";
 
     public static final String HOST_IDENTITY = "host_identity";
 
     public static final String WEIGHT_ROUND_ROBIN = "weighted_round_robin";
 
+    public static final String LATENCY_AWARE_WEIGHTED = "latency_aware_weighted";
+
+    public static final String P2C_LEAST_REQUEST = "p2c_least_request";
+
+    public static final String WEIGHTED_LEAST_REQUEST = "weighted_least_request";
+
+    public static final String RING_HASH = "ring_hash";
+
+    public static final String LOAD_REPORT_WEIGHTED = "load_report_weighted";
+
+    public static final String LOCALITY_WEIGHTED = "locality_weighted";
+
     public static List<Node> generateNode(List<LoadBalancer.Subchannel> list){
         List<Node> listNodes = new ArrayList<Node>();
         for(LoadBalancer.Subchannel subchannel: list){
-            Map<String, ?> hostConfig = getSubchannelHostConfig(subchannel).value;
-            int lbWeight = Integer.parseInt(hostConfig.get(GrpcLbAttributes.HOST_LB_WEIGHT).toString());
-            String nodeInfo = hostConfig.get(GrpcLbAttributes.HOST_IDENTITY).toString();
-            listNodes.add(new Node(nodeInfo, lbWeight));
+            listNodes.add(new Node(getHostInfo(subchannel)));
         }
         return listNodes;
     }
 
+    public static HostInfo getHostInfo(LoadBalancer.Subchannel subchannel) {
+        Ref<HostInfo> hostInfoRef = subchannel.getAttributes().get(GrpcLbAttributes.HOST_INFO_REF);
+        if (hostInfoRef != null) {
+            return hostInfoRef.value;
+        }
+        return checkNotNull(subchannel.getAttributes().get(GrpcLbAttributes.HOST_INFO), "HOST_INFO");
+    }
+
+    public static String getHostIdentity(LoadBalancer.Subchannel subchannel) {
+        return getHostInfo(subchannel).getIdentity();
+    }
+
+    public static int getHostWeight(LoadBalancer.Subchannel subchannel) {
+        return getHostInfo(subchannel).getWeight();
+    }
+
+    /**
+     * Returns the host of an address group: its {@link #HOST_INFO}, or one built from its legacy
+     * {@link #HOST_CONFIG} and its first socket address.
+     */
+    @SuppressWarnings("deprecation")
+    static HostInfo toHostInfo(EquivalentAddressGroup addressGroup) {
+        HostInfo hostInfo = addressGroup.getAttributes().get(HOST_INFO);
+        if (hostInfo != null) {
+            return hostInfo;
+        }
+        Ref<Map<String, ?>> hostConfig = checkNotNull(addressGroup.getAttributes().get(HOST_CONFIG),
+                "neither HOST_INFO nor HOST_CONFIG is set");
+        HostInfo.Builder builder = HostInfo.newBuilder();
+        SocketAddress address = addressGroup.getAddresses().get(0);
+        if (address instanceof InetSocketAddress) {
+            builder.setHost(((InetSocketAddress) address).getHostString())
+                    .setPort(((InetSocketAddress) address).getPort());
+        } else {
+            builder.setHost(address.toString()).setPort(0);
+        }
+        for (Map.Entry<String, ?> entry : hostConfig.value.entrySet()) {
+            if (HOST_LB_WEIGHT.equals(entry.getKey())) {
+                builder.setWeight(Integer.parseInt(entry.getValue().toString()));
+            } else if (!HOST_IDENTITY.equals(entry.getKey())) {
+                builder.putMetadata(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+        }
+        return builder.build();
+    }
+
     public static Ref<ConnectivityStateInfo> getSubchannelStateInfoRef(
             LoadBalancer.Subchannel subchannel) {
         return checkNotNull(subchannel.getAttributes().get(GrpcLbAttributes.STATE_INFO), "STATE_INFO");
     }
 
+    /**
+     * @deprecated use {@link #getHostInfo}
+     */
+    @Deprecated
     public static Ref<Map<String, ?>> getSubchannelHostConfig(
             LoadBalancer.Subchannel subchannel) {
         return checkNotNull(subchannel.getAttributes().get(GrpcLbAttributes.HOST_CONFIG), "HOST_CONFIG is NULL");
     }
 
+    static SubchannelStats getSubchannelStats(LoadBalancer.Subchannel subchannel) {
+        return checkNotNull(subchannel.getAttributes().get(GrpcLbAttributes.SUBCHANNEL_STATS), "SUBCHANNEL_STATS");
+    }
+
     static boolean isReady(LoadBalancer.Subchannel subchannel) {
         return getSubchannelStateInfoRef(subchannel).value.getState() == READY;
     }
 
+    /**
+     * Whether the subchannel is READY and not ejected by the outlier detection.
+     */
+    static boolean isAvailable(LoadBalancer.Subchannel subchannel) {
+        return isReady(subchannel) && !getSubchannelStats(subchannel).isEjected();
+    }
+
 
     public static final class Ref<T> {
         T value;
@@ -0,0 +1,199 @@
+package com.example.grpc.common.lb;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * What a server registers about itself: where to reach it and how much traffic it should get.
+ * Immutable; the identity and the hash code are computed once, so the balancers can read them on
+ * every pick. Attached to the addresses with {@link GrpcLbAttributes#HOST_INFO}.
+ */
+public final class HostInfo {
+
+    /**
+     * Weight of a host that did not register one.
+     */
+    public static final int DEFAULT_WEIGHT = 1;
+
+    private final String host;
+
+    private final int port;
+
+    private final int weight;
+
+    private final String zone;
+
+    private final String version;
+
+    private final Map<String, String> metadata;
+
+    private final String authority;
+
+    private final String identity;
+
+    private final int hash;
+
+    private HostInfo(Builder builder) {
+        this.host = builder.host;
+        this.port = builder.port;
+        this.weight = builder.weight;
+        this.zone = builder.zone;
+        this.version = builder.version;
+        this.metadata = Collections.unmodifiableMap(new LinkedHashMap<>(builder.metadata));
+        this.authority = host.indexOf(':') >= 0 ? "[" + host + "]:" + port : host + ":" + port;
+        this.identity = String.format("%s:%s:%s", host, port, weight);
+        this.hash = Objects.hash(host, port, weight, zone, version, metadata);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the zone of the host, empty when it did not register one.
+     */
+    public String getZone() {
+        return zone;
+    }
+
+    /**
+     * Returns the version of the server deployed on the host, empty when it did not register one.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Returns {@code host:port}, which unlike the identity stays the same when the weight changes.
+     */
+    public String getAuthority() {
+        return authority;
+    }
+
+    /**
+     * Returns {@code host:port:weight}, the key the balancers know a host by.
+     */
+    public String getIdentity() {
+        return identity;
+    }
+
+    public Builder toBuilder() {
+        return new Builder()
+                .setHost(host)
+                .setPort(port)
+                .setWeight(weight)
+                .setZone(zone)
+                .setVersion(version)
+                .putAllMetadata(metadata);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HostInfo)) {
+            return false;
+        }
+        HostInfo that = (HostInfo) o;
+        return hash == that.hash
+                && port == that.port
+                && weight == that.weight
+                && host.equals(that.host)
+                && zone.equals(that.zone)
+                && version.equals(that.version)
+                && metadata.equals(that.metadata);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "HostInfo{" + identity
+                + (zone.isEmpty() ? "" : ", zone=" + zone)
+                + (version.isEmpty() ? "" : ", version=" + version)
+                + (metadata.isEmpty() ? "" : ", metadata=" + metadata)
+                + "}";
+    }
+
+    public static final class Builder {
+        private String host;
+        private int port = -1;
+        private int weight = DEFAULT_WEIGHT;
+        private String zone = "";
+        private String version = "";
+        private final Map<String, String> metadata = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        public Builder setHost(String host) {
+            this.host = Preconditions.checkNotNull(host, "host");
+            return this;
+        }
+
+        public Builder setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder setWeight(int weight) {
+            Preconditions.checkArgument(weight >= 0, "weight must not be negative");
+            this.weight = weight;
+            return this;
+        }
+
+        public Builder setZone(@Nullable String zone) {
+            this.zone = zone == null ? "" : zone;
+            return this;
+        }
+
+        public Builder setVersion(@Nullable String version) {
+            this.version = version == null ? "" : version;
+            return this;
+        }
+
+        public Builder putMetadata(String key, String value) {
+            metadata.put(Preconditions.checkNotNull(key, "key"), Preconditions.checkNotNull(value, "value"));
+            return this;
+        }
+
+        public Builder putAllMetadata(Map<String, String> metadata) {
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                putMetadata(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        public HostInfo build() {
+            Preconditions.checkState(host != null && !host.isEmpty(), "host is not set");
+            Preconditions.checkState(port >= 0 && port <= 0xffff, "invalid port %s", port);
+            return new HostInfo(this);
+        }
+    }
+}
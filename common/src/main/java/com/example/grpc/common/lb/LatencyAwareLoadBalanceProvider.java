@@ -0,0 +1,55 @@
+package com.example.grpc.common.lb;
+
+import com.google.common.base.Preconditions;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancerProvider;
+import io.grpc.NameResolver;
+
+import java.util.Map;
+
+
+/**
+ * Weighted round robin whose weights follow the observed latency and in-flight calls of each
+ * host, on top of its configured {@code lb_weight}. See {@link LatencyAwareWeights}.
+ */
+public final class LatencyAwareLoadBalanceProvider extends LoadBalancerProvider {
+    private static final String NO_CONFIG = "no service config";
+
+    private final LoadBalancerOptions options;
+
+    public LatencyAwareLoadBalanceProvider() {
+        this(LoadBalancerOptions.DEFAULT);
+    }
+
+    public LatencyAwareLoadBalanceProvider(LoadBalancerOptions options) {
+        this.options = Preconditions.checkNotNull(options, "options");
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public int getPriority() {
+        return 5;
+    }
+
+    @Override
+    public String getPolicyName() {
+        return GrpcLbAttributes.LATENCY_AWARE_WEIGHTED;
+    }
+
+    @Override
+    public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+        return new WeightedRoundRobinLoadBalancer(
+                helper, options, new WeightedSelector.Factory(
+                SlowStartWeights.wrap(new LatencyAwareWeights(), options)));
+    }
+
+    @Override
+    public NameResolver.ConfigOrError parseLoadBalancingPolicyConfig(
+            Map<String, ?> rawLoadBalancingPolicyConfig) {
+        return NameResolver.ConfigOrError.fromConfig(NO_CONFIG);
+    }
+}
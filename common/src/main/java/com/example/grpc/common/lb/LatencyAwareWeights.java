@@ -0,0 +1,60 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer.Subchannel;
+
+
+/**
+ * Scales the configured {@code lb_weight} of each host by how fast it currently answers: the
+ * effective weight is {@code lb_weight / (latencyEwma * (inFlight + 1))}, normalized so that the
+ * best host gets {@value #WEIGHT_RESOLUTION}. A host that slows down or queues calls thus loses
+ * share within one refresh period, and wins it back as its average decays. Hosts without samples
+ * yet are assumed to be as fast as the average of the others.
+ */
+final class LatencyAwareWeights implements WeightCalculator {
+
+    static final int WEIGHT_RESOLUTION = 100;
+
+    @Override
+    public void computeWeights(Subchannel[] subchannels, int[] weights) {
+        int n = subchannels.length;
+        double[] latencies = new double[n];
+        double latencySum = 0;
+        int sampled = 0;
+        for (int i = 0; i < n; i++) {
+            latencies[i] = GrpcLbAttributes.getSubchannelStats(subchannels[i]).getLatencyEwmaNanos();
+            if (latencies[i] > 0) {
+                latencySum += latencies[i];
+                sampled++;
+            }
+        }
+        double defaultLatency = sampled == 0 ? 1 : latencySum / sampled;
+
+        double[] scores = new double[n];
+        double maxScore = 0;
+        for (int i = 0; i < n; i++) {
+            int lbWeight = GrpcLbAttributes.getHostWeight(subchannels[i]);
+            if (lbWeight <= 0) {
+                continue;
+            }
+            double latency = latencies[i] > 0 ? latencies[i] : defaultLatency;
+            int inFlight = GrpcLbAttributes.getSubchannelStats(subchannels[i]).getInFlight();
+            scores[i] = lbWeight / (latency * (inFlight + 1));
+            maxScore = Math.max(maxScore, scores[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            weights[i] = scores[i] > 0
+                    ? (int) Math.max(1, Math.round(scores[i] / maxScore * WEIGHT_RESOLUTION))
+                    : 0;
+        }
+    }
+
+    @Override
+    public boolean isDynamic() {
+        return true;
+    }
+
+    @Override
+    public boolean tracksCalls() {
+        return true;
+    }
+}
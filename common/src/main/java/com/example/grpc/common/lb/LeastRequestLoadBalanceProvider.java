@@ -0,0 +1,68 @@
+package com.example.grpc.common.lb;
+
+import com.google.common.base.Preconditions;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancerProvider;
+import io.grpc.NameResolver;
+
+import java.util.Map;
+
+
+/**
+ * Balances on outstanding requests instead of a fixed rotation, see {@link LeastRequestSelector}.
+ */
+public final class LeastRequestLoadBalanceProvider extends LoadBalancerProvider {
+    private static final String NO_CONFIG = "no service config";
+
+    public enum Mode {
+        /**
+         * Picks the less loaded of two random hosts; policy {@code p2c_least_request}.
+         */
+        POWER_OF_TWO_CHOICES,
+        /**
+         * Picks the least loaded of all hosts; policy {@code weighted_least_request}.
+         */
+        WEIGHTED_LEAST_REQUEST
+    }
+
+    private final Mode mode;
+
+    private final LoadBalancerOptions options;
+
+    public LeastRequestLoadBalanceProvider() {
+        this(Mode.POWER_OF_TWO_CHOICES, LoadBalancerOptions.DEFAULT);
+    }
+
+    public LeastRequestLoadBalanceProvider(Mode mode, LoadBalancerOptions options) {
+        this.mode = Preconditions.checkNotNull(mode, "mode");
+        this.options = Preconditions.checkNotNull(options, "options");
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public int getPriority() {
+        return 5;
+    }
+
+    @Override
+    public String getPolicyName() {
+        return mode == Mode.POWER_OF_TWO_CHOICES
+                ? GrpcLbAttributes.P2C_LEAST_REQUEST : GrpcLbAttributes.WEIGHTED_LEAST_REQUEST;
+    }
+
+    @Override
+    public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+        return new WeightedRoundRobinLoadBalancer(
+                helper, options, new LeastRequestSelector.Factory(mode == Mode.POWER_OF_TWO_CHOICES));
+    }
+
+    @Override
+    public NameResolver.ConfigOrError parseLoadBalancingPolicyConfig(
+            Map<String, ?> rawLoadBalancingPolicyConfig) {
+        return NameResolver.ConfigOrError.fromConfig(NO_CONFIG);
+    }
+}
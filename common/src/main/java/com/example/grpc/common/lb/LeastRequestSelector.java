@@ -0,0 +1,100 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+import io.grpc.LoadBalancer.Subchannel;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Sends each call to the subchannel with the fewest outstanding calls relative to its
+ * {@code lb_weight}, read from the atomic in-flight counters of {@link SubchannelStats}. Either
+ * compares two random candidates (power of two choices, O(1)) or scans all of them (weighted least
+ * request, O(N)). Hosts with a weight of 0 only get calls when every host has a weight of 0.
+ */
+final class LeastRequestSelector implements SubchannelSelector {
+
+    private final Subchannel[] subchannels;
+    private final SubchannelStats[] stats;
+    private final int[] weights;
+    private final boolean powerOfTwoChoices;
+
+    LeastRequestSelector(List<Subchannel> list, boolean powerOfTwoChoices) {
+        int positive = 0;
+        for (Subchannel subchannel : list) {
+            if (GrpcLbAttributes.getHostWeight(subchannel) > 0) {
+                positive++;
+            }
+        }
+        int n = positive > 0 ? positive : list.size();
+        this.subchannels = new Subchannel[n];
+        this.stats = new SubchannelStats[n];
+        this.weights = new int[n];
+        int i = 0;
+        for (Subchannel subchannel : list) {
+            int weight = GrpcLbAttributes.getHostWeight(subchannel);
+            if (positive == 0 || weight > 0) {
+                subchannels[i] = subchannel;
+                stats[i] = GrpcLbAttributes.getSubchannelStats(subchannel);
+                weights[i] = positive > 0 ? weight : 1;
+                i++;
+            }
+        }
+        this.powerOfTwoChoices = powerOfTwoChoices;
+    }
+
+    @Override
+    public Subchannel select(PickSubchannelArgs args) {
+        int n = subchannels.length;
+        if (n == 1) {
+            return subchannels[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (powerOfTwoChoices) {
+            int a = random.nextInt(n);
+            int b = random.nextInt(n - 1);
+            if (b >= a) {
+                b++;
+            }
+            return subchannels[lessLoaded(a, b) ? a : b];
+        }
+        // start at a random offset so that ties don't all go to the head of the list
+        int best = random.nextInt(n);
+        for (int k = 1, i = best + 1; k < n; k++, i++) {
+            if (i == n) {
+                i = 0;
+            }
+            if (lessLoaded(i, best)) {
+                best = i;
+            }
+        }
+        return subchannels[best];
+    }
+
+    /**
+     * Whether {@code (inFlight(a) + 1) / weight(a) < (inFlight(b) + 1) / weight(b)}.
+     */
+    private boolean lessLoaded(int a, int b) {
+        return (stats[a].getInFlight() + 1L) * weights[b] < (stats[b].getInFlight() + 1L) * weights[a];
+    }
+
+    static final class Factory implements SubchannelSelector.Factory {
+
+        private final boolean powerOfTwoChoices;
+
+        Factory(boolean powerOfTwoChoices) {
+            this.powerOfTwoChoices = powerOfTwoChoices;
+        }
+
+        @Override
+        public SubchannelSelector newSelector(List<Subchannel> readyList) {
+            return new LeastRequestSelector(readyList, powerOfTwoChoices);
+        }
+
+        @Override
+        public boolean tracksCalls() {
+            return true;
+        }
+    }
+}
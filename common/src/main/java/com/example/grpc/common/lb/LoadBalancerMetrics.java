@@ -0,0 +1,37 @@
+package com.example.grpc.common.lb;
+
+import java.util.Map;
+
+
+/**
+ * Read side of the balancer instrumentation, meant to be scraped by a metrics exporter.
+ */
+public interface LoadBalancerMetrics {
+
+    /**
+     * Returns the number of picks per host identity ({@code host:port:weight}).
+     */
+    Map<String, Long> getPickCounts();
+
+    /**
+     * Returns the distribution of the time spent in {@code pickSubchannel}, in nanoseconds.
+     */
+    LatencyHistogram.Snapshot getPickLatency();
+
+    /**
+     * Returns the number of calls with a stickiness header that went to the subchannel their
+     * session was already bound to.
+     */
+    long getStickinessHits();
+
+    /**
+     * Returns the number of calls with a stickiness header that had to be bound to a newly picked
+     * subchannel, because their session was unknown, evicted or bound to a subchannel gone.
+     */
+    long getStickinessMisses();
+
+    /**
+     * Returns the number of sessions evicted from the stickiness caches to stay within their size.
+     */
+    long getStickinessEvictions();
+}
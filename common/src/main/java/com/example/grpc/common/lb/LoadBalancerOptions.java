@@ -0,0 +1,178 @@
+package com.example.grpc.common.lb;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Optional settings of the balancers created by {@link WeightedRoundRobinLoadBalanceProvider} and
+ * the other providers of this package. Instrumentation is off by default.
+ */
+public final class LoadBalancerOptions {
+
+    public static final LoadBalancerOptions DEFAULT = newBuilder().build();
+
+    @Nullable
+    private final PickMetricsRecorder metricsRecorder;
+
+    private final long weightUpdatePeriodNanos;
+
+    private final long latencyDecayNanos;
+
+    private final int stickinessCacheSize;
+
+    private final long slowStartWindowNanos;
+
+    private final double slowStartCurve;
+
+    private final double slowStartMinWeightFraction;
+
+    @Nullable
+    private final OutlierDetectionOptions outlierDetection;
+
+    private LoadBalancerOptions(Builder builder) {
+        this.metricsRecorder = builder.metricsRecorder;
+        this.weightUpdatePeriodNanos = builder.weightUpdatePeriodNanos;
+        this.latencyDecayNanos = builder.latencyDecayNanos;
+        this.stickinessCacheSize = builder.stickinessCacheSize;
+        this.slowStartWindowNanos = builder.slowStartWindowNanos;
+        this.slowStartCurve = builder.slowStartCurve;
+        this.slowStartMinWeightFraction = builder.slowStartMinWeightFraction;
+        this.outlierDetection = builder.outlierDetection;
+    }
+
+    @Nullable
+    public PickMetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
+    public long getWeightUpdatePeriodNanos() {
+        return weightUpdatePeriodNanos;
+    }
+
+    public long getLatencyDecayNanos() {
+        return latencyDecayNanos;
+    }
+
+    public int getStickinessCacheSize() {
+        return stickinessCacheSize;
+    }
+
+    public long getSlowStartWindowNanos() {
+        return slowStartWindowNanos;
+    }
+
+    public double getSlowStartCurve() {
+        return slowStartCurve;
+    }
+
+    public double getSlowStartMinWeightFraction() {
+        return slowStartMinWeightFraction;
+    }
+
+    @Nullable
+    public OutlierDetectionOptions getOutlierDetection() {
+        return outlierDetection;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private PickMetricsRecorder metricsRecorder;
+        private long weightUpdatePeriodNanos = TimeUnit.SECONDS.toNanos(1);
+        private long latencyDecayNanos = TimeUnit.SECONDS.toNanos(10);
+        private int stickinessCacheSize = WeightedRoundRobinLoadBalancer.StickinessState.DEFAULT_MAX_ENTRIES;
+        private long slowStartWindowNanos;
+        private double slowStartCurve = 1;
+        private double slowStartMinWeightFraction = 0.1;
+        private OutlierDetectionOptions outlierDetection;
+
+        private Builder() {
+        }
+
+        /**
+         * Records pick counts and pick latency into the given recorder. Without it the pick path
+         * carries no instrumentation at all.
+         */
+        public Builder setMetricsRecorder(@Nullable PickMetricsRecorder metricsRecorder) {
+            this.metricsRecorder = metricsRecorder;
+            return this;
+        }
+
+        /**
+         * How often policies with dynamic weights recompute them. Defaults to one second.
+         */
+        public Builder setWeightUpdatePeriod(long period, TimeUnit unit) {
+            Preconditions.checkArgument(period > 0, "period must be positive");
+            this.weightUpdatePeriodNanos = unit.toNanos(period);
+            return this;
+        }
+
+        /**
+         * Time constant of the per-host latency average used by latency aware policies: older
+         * samples lose weight by a factor e per decay period. Defaults to ten seconds.
+         */
+        public Builder setLatencyDecay(long decay, TimeUnit unit) {
+            Preconditions.checkArgument(decay > 0, "decay must be positive");
+            this.latencyDecayNanos = unit.toNanos(decay);
+            return this;
+        }
+
+        /**
+         * Maximum number of stickiness values (sessions) remembered per channel. Defaults to 1000;
+         * size it to the number of concurrently active sessions.
+         */
+        public Builder setStickinessCacheSize(int stickinessCacheSize) {
+            Preconditions.checkArgument(stickinessCacheSize > 0, "stickinessCacheSize must be positive");
+            this.stickinessCacheSize = stickinessCacheSize;
+            return this;
+        }
+
+        /**
+         * How long the weight of a host that just became READY takes to ramp up to its full value,
+         * with the weighted round robin policies. Disabled (0) by default.
+         */
+        public Builder setSlowStartWindow(long window, TimeUnit unit) {
+            Preconditions.checkArgument(window >= 0, "window must not be negative");
+            this.slowStartWindowNanos = unit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * Shape of the slow start ramp: the share of a host grows with {@code (elapsed / window)
+         * ^ curve}. Defaults to 1, a linear ramp; 2 or more keeps cold hosts at a small share for
+         * longer.
+         */
+        public Builder setSlowStartCurve(double curve) {
+            Preconditions.checkArgument(curve > 0, "curve must be positive");
+            this.slowStartCurve = curve;
+            return this;
+        }
+
+        /**
+         * Fraction of its weight a host gets at the start of the slow start window. Defaults to 0.1.
+         */
+        public Builder setSlowStartMinWeightFraction(double fraction) {
+            Preconditions.checkArgument(fraction > 0 && fraction <= 1, "fraction must be in (0, 1]");
+            this.slowStartMinWeightFraction = fraction;
+            return this;
+        }
+
+        /**
+         * Takes the hosts that fail too many calls out of rotation for a while, see
+         * {@link OutlierDetectionOptions}. Disabled by default.
+         */
+        public Builder setOutlierDetection(@Nullable OutlierDetectionOptions outlierDetection) {
+            this.outlierDetection = outlierDetection;
+            return this;
+        }
+
+        public LoadBalancerOptions build() {
+            return new LoadBalancerOptions(this);
+        }
+    }
+}
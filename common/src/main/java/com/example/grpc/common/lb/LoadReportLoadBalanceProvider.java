@@ -0,0 +1,56 @@
+package com.example.grpc.common.lb;
+
+import com.google.common.base.Preconditions;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancerProvider;
+import io.grpc.NameResolver;
+
+import java.util.Map;
+
+
+/**
+ * Weighted round robin whose weights follow the load the servers report in the trailers of their
+ * responses, see {@link LoadReportWeights}. The servers have to install the load reporting
+ * interceptor of {@code grpc-server}.
+ */
+public final class LoadReportLoadBalanceProvider extends LoadBalancerProvider {
+    private static final String NO_CONFIG = "no service config";
+
+    private final LoadBalancerOptions options;
+
+    public LoadReportLoadBalanceProvider() {
+        this(LoadBalancerOptions.DEFAULT);
+    }
+
+    public LoadReportLoadBalanceProvider(LoadBalancerOptions options) {
+        this.options = Preconditions.checkNotNull(options, "options");
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public int getPriority() {
+        return 5;
+    }
+
+    @Override
+    public String getPolicyName() {
+        return GrpcLbAttributes.LOAD_REPORT_WEIGHTED;
+    }
+
+    @Override
+    public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+        return new WeightedRoundRobinLoadBalancer(
+                helper, options, new WeightedSelector.Factory(
+                SlowStartWeights.wrap(new LoadReportWeights(), options)));
+    }
+
+    @Override
+    public NameResolver.ConfigOrError parseLoadBalancingPolicyConfig(
+            Map<String, ?> rawLoadBalancingPolicyConfig) {
+        return NameResolver.ConfigOrError.fromConfig(NO_CONFIG);
+    }
+}
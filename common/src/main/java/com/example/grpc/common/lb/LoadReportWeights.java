@@ -0,0 +1,68 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer.Subchannel;
+
+
+/**
+ * Weighs each host by the capacity its own load reports advertise, see
+ * {@link SubchannelStats#recordLoadReport}: a host that burns more CPU per call, or queues calls,
+ * gets a smaller share, and so does a host close to the concurrency limit it reports, or over it.
+ * The scores are normalized so that the best host gets
+ * {@value LatencyAwareWeights#WEIGHT_RESOLUTION}. Hosts without a recent report, such as ones
+ * that just joined or servers that don't report, get the average score of the others; when no
+ * host reports, the configured {@code lb_weight} is used as is. A host with an {@code lb_weight}
+ * of 0 stays at 0.
+ */
+final class LoadReportWeights implements WeightCalculator {
+
+    @Override
+    public void computeWeights(Subchannel[] subchannels, int[] weights) {
+        int n = subchannels.length;
+        long now = System.nanoTime();
+        double[] scores = new double[n];
+        double scoreSum = 0;
+        int reported = 0;
+        for (int i = 0; i < n; i++) {
+            if (GrpcLbAttributes.getHostWeight(subchannels[i]) <= 0) {
+                continue;
+            }
+            scores[i] = GrpcLbAttributes.getSubchannelStats(subchannels[i]).getLoadScore(now);
+            if (scores[i] > 0) {
+                scoreSum += scores[i];
+                reported++;
+            }
+        }
+        if (reported == 0) {
+            STATIC.computeWeights(subchannels, weights);
+            return;
+        }
+        double defaultScore = scoreSum / reported;
+        double maxScore = 0;
+        for (int i = 0; i < n; i++) {
+            if (scores[i] == 0 && GrpcLbAttributes.getHostWeight(subchannels[i]) > 0) {
+                scores[i] = defaultScore;
+            }
+            maxScore = Math.max(maxScore, scores[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            weights[i] = scores[i] > 0
+                    ? (int) Math.max(1, Math.round(scores[i] / maxScore * LatencyAwareWeights.WEIGHT_RESOLUTION))
+                    : 0;
+        }
+    }
+
+    @Override
+    public boolean isDynamic() {
+        return true;
+    }
+
+    @Override
+    public boolean tracksCalls() {
+        return true;
+    }
+
+    @Override
+    public boolean readsLoadReports() {
+        return true;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.grpc.common.lb;
+
+import com.google.common.base.Preconditions;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancerProvider;
+import io.grpc.NameResolver;
+
+import java.util.Map;
+
+
+/**
+ * Weighted round robin that prefers the hosts of the zone of the client and spills over to the
+ * other zones when the local zone loses capacity. See {@link LocalitySelector}.
+ *
+ * <p>The zone of the client defaults to the {@value #ZONE_PROPERTY} system property, then the
+ * {@value #ZONE_ENV} environment variable; without either, the zones are ignored.
+ */
+public final class LocalityAwareLoadBalanceProvider extends LoadBalancerProvider {
+    private static final String NO_CONFIG = "no service config";
+
+    public static final String ZONE_PROPERTY = "grpc.lb.zone";
+
+    public static final String ZONE_ENV = "GRPC_LB_ZONE";
+
+    public static final double DEFAULT_MIN_LOCAL_CAPACITY = 0.7;
+
+    private final String localZone;
+
+    private final double minLocalCapacity;
+
+    private final LoadBalancerOptions options;
+
+    public LocalityAwareLoadBalanceProvider() {
+        this(defaultZone(), DEFAULT_MIN_LOCAL_CAPACITY, LoadBalancerOptions.DEFAULT);
+    }
+
+    /**
+     * @param localZone        zone of the client, empty to ignore the zones
+     * @param minLocalCapacity share of the weight of the local zone that has to be READY for all
+     *                         calls to stay local, in (0, 1]
+     */
+    public LocalityAwareLoadBalanceProvider(String localZone, double minLocalCapacity, LoadBalancerOptions options) {
+        Preconditions.checkArgument(minLocalCapacity > 0 && minLocalCapacity <= 1,
+                "minLocalCapacity must be in (0, 1]");
+        this.localZone = Preconditions.checkNotNull(localZone, "localZone");
+        this.minLocalCapacity = minLocalCapacity;
+        this.options = Preconditions.checkNotNull(options, "options");
+    }
+
+    private static String defaultZone() {
+        String zone = System.getProperty(ZONE_PROPERTY);
+        if (zone == null) {
+            zone = System.getenv(ZONE_ENV);
+        }
+        return zone == null ? "" : zone;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public int getPriority() {
+        return 5;
+    }
+
+    @Override
+    public String getPolicyName() {
+        return GrpcLbAttributes.LOCALITY_WEIGHTED;
+    }
+
+    @Override
+    public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+        WeightCalculator calculator = SlowStartWeights.wrap(WeightCalculator.STATIC, options);
+        return new WeightedRoundRobinLoadBalancer(helper, options, new LocalitySelector.Factory(
+                localZone, minLocalCapacity,
+                new WeightedSelector.Factory(calculator), new WeightedSelector.Factory(calculator)));
+    }
+
+    @Override
+    public NameResolver.ConfigOrError parseLoadBalancingPolicyConfig(
+            Map<String, ?> rawLoadBalancingPolicyConfig) {
+        return NameResolver.ConfigOrError.fromConfig(NO_CONFIG);
+    }
+}
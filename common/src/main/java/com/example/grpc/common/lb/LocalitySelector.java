@@ -0,0 +1,146 @@
+package com.example.grpc.common.lb;
+
+import com.google.common.base.Preconditions;
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+import io.grpc.LoadBalancer.Subchannel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Keeps calls in the zone of the client as long as enough of the capacity of that zone is
+ * available, and spills the rest over to the other zones. The zones are split once per picker,
+ * each side gets its own selector of the wrapped policy, so a pick is a random draw against a
+ * precomputed share and one pick of the wrapped selector. The two sides are built by separate
+ * factories, so that each keeps its own per-channel state, such as its rotation.
+ *
+ * <p>The available capacity of the local zone is the weight of its READY, non-ejected hosts over
+ * the weight of all its hosts. At or above the threshold every call stays local; below it the
+ * local share drops proportionally, {@code available / threshold}, and the other zones take the
+ * rest in proportion to their own weights. As the capacity counts the hosts that are not READY,
+ * the factory asks for a new selector whenever a host joins or leaves, see
+ * {@link SubchannelSelector.Factory#readsAllSubchannels()}.
+ */
+final class LocalitySelector implements SubchannelSelector {
+
+    private final SubchannelSelector local;
+
+    private final SubchannelSelector remote;
+
+    private final double localShare;
+
+    private LocalitySelector(SubchannelSelector local, SubchannelSelector remote, double localShare) {
+        this.local = local;
+        this.remote = remote;
+        this.localShare = localShare;
+    }
+
+    @Override
+    public Subchannel select(PickSubchannelArgs args) {
+        if (localShare >= 1 || ThreadLocalRandom.current().nextDouble() < localShare) {
+            return local.select(args);
+        }
+        return remote.select(args);
+    }
+
+    @Override
+    public void refresh() {
+        local.refresh();
+        remote.refresh();
+    }
+
+    static final class Factory implements SubchannelSelector.Factory {
+
+        private final String localZone;
+
+        private final double minLocalCapacity;
+
+        private final SubchannelSelector.Factory localDelegate;
+
+        private final SubchannelSelector.Factory remoteDelegate;
+
+        /**
+         * @param localZone        zone of the client, as the servers register it
+         * @param minLocalCapacity share of the weight of the local zone that has to be available
+         *                         for all calls to stay local, in (0, 1]
+         * @param localDelegate    policy picking a host within the local zone, and among all the
+         *                         hosts when there is no choice between the zones
+         * @param remoteDelegate   policy picking a host within the other zones, a separate
+         *                         instance of the same policy
+         */
+        Factory(String localZone, double minLocalCapacity,
+                SubchannelSelector.Factory localDelegate, SubchannelSelector.Factory remoteDelegate) {
+            Preconditions.checkArgument(minLocalCapacity > 0 && minLocalCapacity <= 1,
+                    "minLocalCapacity must be in (0, 1]");
+            Preconditions.checkArgument(localDelegate != remoteDelegate, "the delegates must be separate instances");
+            this.localZone = Preconditions.checkNotNull(localZone, "localZone");
+            this.minLocalCapacity = minLocalCapacity;
+            this.localDelegate = Preconditions.checkNotNull(localDelegate, "localDelegate");
+            this.remoteDelegate = Preconditions.checkNotNull(remoteDelegate, "remoteDelegate");
+        }
+
+        @Override
+        public SubchannelSelector newSelector(List<Subchannel> readyList) {
+            return newSelector(readyList, readyList);
+        }
+
+        @Override
+        public SubchannelSelector newSelector(List<Subchannel> readyList, Collection<Subchannel> allSubchannels) {
+            if (localZone.isEmpty()) {
+                return localDelegate.newSelector(readyList);
+            }
+            long localTotal = 0;
+            for (Subchannel subchannel : allSubchannels) {
+                if (isLocal(subchannel)) {
+                    localTotal += Math.max(0, GrpcLbAttributes.getHostWeight(subchannel));
+                }
+            }
+            List<Subchannel> localList = new ArrayList<>();
+            List<Subchannel> remoteList = new ArrayList<>();
+            long localAvailable = 0;
+            for (Subchannel subchannel : readyList) {
+                if (isLocal(subchannel)) {
+                    localList.add(subchannel);
+                    localAvailable += Math.max(0, GrpcLbAttributes.getHostWeight(subchannel));
+                } else {
+                    remoteList.add(subchannel);
+                }
+            }
+            if (localList.isEmpty() || remoteList.isEmpty()) {
+                // nothing to choose between
+                return (remoteList.isEmpty() ? localDelegate : remoteDelegate).newSelector(readyList);
+            }
+            double available = localTotal == 0 ? 1 : (double) localAvailable / localTotal;
+            double localShare = Math.min(1, available / minLocalCapacity);
+            return new LocalitySelector(localDelegate.newSelector(localList), remoteDelegate.newSelector(remoteList),
+                    localShare);
+        }
+
+        private boolean isLocal(Subchannel subchannel) {
+            return localZone.equals(GrpcLbAttributes.getHostInfo(subchannel).getZone());
+        }
+
+        @Override
+        public boolean readsAllSubchannels() {
+            return !localZone.isEmpty();
+        }
+
+        @Override
+        public boolean tracksCalls() {
+            return localDelegate.tracksCalls() || remoteDelegate.tracksCalls();
+        }
+
+        @Override
+        public boolean isDynamic() {
+            return localDelegate.isDynamic() || remoteDelegate.isDynamic();
+        }
+
+        @Override
+        public boolean readsLoadReports() {
+            return localDelegate.readsLoadReports() || remoteDelegate.readsLoadReports();
+        }
+    }
+}
@@ -6,14 +6,21 @@ public class Node {
 
     private final String serverInfo;
 
+    private final int hash;
+
     private int currentWeight;
 
     public Node(String serverInfo, int weight) {
         this.weight = weight;
         this.serverInfo = serverInfo;
+        this.hash = serverInfo.hashCode();
         this.currentWeight = weight;
     }
 
+    public Node(HostInfo hostInfo) {
+        this(hostInfo.getIdentity(), hostInfo.getWeight());
+    }
+
     public int getCurrentWeight() {
         return currentWeight;
     }
@@ -32,18 +39,18 @@ public class Node {
 
     @Override
     public int hashCode() {
-        return this.serverInfo.hashCode();
+        return hash;
     }
 
     @Override
     public boolean equals(Object obj) {
-        if(obj == null){
-            return false;
-        }
         if(this == obj){
             return true;
         }
+        if(!(obj instanceof Node)){
+            return false;
+        }
         Node node = (Node) obj;
-        return this.serverInfo.equals(node.serverInfo);
+        return this.hash == node.hash && this.serverInfo.equals(node.serverInfo);
     }
 }
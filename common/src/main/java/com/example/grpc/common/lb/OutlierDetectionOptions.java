@@ -0,0 +1,202 @@
+package com.example.grpc.common.lb;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Settings of the outlier detection of the balancers, see {@link LoadBalancerOptions.Builder#setOutlierDetection}.
+ * A host is ejected, that is taken out of the pick schedule while it stays connected, when it
+ * fails too many calls in a row or when its success rate over the sliding window is far below
+ * the one of its peers. Only server-side failures count: {@code UNAVAILABLE},
+ * {@code DEADLINE_EXCEEDED}, {@code INTERNAL} and {@code UNKNOWN}.
+ */
+public final class OutlierDetectionOptions {
+
+    public static final OutlierDetectionOptions DEFAULT = newBuilder().build();
+
+    private final long intervalNanos;
+
+    private final int windowIntervals;
+
+    private final int consecutiveFailures;
+
+    private final double successRateStdevFactor;
+
+    private final int successRateMinimumHosts;
+
+    private final int successRateRequestVolume;
+
+    private final long baseEjectionTimeNanos;
+
+    private final long maxEjectionTimeNanos;
+
+    private final int maxEjectionPercent;
+
+    private OutlierDetectionOptions(Builder builder) {
+        this.intervalNanos = builder.intervalNanos;
+        this.windowIntervals = (int) Math.max(1, (builder.windowNanos + intervalNanos - 1) / intervalNanos);
+        this.consecutiveFailures = builder.consecutiveFailures;
+        this.successRateStdevFactor = builder.successRateStdevFactor;
+        this.successRateMinimumHosts = builder.successRateMinimumHosts;
+        this.successRateRequestVolume = builder.successRateRequestVolume;
+        this.baseEjectionTimeNanos = builder.baseEjectionTimeNanos;
+        this.maxEjectionTimeNanos = builder.maxEjectionTimeNanos;
+        this.maxEjectionPercent = builder.maxEjectionPercent;
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * Length of the success rate window, in intervals.
+     */
+    public int getWindowIntervals() {
+        return windowIntervals;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public double getSuccessRateStdevFactor() {
+        return successRateStdevFactor;
+    }
+
+    public int getSuccessRateMinimumHosts() {
+        return successRateMinimumHosts;
+    }
+
+    public int getSuccessRateRequestVolume() {
+        return successRateRequestVolume;
+    }
+
+    public long getBaseEjectionTimeNanos() {
+        return baseEjectionTimeNanos;
+    }
+
+    public long getMaxEjectionTimeNanos() {
+        return maxEjectionTimeNanos;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private long intervalNanos = TimeUnit.SECONDS.toNanos(5);
+        private long windowNanos = TimeUnit.SECONDS.toNanos(30);
+        private int consecutiveFailures = 5;
+        private double successRateStdevFactor = 1.9;
+        private int successRateMinimumHosts = 5;
+        private int successRateRequestVolume = 100;
+        private long baseEjectionTimeNanos = TimeUnit.SECONDS.toNanos(30);
+        private long maxEjectionTimeNanos = TimeUnit.MINUTES.toNanos(5);
+        private int maxEjectionPercent = 10;
+
+        private Builder() {
+        }
+
+        /**
+         * How often the success rates are evaluated and ejected hosts are considered for return.
+         * Defaults to 5 seconds.
+         */
+        public Builder setInterval(long interval, TimeUnit unit) {
+            Preconditions.checkArgument(interval > 0, "interval must be positive");
+            this.intervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Length of the sliding window the success rates are computed over, rounded up to a
+         * multiple of the interval. Defaults to 30 seconds.
+         */
+        public Builder setWindow(long window, TimeUnit unit) {
+            Preconditions.checkArgument(window > 0, "window must be positive");
+            this.windowNanos = unit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * Number of failures in a row that eject a host right away. Defaults to 5; 0 disables the
+         * check.
+         */
+        public Builder setConsecutiveFailures(int consecutiveFailures) {
+            Preconditions.checkArgument(consecutiveFailures >= 0, "consecutiveFailures must not be negative");
+            this.consecutiveFailures = consecutiveFailures;
+            return this;
+        }
+
+        /**
+         * A host is ejected when its success rate is below {@code mean - factor * stdev} of the
+         * success rates of all hosts. Defaults to 1.9; 0 disables the check.
+         */
+        public Builder setSuccessRateStdevFactor(double factor) {
+            Preconditions.checkArgument(factor >= 0, "factor must not be negative");
+            this.successRateStdevFactor = factor;
+            return this;
+        }
+
+        /**
+         * Minimum number of hosts with enough calls in the window for the success rates to be
+         * compared at all. Defaults to 5.
+         */
+        public Builder setSuccessRateMinimumHosts(int minimumHosts) {
+            Preconditions.checkArgument(minimumHosts > 0, "minimumHosts must be positive");
+            this.successRateMinimumHosts = minimumHosts;
+            return this;
+        }
+
+        /**
+         * Minimum number of calls a host must have completed in the window for its success rate
+         * to count. Defaults to 100.
+         */
+        public Builder setSuccessRateRequestVolume(int requestVolume) {
+            Preconditions.checkArgument(requestVolume > 0, "requestVolume must be positive");
+            this.successRateRequestVolume = requestVolume;
+            return this;
+        }
+
+        /**
+         * How long a host stays ejected the first time. Every ejection that follows closely on
+         * the previous one doubles it, up to the max ejection time. Defaults to 30 seconds.
+         */
+        public Builder setBaseEjectionTime(long time, TimeUnit unit) {
+            Preconditions.checkArgument(time > 0, "time must be positive");
+            this.baseEjectionTimeNanos = unit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * Upper bound of the ejection time. Defaults to 5 minutes.
+         */
+        public Builder setMaxEjectionTime(long time, TimeUnit unit) {
+            Preconditions.checkArgument(time > 0, "time must be positive");
+            this.maxEjectionTimeNanos = unit.toNanos(time);
+            return this;
+        }
+
+        /**
+         * Maximum share of the hosts that can be ejected at the same time; unless it is 0, one
+         * host can always be. Defaults to 10.
+         */
+        public Builder setMaxEjectionPercent(int maxEjectionPercent) {
+            Preconditions.checkArgument(maxEjectionPercent >= 0 && maxEjectionPercent <= 100,
+                    "maxEjectionPercent must be in [0, 100]");
+            this.maxEjectionPercent = maxEjectionPercent;
+            return this;
+        }
+
+        public OutlierDetectionOptions build() {
+            Preconditions.checkArgument(maxEjectionTimeNanos >= baseEjectionTimeNanos,
+                    "max ejection time must not be shorter than the base ejection time");
+            return new OutlierDetectionOptions(this);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer.Subchannel;
+import io.grpc.Status;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Ejects the hosts that fail too many calls, see {@link OutlierDetectionOptions}. The stream
+ * tracers only bump lock-free counters of {@link SubchannelStats}; everything else runs in the
+ * synchronization context of the balancer, which rebuilds its picker without the ejected hosts
+ * whenever {@link #detect} or {@link #checkConsecutiveFailures} report a change.
+ *
+ * <p>The success rate window slides by one interval at a time: every interval the cumulative
+ * counters of each host are recorded in a ring, and the rate is taken over the difference with
+ * the oldest record.
+ */
+final class OutlierDetector {
+
+    private final OutlierDetectionOptions options;
+
+    private final Runnable consecutiveFailureCheck;
+
+    // only accessed from the synchronization context
+    private final Map<Subchannel, HostState> hosts = new HashMap<>();
+
+    /**
+     * @param consecutiveFailureCheck posted by the stream tracers when a host reaches the
+     *                                consecutive failure threshold, runs
+     *                                {@link #checkConsecutiveFailures} in the synchronization
+     *                                context
+     */
+    OutlierDetector(OutlierDetectionOptions options, Runnable consecutiveFailureCheck) {
+        this.options = options;
+        this.consecutiveFailureCheck = consecutiveFailureCheck;
+    }
+
+    OutlierDetectionOptions getOptions() {
+        return options;
+    }
+
+    static boolean isFailure(Status status) {
+        switch (status.getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case INTERNAL:
+            case UNKNOWN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Called by a stream tracer when its host just reached the consecutive failure threshold.
+     */
+    void onConsecutiveFailures() {
+        consecutiveFailureCheck.run();
+    }
+
+    /**
+     * Returns the hosts whose ejection ended, evaluates the success rates and the consecutive
+     * failures, and slides the window. Returns whether a host was ejected or returned.
+     */
+    boolean detect(Collection<Subchannel> subchannels, long nowNanos) {
+        boolean changed = false;
+        int n = subchannels.size();
+        int ejected = 0;
+        int candidates = 0;
+        double rateSum = 0;
+        for (Subchannel subchannel : subchannels) {
+            SubchannelStats stats = GrpcLbAttributes.getSubchannelStats(subchannel);
+            HostState host = hostState(subchannel, stats);
+            if (stats.isEjected()) {
+                if (nowNanos - host.ejectedUntilNanos >= 0) {
+                    stats.setEjected(false);
+                    stats.resetConsecutiveFailures();
+                    // the calls before the ejection say nothing about the host anymore
+                    host.resetWindow(stats);
+                    changed = true;
+                } else {
+                    ejected++;
+                }
+            } else if (host.ejections > 0) {
+                // a host that stays in long enough is back to the base ejection time
+                host.ejections--;
+            }
+            host.slide(stats);
+            if (!stats.isEjected() && host.windowTotal >= options.getSuccessRateRequestVolume()) {
+                candidates++;
+                rateSum += host.windowSuccessRate();
+            }
+        }
+
+        if (options.getSuccessRateStdevFactor() > 0 && candidates >= options.getSuccessRateMinimumHosts()) {
+            double mean = rateSum / candidates;
+            double squares = 0;
+            for (Subchannel subchannel : subchannels) {
+                HostState host = hosts.get(subchannel);
+                if (isCandidate(subchannel, host)) {
+                    double d = host.windowSuccessRate() - mean;
+                    squares += d * d;
+                }
+            }
+            double threshold = mean - options.getSuccessRateStdevFactor() * Math.sqrt(squares / candidates);
+            for (Subchannel subchannel : subchannels) {
+                HostState host = hosts.get(subchannel);
+                if (isCandidate(subchannel, host) && host.windowSuccessRate() < threshold
+                        && eject(subchannel, host, ejected, n, nowNanos)) {
+                    ejected++;
+                    changed = true;
+                }
+            }
+        }
+        return checkConsecutiveFailures(subchannels, ejected, nowNanos) || changed;
+    }
+
+    private boolean isCandidate(Subchannel subchannel, HostState host) {
+        return !GrpcLbAttributes.getSubchannelStats(subchannel).isEjected()
+                && host.windowTotal >= options.getSuccessRateRequestVolume();
+    }
+
+    /**
+     * Ejects the hosts that reached the consecutive failure threshold. Returns whether a host was
+     * ejected.
+     */
+    boolean checkConsecutiveFailures(Collection<Subchannel> subchannels, long nowNanos) {
+        int ejected = 0;
+        for (Subchannel subchannel : subchannels) {
+            if (GrpcLbAttributes.getSubchannelStats(subchannel).isEjected()) {
+                ejected++;
+            }
+        }
+        return checkConsecutiveFailures(subchannels, ejected, nowNanos);
+    }
+
+    private boolean checkConsecutiveFailures(Collection<Subchannel> subchannels, int ejected, long nowNanos) {
+        if (options.getConsecutiveFailures() == 0) {
+            return false;
+        }
+        boolean changed = false;
+        for (Subchannel subchannel : subchannels) {
+            SubchannelStats stats = GrpcLbAttributes.getSubchannelStats(subchannel);
+            if (!stats.isEjected() && stats.getConsecutiveFailures() >= options.getConsecutiveFailures()
+                    && eject(subchannel, hostState(subchannel, stats), ejected, subchannels.size(), nowNanos)) {
+                ejected++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean eject(Subchannel subchannel, HostState host, int ejected, int n, long nowNanos) {
+        if (ejected * 100L >= (long) n * options.getMaxEjectionPercent()) {
+            return false;
+        }
+        host.ejections++;
+        long time = options.getBaseEjectionTimeNanos() << Math.min(host.ejections - 1, 20);
+        if (time <= 0 || time > options.getMaxEjectionTimeNanos()) {
+            time = options.getMaxEjectionTimeNanos();
+        }
+        host.ejectedUntilNanos = nowNanos + time;
+        GrpcLbAttributes.getSubchannelStats(subchannel).setEjected(true);
+        return true;
+    }
+
+    /**
+     * How long the host stays ejected, or 0 when it is not.
+     */
+    long getRemainingEjectionNanos(Subchannel subchannel, long nowNanos) {
+        HostState host = hosts.get(subchannel);
+        if (host == null || !GrpcLbAttributes.getSubchannelStats(subchannel).isEjected()) {
+            return 0;
+        }
+        return Math.max(0, host.ejectedUntilNanos - nowNanos);
+    }
+
+    void remove(Subchannel subchannel) {
+        hosts.remove(subchannel);
+    }
+
+    private HostState hostState(Subchannel subchannel, SubchannelStats stats) {
+        HostState host = hosts.get(subchannel);
+        if (host == null) {
+            host = new HostState(options.getWindowIntervals(), stats);
+            hosts.put(subchannel, host);
+        }
+        return host;
+    }
+
+    private static final class HostState {
+        // cumulative counters at the end of each of the last intervals, oldest at next
+        final long[] successes;
+        final long[] failures;
+        int next;
+        long windowSuccesses;
+        long windowTotal;
+        int ejections;
+        long ejectedUntilNanos;
+
+        HostState(int windowIntervals, SubchannelStats stats) {
+            successes = new long[windowIntervals];
+            failures = new long[windowIntervals];
+            resetWindow(stats);
+        }
+
+        void resetWindow(SubchannelStats stats) {
+            long s = stats.getSuccesses();
+            long f = stats.getFailures();
+            for (int i = 0; i < successes.length; i++) {
+                successes[i] = s;
+                failures[i] = f;
+            }
+            windowSuccesses = 0;
+            windowTotal = 0;
+        }
+
+        void slide(SubchannelStats stats) {
+            long s = stats.getSuccesses();
+            long f = stats.getFailures();
+            windowSuccesses = s - successes[next];
+            windowTotal = windowSuccesses + f - failures[next];
+            successes[next] = s;
+            failures[next] = f;
+            next = (next + 1) % successes.length;
+        }
+
+        double windowSuccessRate() {
+            return windowTotal == 0 ? 1 : (double) windowSuccesses / windowTotal;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.grpc.common.lb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Collects pick counts, pick latency and stickiness statistics for every balancer it is handed to. Recording is
+ * lock-free; a counter is only allocated the first time a host is picked.
+ */
+public final class PickMetricsRecorder implements LoadBalancerMetrics {
+
+    private final ConcurrentMap<String, LongAdder> pickCounts = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram pickLatency = new LatencyHistogram();
+
+    private final LongAdder stickinessHits = new LongAdder();
+
+    private final LongAdder stickinessMisses = new LongAdder();
+
+    private final LongAdder stickinessEvictions = new LongAdder();
+
+    void recordPick(String hostIdentity, long latencyNanos) {
+        LongAdder counter = pickCounts.get(hostIdentity);
+        if (counter == null) {
+            LongAdder newCounter = new LongAdder();
+            counter = pickCounts.putIfAbsent(hostIdentity, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.increment();
+        pickLatency.record(latencyNanos);
+    }
+
+    void recordStickinessHit() {
+        stickinessHits.increment();
+    }
+
+    void recordStickinessMiss() {
+        stickinessMisses.increment();
+    }
+
+    void recordStickinessEviction() {
+        stickinessEvictions.increment();
+    }
+
+    @Override
+    public Map<String, Long> getPickCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : pickCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getPickLatency() {
+        return pickLatency.snapshot();
+    }
+
+    @Override
+    public long getStickinessHits() {
+        return stickinessHits.sum();
+    }
+
+    @Override
+    public long getStickinessMisses() {
+        return stickinessMisses.sum();
+    }
+
+    @Override
+    public long getStickinessEvictions() {
+        return stickinessEvictions.sum();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.grpc.common.lb;
+
+import com.google.common.base.Preconditions;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancerProvider;
+import io.grpc.NameResolver;
+
+import java.util.Map;
+
+
+/**
+ * Consistent hashing on the value of a request header, for cache affinity: calls with the same
+ * value go to the same host as long as it is READY. See {@link RingHashSelector}.
+ */
+public final class RingHashLoadBalanceProvider extends LoadBalancerProvider {
+    private static final String NO_CONFIG = "no service config";
+
+    public static final String DEFAULT_HASH_HEADER = "lb-hash-key";
+
+    private final String hashHeader;
+
+    private final LoadBalancerOptions options;
+
+    public RingHashLoadBalanceProvider() {
+        this(DEFAULT_HASH_HEADER, LoadBalancerOptions.DEFAULT);
+    }
+
+    public RingHashLoadBalanceProvider(String hashHeader, LoadBalancerOptions options) {
+        this.hashHeader = Preconditions.checkNotNull(hashHeader, "hashHeader");
+        this.options = Preconditions.checkNotNull(options, "options");
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public int getPriority() {
+        return 5;
+    }
+
+    @Override
+    public String getPolicyName() {
+        return GrpcLbAttributes.RING_HASH;
+    }
+
+    @Override
+    public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+        return new WeightedRoundRobinLoadBalancer(
+                helper, options, new RingHashSelector.Factory(hashHeader));
+    }
+
+    @Override
+    public NameResolver.ConfigOrError parseLoadBalancingPolicyConfig(
+            Map<String, ?> rawLoadBalancingPolicyConfig) {
+        return NameResolver.ConfigOrError.fromConfig(NO_CONFIG);
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+import io.grpc.LoadBalancer.Subchannel;
+import io.grpc.Metadata;
+import io.grpc.Metadata.Key;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Consistent hashing over the READY subchannels of a picker: every call carrying the configured
+ * header goes to the first point at or after the hash of the header value on a ring, so the same
+ * value keeps going to the same host and a membership change only moves the values of the ring
+ * arcs that changed owner, about 1/N of them. Calls without the header land on a random point.
+ *
+ * <p>Each host places {@value #POINTS_PER_WEIGHT} points on the ring per unit of its
+ * {@code lb_weight}, independently of the other hosts, so that a light host next to heavy ones
+ * keeps enough points to get its share and a host joining with a new maximum weight does not
+ * move the points of the others. Only when the ring would exceed {@value #MAX_RING_SIZE} points
+ * are the points per unit halved until it fits, which remaps more values but only happens when
+ * the total weight crosses a power of two past the cap. Hosts with a weight of 0 only get calls
+ * when every host has a weight of 0. A pick is a binary search over a primitive array and does not allocate
+ * apart from the header value decoded by {@link Metadata#get}.
+ */
+final class RingHashSelector implements SubchannelSelector {
+
+    static final int POINTS_PER_WEIGHT = 160;
+
+    /**
+     * Upper bound of the ring, 12 bytes per point and built again by every picker.
+     */
+    static final int MAX_RING_SIZE = 1 << 16;
+
+    private final Key<String> hashKey;
+    // sorted ring positions and, at the same index, the subchannel owning the position
+    private final long[] ring;
+    private final int[] owners;
+    private final Subchannel[] subchannels;
+
+    private RingHashSelector(Key<String> hashKey, long[] ring, int[] owners, Subchannel[] subchannels) {
+        this.hashKey = hashKey;
+        this.ring = ring;
+        this.owners = owners;
+        this.subchannels = subchannels;
+    }
+
+    @Override
+    public Subchannel select(PickSubchannelArgs args) {
+        String value = args.getHeaders().get(hashKey);
+        long hash = value == null ? ThreadLocalRandom.current().nextLong() : hash(value);
+        int low = 0;
+        int high = ring.length - 1;
+        if (hash > ring[high]) {
+            // past the last point, wrap around to the first one
+            return subchannels[owners[0]];
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ring[mid] < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return subchannels[owners[low]];
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars of the value followed by the murmur3 finalizer, so that close
+     * values such as sequential ids spread over the whole ring.
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Points of one host, sorted. They only depend on the authority of the host and their count,
+     * and a host with fewer points has a subset of the points it has with more, so a weight change
+     * only moves the values of the arcs the host gains or loses.
+     */
+    private static long[] points(String authority, int count) {
+        long seed = hash(authority);
+        long[] points = new long[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = mix(seed + (i + 1) * 0x9e3779b97f4a7c15L);
+        }
+        Arrays.sort(points);
+        return points;
+    }
+
+    static final class Factory implements SubchannelSelector.Factory {
+
+        private final Key<String> hashKey;
+
+        // Points of the hosts of the last ring, by host authority. Only accessed from the
+        // synchronization context, where pickers are built, so that a membership change only
+        // hashes the hosts that joined or whose weight changed.
+        private final Map<String, long[]> pointsCache = new HashMap<>();
+
+        Factory(String hashHeader) {
+            this.hashKey = Key.of(hashHeader, Metadata.ASCII_STRING_MARSHALLER);
+        }
+
+        @Override
+        public SubchannelSelector newSelector(List<Subchannel> readyList) {
+            int n = readyList.size();
+            int[] weights = new int[n];
+            long totalWeight = 0;
+            for (int i = 0; i < n; i++) {
+                weights[i] = Math.max(0, GrpcLbAttributes.getHostWeight(readyList.get(i)));
+                totalWeight += weights[i];
+            }
+            if (totalWeight == 0) {
+                Arrays.fill(weights, 1);
+                totalWeight = n;
+            }
+            double pointsPerWeight = POINTS_PER_WEIGHT;
+            while (totalWeight * pointsPerWeight > MAX_RING_SIZE) {
+                pointsPerWeight /= 2;
+            }
+
+            Subchannel[] subchannels = new Subchannel[n];
+            long[][] hostPoints = new long[n][];
+            Set<String> authorities = new HashSet<>();
+            int hosts = 0;
+            int total = 0;
+            for (int i = 0; i < n; i++) {
+                if (weights[i] == 0) {
+                    continue;
+                }
+                Subchannel subchannel = readyList.get(i);
+                String authority = GrpcLbAttributes.getHostInfo(subchannel).getAuthority();
+                int count = (int) Math.max(1, (long) (weights[i] * pointsPerWeight));
+                long[] points = pointsCache.get(authority);
+                if (points == null || points.length != count) {
+                    points = points(authority, count);
+                    pointsCache.put(authority, points);
+                }
+                authorities.add(authority);
+                subchannels[hosts] = subchannel;
+                hostPoints[hosts++] = points;
+                total += count;
+            }
+            pointsCache.keySet().retainAll(authorities);
+
+            long[] ring = new long[total];
+            int[] owners = new int[total];
+            merge(hostPoints, hosts, ring, owners);
+            return new RingHashSelector(hashKey, ring, owners, subchannels);
+        }
+
+        /**
+         * K-way merge of the sorted points of every host into the ring, with a min-heap of hosts
+         * ordered by their next point.
+         */
+        private static void merge(long[][] hostPoints, int hosts, long[] ring, int[] owners) {
+            int[] heap = new int[hosts];
+            int[] next = new int[hosts];
+            int size = 0;
+            for (int h = 0; h < hosts; h++) {
+                heap[size] = h;
+                siftUp(heap, size++, hostPoints, next);
+            }
+            for (int r = 0; r < ring.length; r++) {
+                int top = heap[0];
+                ring[r] = hostPoints[top][next[top]];
+                owners[r] = top;
+                if (++next[top] == hostPoints[top].length) {
+                    heap[0] = heap[--size];
+                }
+                siftDown(heap, size, hostPoints, next);
+            }
+        }
+
+        private static boolean before(int a, int b, long[][] hostPoints, int[] next) {
+            long pa = hostPoints[a][next[a]];
+            long pb = hostPoints[b][next[b]];
+            // ties, as unlikely as they are, go to the lower index so the ring is deterministic
+            return pa < pb || (pa == pb && a < b);
+        }
+
+        private static void siftUp(int[] heap, int pos, long[][] hostPoints, int[] next) {
+            int node = heap[pos];
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (!before(node, heap[parent], hostPoints, next)) {
+                    break;
+                }
+                heap[pos] = heap[parent];
+                pos = parent;
+            }
+            heap[pos] = node;
+        }
+
+        private static void siftDown(int[] heap, int size, long[][] hostPoints, int[] next) {
+            if (size == 0) {
+                return;
+            }
+            int pos = 0;
+            int node = heap[pos];
+            while (true) {
+                int child = 2 * pos + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(heap[child + 1], heap[child], hostPoints, next)) {
+                    child++;
+                }
+                if (!before(heap[child], node, hostPoints, next)) {
+                    break;
+                }
+                heap[pos] = heap[child];
+                pos = child;
+            }
+            heap[pos] = node;
+        }
+    }
+}
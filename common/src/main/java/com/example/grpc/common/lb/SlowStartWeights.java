@@ -0,0 +1,100 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer.Subchannel;
+
+
+/**
+ * Ramps up the weight of hosts that just became READY, so that a freshly started server warms
+ * up its JIT and caches on a fraction of its share instead of taking all of it at once. During
+ * the window the weight of the delegate is scaled by {@code max(minFraction, (elapsed / window)
+ * ^ curve)}: a curve of 1 ramps linearly, a larger one holds the host back longer.
+ *
+ * <p>A subchannel starts a ramp when it becomes READY for the first time, and again when it is
+ * READY after being IDLE or in TRANSIENT_FAILURE: a server restarted on the same address before
+ * its registration expired is just as cold as a new one. A reconnect to a warm server ramps too,
+ * which only costs it a share of its calls for one window. The ramp is applied when the
+ * schedule is recomputed from the synchronization context, every
+ * {@link LoadBalancerOptions#getWeightUpdatePeriodNanos() weight update period}, so picks keep
+ * reading a precomputed schedule.
+ */
+final class SlowStartWeights implements WeightCalculator {
+
+    /**
+     * Minimum spread of the scaled weights, so that small configured weights can still be ramped
+     * in steps of 1%.
+     */
+    static final int RAMP_RESOLUTION = 100;
+
+    private final WeightCalculator delegate;
+
+    private final long windowNanos;
+
+    private final double curve;
+
+    private final double minFraction;
+
+    private SlowStartWeights(WeightCalculator delegate, long windowNanos, double curve, double minFraction) {
+        this.delegate = delegate;
+        this.windowNanos = windowNanos;
+        this.curve = curve;
+        this.minFraction = minFraction;
+    }
+
+    /**
+     * Returns the calculator with the slow start of the options applied, or as is when slow start
+     * is disabled.
+     */
+    static WeightCalculator wrap(WeightCalculator delegate, LoadBalancerOptions options) {
+        if (options.getSlowStartWindowNanos() <= 0) {
+            return delegate;
+        }
+        return new SlowStartWeights(delegate, options.getSlowStartWindowNanos(),
+                options.getSlowStartCurve(), options.getSlowStartMinWeightFraction());
+    }
+
+    @Override
+    public void computeWeights(Subchannel[] subchannels, int[] weights) {
+        delegate.computeWeights(subchannels, weights);
+        long now = System.nanoTime();
+        boolean ramping = false;
+        int maxWeight = 0;
+        for (int i = 0; i < subchannels.length; i++) {
+            ramping |= rampFactor(subchannels[i], now) < 1;
+            maxWeight = Math.max(maxWeight, weights[i]);
+        }
+        if (!ramping || maxWeight == 0) {
+            return;
+        }
+        long scale = Math.max(1, (RAMP_RESOLUTION + maxWeight - 1) / maxWeight);
+        for (int i = 0; i < subchannels.length; i++) {
+            if (weights[i] > 0) {
+                double factor = rampFactor(subchannels[i], now);
+                weights[i] = (int) Math.min(Integer.MAX_VALUE,
+                        Math.max(1, Math.round(weights[i] * scale * factor)));
+            }
+        }
+    }
+
+    private double rampFactor(Subchannel subchannel, long now) {
+        long elapsed = GrpcLbAttributes.getSubchannelStats(subchannel).getReadyForNanos(now);
+        if (elapsed >= windowNanos) {
+            return 1;
+        }
+        return Math.max(minFraction, Math.pow(Math.max(0, elapsed) / (double) windowNanos, curve));
+    }
+
+    @Override
+    public boolean isDynamic() {
+        return true;
+    }
+
+    @Override
+    public boolean tracksCalls() {
+        return delegate.tracksCalls();
+    }
+
+    @Override
+    public boolean readsLoadReports() {
+        return delegate.readsLoadReports();
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.grpc.common.lb;
+
+import com.example.grpc.common.lb.GrpcLbAttributes.Ref;
+import io.grpc.LoadBalancer.Subchannel;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Bounded registry from stickiness value to subchannel reference.
+ *
+ * <p>Lookups go through a {@link ConcurrentHashMap} and never block. Eviction follows a segmented
+ * LRU policy: a new value enters the probation list of its segment and is promoted to the
+ * protected list (80% of the segment) when it is looked up again, so a burst of one-off sessions
+ * only evicts other one-off sessions while returning ones stay. The lists are intrusive, so an
+ * entry moves between them without allocating. Reordering after a hit is best effort: when the
+ * segment lock is contended the hit is not recorded, which only makes the LRU order approximate.
+ */
+final class StickinessCache {
+
+    private static final int MAX_SEGMENTS = 64;
+
+    private static final int MIN_SEGMENT_SIZE = 16;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Entry, Ref> VALUE_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Entry.class, Ref.class, "value");
+
+    private final ConcurrentHashMap<String, Entry> map;
+
+    private final Segment[] segments;
+
+    @Nullable
+    private final PickMetricsRecorder metricsRecorder;
+
+    StickinessCache(int maximumSize, @Nullable PickMetricsRecorder metricsRecorder) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * MIN_SEGMENT_SIZE <= maximumSize) {
+            segmentCount *= 2;
+        }
+        // spread the remainder so the segments add up to exactly maximumSize
+        int segmentSize = maximumSize / segmentCount;
+        int remainder = maximumSize % segmentCount;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(i < remainder ? segmentSize + 1 : segmentSize);
+        }
+        this.map = new ConcurrentHashMap<>(Math.min(maximumSize, 1 << 16));
+        this.metricsRecorder = metricsRecorder;
+    }
+
+    @Nullable
+    Ref<Subchannel> get(String key) {
+        Entry entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        segments[entry.hash & (segments.length - 1)].recordAccess(entry);
+        return entry.value;
+    }
+
+    /**
+     * Associates the value with the key unless it is already present, like
+     * {@link java.util.concurrent.ConcurrentMap#putIfAbsent}. May evict another entry.
+     */
+    @Nullable
+    Ref<Subchannel> putIfAbsent(String key, Ref<Subchannel> value) {
+        Ref<Subchannel> existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int hash = spread(key.hashCode());
+        return segments[hash & (segments.length - 1)].insert(key, hash, value);
+    }
+
+    /**
+     * Replaces the value only if it is still {@code expected}, like
+     * {@link java.util.concurrent.ConcurrentMap#replace(Object, Object, Object)}.
+     */
+    @SuppressWarnings("unchecked")
+    boolean replace(String key, Ref<Subchannel> expected, Ref<Subchannel> value) {
+        Entry entry = map.get(key);
+        return entry != null && VALUE_UPDATER.compareAndSet(entry, expected, value);
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    Map<String, Ref<Subchannel>> snapshot() {
+        Map<String, Ref<Subchannel>> copy = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : map.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().value);
+        }
+        return copy;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Entry {
+        final String key;
+        final int hash;
+        volatile Ref<Subchannel> value;
+
+        // guarded by the segment lock
+        Entry prev;
+        Entry next;
+        boolean isProtected;
+        boolean removed;
+
+        Entry(String key, int hash, Ref<Subchannel> value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.prev = this;
+            this.next = this;
+        }
+    }
+
+    private final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int capacity;
+        private final int protectedCapacity;
+        // circular lists with a sentinel, most recently used first
+        private final Entry probation = new Entry(null, 0, null);
+        private final Entry protectedList = new Entry(null, 0, null);
+        private int probationSize;
+        private int protectedSize;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = Math.max(1, capacity * 4 / 5);
+        }
+
+        void recordAccess(Entry entry) {
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                if (entry.removed) {
+                    return;
+                }
+                unlink(entry);
+                if (entry.isProtected) {
+                    linkFirst(protectedList, entry);
+                    return;
+                }
+                probationSize--;
+                entry.isProtected = true;
+                linkFirst(protectedList, entry);
+                protectedSize++;
+                if (protectedSize > protectedCapacity) {
+                    Entry demoted = protectedList.prev;
+                    unlink(demoted);
+                    protectedSize--;
+                    demoted.isProtected = false;
+                    linkFirst(probation, demoted);
+                    probationSize++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Nullable
+        Ref<Subchannel> insert(String key, int hash, Ref<Subchannel> value) {
+            lock.lock();
+            try {
+                // all inserts and removals of a key happen under the lock of its segment
+                Entry existing = map.get(key);
+                if (existing != null) {
+                    return existing.value;
+                }
+                Entry entry = new Entry(key, hash, value);
+                map.put(key, entry);
+                linkFirst(probation, entry);
+                probationSize++;
+                if (probationSize + protectedSize > capacity) {
+                    evict();
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void evict() {
+            Entry victim;
+            // never the entry that was just inserted, unless it is alone in the segment
+            if (probationSize > 1 || protectedSize == 0) {
+                victim = probation.prev;
+                probationSize--;
+            } else {
+                victim = protectedList.prev;
+                protectedSize--;
+            }
+            unlink(victim);
+            victim.removed = true;
+            map.remove(victim.key, victim);
+            if (metricsRecorder != null) {
+                metricsRecorder.recordStickinessEviction();
+            }
+        }
+
+        private void linkFirst(Entry head, Entry entry) {
+            entry.prev = head;
+            entry.next = head.next;
+            head.next.prev = entry;
+            head.next = entry;
+        }
+
+        private void unlink(Entry entry) {
+            entry.prev.next = entry.next;
+            entry.next.prev = entry.prev;
+            entry.prev = entry;
+            entry.next = entry;
+        }
+    }
+}
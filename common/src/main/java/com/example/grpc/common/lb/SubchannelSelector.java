@@ -0,0 +1,72 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+import io.grpc.LoadBalancer.Subchannel;
+
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Chooses the subchannel of a call among the READY subchannels of a picker. A selector is built
+ * once per picker and shared by all concurrent picks, so {@link #select} must not lock.
+ */
+interface SubchannelSelector {
+
+    Subchannel select(PickSubchannelArgs args);
+
+    /**
+     * Re-evaluates the dynamic inputs of the selection, such as call statistics. Called
+     * periodically from the synchronization context when {@link Factory#isDynamic()} is set.
+     */
+    default void refresh() {
+    }
+
+    /**
+     * Creates the selectors of one balancer; anything kept here is per-channel state.
+     */
+    interface Factory {
+
+        SubchannelSelector newSelector(List<Subchannel> readyList);
+
+        /**
+         * Like {@link #newSelector(List)}, for the factories that also look at the subchannels
+         * that are not READY, or are ejected.
+         */
+        default SubchannelSelector newSelector(List<Subchannel> readyList, Collection<Subchannel> allSubchannels) {
+            return newSelector(readyList);
+        }
+
+        /**
+         * Whether the selectors depend on the subchannels that are not READY, in which case a new
+         * one is built whenever a subchannel is added or removed, even if the READY ones stay
+         * the same.
+         */
+        default boolean readsAllSubchannels() {
+            return false;
+        }
+
+        /**
+         * Whether the selectors read {@link SubchannelStats}, in which case every pick carries a
+         * stream tracer that feeds them.
+         */
+        default boolean tracksCalls() {
+            return false;
+        }
+
+        /**
+         * Whether the selectors have to be refreshed periodically.
+         */
+        default boolean isDynamic() {
+            return false;
+        }
+
+        /**
+         * Whether the stream tracer has to read the load reports the servers send in the
+         * trailers, see {@link GrpcLbAttributes#LOAD_REPORT_KEY}.
+         */
+        default boolean readsLoadReports() {
+            return false;
+        }
+    }
+}
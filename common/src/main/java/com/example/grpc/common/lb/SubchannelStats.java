@@ -0,0 +1,301 @@
+package com.example.grpc.common.lb;
+
+import com.example.grpc.load.ConcurrencyReport;
+import com.example.grpc.load.LoadReport;
+import io.grpc.ClientStreamTracer;
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Call statistics of one subchannel, fed by the stream tracer the picker attaches to its calls.
+ * Updates are lock-free; concurrent samples may race on the decay timestamp, which only blurs
+ * the average slightly.
+ */
+final class SubchannelStats {
+
+    private static final double MIN_UTILIZATION = 0.01;
+
+    private static final double MIN_HEADROOM = 0.05;
+
+    private final long decayNanos;
+
+    private final boolean readsLoadReports;
+
+    @Nullable
+    private final OutlierDetector outlierDetector;
+
+    private final LongAdder successes = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile boolean ejected;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong latencyEwmaBits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+    private volatile long lastSampleNanos = System.nanoTime();
+
+    private final AtomicLong loadScoreEwmaBits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+    private volatile long lastReportNanos = System.nanoTime();
+
+    private final AtomicLong headroomEwmaBits = new AtomicLong(Double.doubleToRawLongBits(1));
+
+    private volatile long lastConcurrencyReportNanos = System.nanoTime();
+
+    private volatile long readySinceNanos;
+
+    private volatile boolean everReady;
+
+    private volatile boolean connected;
+
+    private final ClientStreamTracer.Factory tracerFactory = new ClientStreamTracer.Factory() {
+        @Override
+        public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+            return new CallTracer();
+        }
+    };
+
+    /**
+     * @param decayNanos       time constant of the moving averages: a sample is weighted down by
+     *                         {@code e^(-elapsed / decay)} as time goes on
+     * @param readsLoadReports whether the tracer reads the {@link LoadReport} of the trailers
+     * @param outlierDetector  notified when the subchannel fails too many calls in a row, the
+     *                         outcome of the calls is only counted when set
+     */
+    SubchannelStats(long decayNanos, boolean readsLoadReports, @Nullable OutlierDetector outlierDetector) {
+        this.decayNanos = decayNanos;
+        this.readsLoadReports = readsLoadReports;
+        this.outlierDetector = outlierDetector;
+    }
+
+    ClientStreamTracer.Factory getTracerFactory() {
+        return tracerFactory;
+    }
+
+    /**
+     * Records that the subchannel became READY; only the first time after it was disconnected,
+     * see {@link #markDisconnected}, counts.
+     */
+    void markReady(long nowNanos) {
+        if (!connected) {
+            readySinceNanos = nowNanos;
+            everReady = true;
+            connected = true;
+        }
+    }
+
+    /**
+     * Records that the subchannel lost its connection, IDLE or TRANSIENT_FAILURE: the server may
+     * be a new process when it is READY again.
+     */
+    void markDisconnected() {
+        connected = false;
+    }
+
+    /**
+     * How long ago the subchannel last became READY after being disconnected, see
+     * {@link #markReady}; {@link Long#MAX_VALUE} if it never did.
+     */
+    long getReadyForNanos(long nowNanos) {
+        return everReady ? nowNanos - readySinceNanos : Long.MAX_VALUE;
+    }
+
+    /**
+     * Number of calls that completed without a server-side failure, see
+     * {@link OutlierDetector#isFailure}. Only counted with outlier detection.
+     */
+    long getSuccesses() {
+        return successes.sum();
+    }
+
+    long getFailures() {
+        return failures.sum();
+    }
+
+    int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    void resetConsecutiveFailures() {
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Whether the outlier detection took the subchannel out of the pick schedule.
+     */
+    boolean isEjected() {
+        return ejected;
+    }
+
+    void setEjected(boolean ejected) {
+        this.ejected = ejected;
+    }
+
+    /**
+     * Number of calls started on the subchannel that have not completed yet.
+     */
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Peak-sensitive moving average of the call latency, 0 until the first call completes.
+     */
+    double getLatencyEwmaNanos() {
+        return Double.longBitsToDouble(latencyEwmaBits.get());
+    }
+
+    /**
+     * Folds a latency sample into the average. A sample above the average replaces it right away
+     * (peak EWMA), so a backend that slows down is penalized on its first slow call and only
+     * recovers gradually.
+     */
+    void recordLatency(long latencyNanos, long nowNanos) {
+        long elapsed = Math.max(0, nowNanos - lastSampleNanos);
+        lastSampleNanos = nowNanos;
+        double w = Math.exp(-(double) elapsed / decayNanos);
+        while (true) {
+            long oldBits = latencyEwmaBits.get();
+            double old = Double.longBitsToDouble(oldBits);
+            double next = latencyNanos > old ? latencyNanos : old * w + latencyNanos * (1 - w);
+            if (latencyEwmaBits.compareAndSet(oldBits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moving average of the capacity score of the load reports, 0 until the first usable report
+     * and again once the last one is older than the decay period. The score is scaled down by the
+     * admission headroom of the concurrency reports, so a server that is about to reject calls,
+     * or does, is steered away from.
+     */
+    double getLoadScore(long nowNanos) {
+        if (nowNanos - lastReportNanos > decayNanos) {
+            return 0;
+        }
+        return Double.longBitsToDouble(loadScoreEwmaBits.get()) * Math.max(MIN_HEADROOM, getHeadroom(nowNanos));
+    }
+
+    /**
+     * Moving average of the share of its concurrency limit the server has left, 1 without a
+     * recent concurrency report.
+     */
+    double getHeadroom(long nowNanos) {
+        if (nowNanos - lastConcurrencyReportNanos > decayNanos) {
+            return 1;
+        }
+        return Double.longBitsToDouble(headroomEwmaBits.get());
+    }
+
+    /**
+     * Folds a concurrency report into the headroom, {@code 1 - inFlight / limit}. A report below
+     * the average replaces it right away, like the latency samples, so a server that starts
+     * rejecting calls loses its share on the first rejection and only recovers gradually.
+     */
+    void recordConcurrencyReport(ConcurrencyReport report, long nowNanos) {
+        if (report.getLimit() <= 0) {
+            return;
+        }
+        double headroom = Math.max(0, Math.min(1, 1 - (double) report.getInFlight() / report.getLimit()));
+        long elapsed = Math.max(0, nowNanos - lastConcurrencyReportNanos);
+        boolean stale = elapsed > decayNanos;
+        lastConcurrencyReportNanos = nowNanos;
+        double w = Math.exp(-(double) elapsed / decayNanos);
+        while (true) {
+            long oldBits = headroomEwmaBits.get();
+            double old = Double.longBitsToDouble(oldBits);
+            double next = stale || headroom < old ? headroom : old * w + headroom * (1 - w);
+            if (headroomEwmaBits.compareAndSet(oldBits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Folds a load report into the capacity score: the rate the server completes calls at per unit
+     * of CPU it burns, {@code qps / cpu}, scaled down by the share of its accepted calls that are
+     * queued rather than running. Reports of idle servers carry no information and are skipped.
+     */
+    void recordLoadReport(LoadReport report, long nowNanos) {
+        if (report.getQps() <= 0 || report.getCpuUtilization() <= 0) {
+            return;
+        }
+        double running = Math.max(1, report.getInFlight());
+        double score = report.getQps() / Math.max(MIN_UTILIZATION, report.getCpuUtilization())
+                * running / (running + Math.max(0, report.getQueueDepth()));
+        long elapsed = Math.max(0, nowNanos - lastReportNanos);
+        boolean stale = elapsed > decayNanos;
+        lastReportNanos = nowNanos;
+        double w = Math.exp(-(double) elapsed / decayNanos);
+        while (true) {
+            long oldBits = loadScoreEwmaBits.get();
+            double old = Double.longBitsToDouble(oldBits);
+            double next = old == 0 || stale ? score : old * w + score * (1 - w);
+            if (loadScoreEwmaBits.compareAndSet(oldBits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    private final class CallTracer extends ClientStreamTracer {
+        private final long startNanos = System.nanoTime();
+
+        CallTracer() {
+            inFlight.incrementAndGet();
+        }
+
+        @Override
+        public void inboundTrailers(Metadata trailers) {
+            if (readsLoadReports) {
+                LoadReport report = trailers.get(GrpcLbAttributes.LOAD_REPORT_KEY);
+                if (report != null) {
+                    recordLoadReport(report, System.nanoTime());
+                }
+                ConcurrencyReport concurrency = trailers.get(GrpcLbAttributes.CONCURRENCY_REPORT_KEY);
+                if (concurrency != null) {
+                    recordConcurrencyReport(concurrency, System.nanoTime());
+                }
+            }
+        }
+
+        @Override
+        public void streamClosed(Status status) {
+            inFlight.decrementAndGet();
+            long now = System.nanoTime();
+            long latency = now - startNanos;
+            if (!status.isOk()) {
+                // a failing backend answers fast, don't let that make it look attractive
+                latency = Math.max(latency, (long) getLatencyEwmaNanos());
+            }
+            recordLatency(latency, now);
+            if (outlierDetector != null) {
+                recordOutcome(status);
+            }
+        }
+
+        private void recordOutcome(Status status) {
+            if (!OutlierDetector.isFailure(status)) {
+                successes.increment();
+                if (consecutiveFailures.get() != 0) {
+                    consecutiveFailures.set(0);
+                }
+                return;
+            }
+            failures.increment();
+            if (consecutiveFailures.incrementAndGet() == outlierDetector.getOptions().getConsecutiveFailures()) {
+                outlierDetector.onConsecutiveFailures();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer.Subchannel;
+
+
+/**
+ * Computes the effective weights a {@link WeightedSelector} schedules with.
+ */
+interface WeightCalculator {
+
+    /**
+     * The configured {@code lb_weight} of each host.
+     */
+    WeightCalculator STATIC = new WeightCalculator() {
+        @Override
+        public void computeWeights(Subchannel[] subchannels, int[] weights) {
+            for (int i = 0; i < subchannels.length; i++) {
+                weights[i] = GrpcLbAttributes.getHostWeight(subchannels[i]);
+            }
+        }
+    };
+
+    /**
+     * Fills {@code weights[i]} with the weight of {@code subchannels[i]}. Called from the
+     * synchronization context.
+     */
+    void computeWeights(Subchannel[] subchannels, int[] weights);
+
+    /**
+     * Whether the weights change over time and have to be recomputed periodically.
+     */
+    default boolean isDynamic() {
+        return false;
+    }
+
+    /**
+     * Whether the weights are derived from {@link SubchannelStats}.
+     */
+    default boolean tracksCalls() {
+        return false;
+    }
+
+    /**
+     * Whether the weights are derived from the load reports of the servers, in which case the
+     * stream tracer reads them from the trailers of every call.
+     */
+    default boolean readsLoadReports() {
+        return false;
+    }
+}
@@ -1,57 +1,188 @@
 package com.example.grpc.common.lb;
 
-import io.grpc.LoadBalancer.Subchannel;
-
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
+/**
+ * Weighted round robin over a fixed list of nodes.
+ *
+ * <p>The interleaved pick order for one full cycle is computed once, when the instance is built,
+ * so selecting a node is a single atomic increment plus two array reads: no lock and no
+ * allocation. A new instance has to be built whenever the node list changes; instances of the same
+ * channel can share one cursor so the rotation carries on across rebuilds instead of restarting.
+ */
 public class WeightedRoundRobin {
 
-    private volatile List<Node> nodeList;
+    /**
+     * Upper bound of the schedule length, weights are scaled down proportionally above it.
+     */
+    static final int MAX_SCHEDULE_SIZE = 1 << 20;
+
+    // the n-th pick of a node is eligible at (n - 1) / weight of the cycle and due at n / weight
+    private static final int RELEASE = 0;
+
+    private static final int DEADLINE = 1;
+
+    private final Node[] nodes;
+
+    private final int[] schedule;
 
-    private ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger cursor;
 
     public WeightedRoundRobin(List<Node> nodes) {
-        nodeList = nodes;
+        this(nodes, new AtomicInteger());
+    }
+
+    public WeightedRoundRobin(List<Node> nodes, AtomicInteger cursor) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("empty node list");
+        }
+        this.nodes = nodes.toArray(new Node[0]);
+        this.schedule = buildSchedule(this.nodes);
+        this.cursor = cursor;
+    }
+
+    public Node select() {
+        return nodes[selectIndex()];
+    }
+
+    /**
+     * Returns the position of the next node in the list the instance was built from, which lets
+     * callers keep their own arrays aligned with it.
+     */
+    public int selectIndex() {
+        return schedule[(cursor.getAndIncrement() & Integer.MAX_VALUE) % schedule.length];
     }
 
-    public void updateNodeList(List<Subchannel> subchannelList){
-        Set<Node> subchannelSet = new HashSet(GrpcLbAttributes.generateNode(subchannelList));
-        Set<Node> currentNodeSet = new HashSet(nodeList);
-        Set<Node> aCopy = new HashSet(currentNodeSet);
-        currentNodeSet.addAll(subchannelSet);
-        aCopy.removeAll(subchannelSet);
-        currentNodeSet.removeAll(aCopy);
-        nodeList = new ArrayList<>(currentNodeSet);
+    public int size() {
+        return nodes.length;
     }
 
-    public Node select(List<Subchannel> currentNodeList){
-        try {
-            lock.lock();
-            updateNodeList(currentNodeList);
-            return this.doSelect();
-        }finally {
-            lock.unlock();
+    /**
+     * Expands the weights into one cycle of node indexes. Every node appears exactly weight / gcd
+     * times and the appearances are spread evenly over the cycle: each step picks, among the nodes
+     * that have not run ahead of their share ({@code picked / weight} at most the elapsed part of
+     * the cycle), the one with the earliest next deadline {@code (picked + 1) / weight}, ties
+     * going to the lower index. Every prefix of the cycle then holds each node within one pick of
+     * its share, so a heavy node is not picked in bursts at the start of the cycle.
+     */
+    static int[] buildSchedule(Node[] nodes) {
+        int n = nodes.length;
+        int[] weights = new int[n];
+        long total = 0;
+        int gcd = 0;
+        for (int i = 0; i < n; i++) {
+            weights[i] = Math.max(0, nodes[i].getWeight());
+            total += weights[i];
+            gcd = gcd(gcd, weights[i]);
+        }
+        if (total == 0) {
+            // nothing is weighted, fall back to plain round robin
+            int[] schedule = new int[n];
+            for (int i = 0; i < n; i++) {
+                schedule[i] = i;
+            }
+            return schedule;
         }
+        total = 0;
+        for (int i = 0; i < n; i++) {
+            weights[i] /= gcd;
+            total += weights[i];
+        }
+        if (total > MAX_SCHEDULE_SIZE) {
+            long sum = total;
+            total = 0;
+            for (int i = 0; i < n; i++) {
+                if (weights[i] > 0) {
+                    weights[i] = (int) Math.max(1, weights[i] * (long) MAX_SCHEDULE_SIZE / sum);
+                }
+                total += weights[i];
+            }
+        }
+
+        // Binary min-heaps of node indexes: the nodes that are eligible, ordered by next deadline,
+        // and the others, ordered by the time they become eligible.
+        int[] ready = new int[n];
+        int[] waiting = new int[n];
+        int[] picked = new int[n];
+        int readySize = 0;
+        int waitingSize = 0;
+        for (int i = 0; i < n; i++) {
+            if (weights[i] > 0) {
+                waiting[waitingSize] = i;
+                siftUp(waiting, waitingSize++, RELEASE, weights, picked);
+            }
+        }
+        int[] schedule = new int[(int) total];
+        for (int s = 0; s < schedule.length; s++) {
+            while (waitingSize > 0 && picked[waiting[0]] * total <= (long) s * weights[waiting[0]]) {
+                ready[readySize] = waiting[0];
+                siftUp(ready, readySize++, DEADLINE, weights, picked);
+                waiting[0] = waiting[--waitingSize];
+                siftDown(waiting, waitingSize, RELEASE, weights, picked);
+            }
+            // never empty: the picks so far add up to s, so some node is at or below its share
+            int top = ready[0];
+            schedule[s] = top;
+            ready[0] = ready[--readySize];
+            siftDown(ready, readySize, DEADLINE, weights, picked);
+            if (++picked[top] < weights[top]) {
+                waiting[waitingSize] = top;
+                siftUp(waiting, waitingSize++, RELEASE, weights, picked);
+            }
+        }
+        return schedule;
     }
 
-    private Node doSelect(){
-        int totalWeight = 0;
-        Node maxNode = null;
-        int maxWeight = 0;
-        for (Node n : nodeList) {
-            totalWeight += n.getWeight();
-            n.setCurrentWeight(n.getCurrentWeight() + n.getWeight());
-            if (maxNode == null || maxWeight < n.getCurrentWeight()) {
-                maxNode = n;
-                maxWeight = n.getCurrentWeight();
+    private static boolean before(int a, int b, int offset, int[] weights, int[] picked) {
+        long da = (picked[a] + (long) offset) * weights[b];
+        long db = (picked[b] + (long) offset) * weights[a];
+        return da < db || (da == db && a < b);
+    }
+
+    private static void siftUp(int[] heap, int pos, int offset, int[] weights, int[] picked) {
+        int node = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!before(node, heap[parent], offset, weights, picked)) {
+                break;
             }
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+        heap[pos] = node;
+    }
+
+    private static void siftDown(int[] heap, int size, int offset, int[] weights, int[] picked) {
+        if (size == 0) {
+            return;
+        }
+        int pos = 0;
+        int node = heap[pos];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child], offset, weights, picked)) {
+                child++;
+            }
+            if (!before(heap[child], node, offset, weights, picked)) {
+                break;
+            }
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = node;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
         }
-        maxNode.setCurrentWeight(maxNode.getCurrentWeight() - totalWeight);
-        return maxNode;
+        return a;
     }
 }
@@ -1,5 +1,6 @@
 package com.example.grpc.common.lb;
 
+import com.google.common.base.Preconditions;
 import io.grpc.LoadBalancer;
 import io.grpc.LoadBalancerProvider;
 import io.grpc.NameResolver;
@@ -10,6 +11,16 @@ import java.util.Map;
 public final class WeightedRoundRobinLoadBalanceProvider extends LoadBalancerProvider {
     private static final String NO_CONFIG = "no service config";
 
+    private final LoadBalancerOptions options;
+
+    public WeightedRoundRobinLoadBalanceProvider() {
+        this(LoadBalancerOptions.DEFAULT);
+    }
+
+    public WeightedRoundRobinLoadBalanceProvider(LoadBalancerOptions options) {
+        this.options = Preconditions.checkNotNull(options, "options");
+    }
+
     @Override
     public boolean isAvailable() {
         return true;
@@ -27,7 +38,7 @@ public final class WeightedRoundRobinLoadBalanceProvider extends LoadBalancerPro
 
     @Override
     public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
-        return new WeightedRoundRobinLoadBalancer(helper);
+        return new WeightedRoundRobinLoadBalancer(helper, options);
     }
 
     @Override
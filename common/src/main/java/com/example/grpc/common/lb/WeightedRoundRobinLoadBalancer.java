@@ -2,7 +2,6 @@ package com.example.grpc.common.lb;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Stopwatch;
 import com.example.grpc.common.lb.GrpcLbAttributes.*;
 import io.grpc.*;
 import io.grpc.ChannelLogger.ChannelLogLevel;
@@ -13,11 +12,7 @@ import io.grpc.internal.ServiceConfigUtil;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.Logger;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static io.grpc.ConnectivityState.*;
@@ -25,23 +20,63 @@ import static io.grpc.ConnectivityState.*;
 
 final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
 
-    private static final Logger logger = Logger.getLogger(WeightedRoundRobinLoadBalancer.class.getName());
-
-
     private final Helper helper;
+    @Nullable
+    private final PickMetricsRecorder metricsRecorder;
+    private final SubchannelSelector.Factory selectorFactory;
+    private final long weightUpdatePeriodNanos;
+    private final long latencyDecayNanos;
+    private final int stickinessCacheSize;
+    @Nullable
+    private final OutlierDetector outlierDetector;
     private final Map<EquivalentAddressGroup, Subchannel> subchannels =
             new HashMap<>();
 
     private ConnectivityState currentState;
     private WeightedRoundRobinPicker currentPicker = new EmptyPicker(EMPTY_OK);
 
-    static WeightedRoundRobin weightedRoundRobin = null;
+    @Nullable
+    private SynchronizationContext.ScheduledHandle refreshTimer;
+
+    @Nullable
+    private SynchronizationContext.ScheduledHandle outlierDetectionTimer;
 
     @Nullable
     private StickinessState stickinessState;
 
     WeightedRoundRobinLoadBalancer(Helper helper) {
+        this(helper, LoadBalancerOptions.DEFAULT);
+    }
+
+    WeightedRoundRobinLoadBalancer(Helper helper, LoadBalancerOptions options) {
+        this(helper, options, new WeightedSelector.Factory(
+                SlowStartWeights.wrap(WeightCalculator.STATIC, options)));
+    }
+
+    WeightedRoundRobinLoadBalancer(Helper helper, LoadBalancerOptions options,
+                                   SubchannelSelector.Factory selectorFactory) {
         this.helper = checkNotNull(helper, "helper");
+        this.metricsRecorder = options.getMetricsRecorder();
+        this.selectorFactory = checkNotNull(selectorFactory, "selectorFactory");
+        this.weightUpdatePeriodNanos = options.getWeightUpdatePeriodNanos();
+        this.latencyDecayNanos = options.getLatencyDecayNanos();
+        this.stickinessCacheSize = options.getStickinessCacheSize();
+        OutlierDetectionOptions outlierDetection = options.getOutlierDetection();
+        this.outlierDetector = outlierDetection == null ? null : new OutlierDetector(outlierDetection, new Runnable() {
+            @Override
+            public void run() {
+                // posted from a stream tracer
+                helper.getSynchronizationContext().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (outlierDetector.checkConsecutiveFailures(getSubchannels(), System.nanoTime())) {
+                            logEjections();
+                            updateBalancingState();
+                        }
+                    }
+                });
+            }
+        });
     }
 
     @Override
@@ -49,7 +84,8 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
         List<EquivalentAddressGroup> servers = resolvedAddresses.getAddresses();
         Attributes attributes = resolvedAddresses.getAttributes();
         Set<EquivalentAddressGroup> currentAddrs = subchannels.keySet();
-        Set<EquivalentAddressGroup> latestAddrs = stripAttrs(servers);
+        Map<EquivalentAddressGroup, EquivalentAddressGroup> latestAddrMap = stripAttrs(servers);
+        Set<EquivalentAddressGroup> latestAddrs = latestAddrMap.keySet();
         Set<EquivalentAddressGroup> addedAddrs = setsDifference(latestAddrs, currentAddrs);
         Set<EquivalentAddressGroup> removedAddrs = setsDifference(currentAddrs, latestAddrs);
 
@@ -65,13 +101,31 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
                             stickinessMetadataKey);
                 } else if (stickinessState == null
                         || !stickinessState.key.name().equals(stickinessMetadataKey)) {
-                    stickinessState = new StickinessState(stickinessMetadataKey);
+                    stickinessState = new StickinessState(
+                            stickinessMetadataKey, stickinessCacheSize, metricsRecorder);
                 }
             }
         }
 
+        // Apply registration changes, such as a new weight, to the subchannels that are kept. Their
+        // connections stay as they are, only the picker is rebuilt.
+        boolean hostsChanged = false;
+        for (Map.Entry<EquivalentAddressGroup, Subchannel> entry : subchannels.entrySet()) {
+            EquivalentAddressGroup latestAddressGroup = latestAddrMap.get(entry.getKey());
+            if (latestAddressGroup == null) {
+                continue;
+            }
+            Ref<HostInfo> hostInfoRef = entry.getValue().getAttributes().get(GrpcLbAttributes.HOST_INFO_REF);
+            HostInfo hostInfo = GrpcLbAttributes.toHostInfo(latestAddressGroup);
+            if (!hostInfo.equals(hostInfoRef.value)) {
+                hostInfoRef.value = hostInfo;
+                hostsChanged = true;
+            }
+        }
+
         // Create new subchannels for new addresses.
-        for (EquivalentAddressGroup addressGroup : addedAddrs) {
+        for (EquivalentAddressGroup strippedAddressGroup : addedAddrs) {
+            EquivalentAddressGroup addressGroup = latestAddrMap.get(strippedAddressGroup);
             // NB(lukaszx0): we don't merge `attributes` with `subchannelAttr` because subchannel
             // doesn't need them. They're describing the resolved server list but we're not taking
             // any action based on this information.
@@ -80,8 +134,13 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
                     // after creation but since we can mutate the values we leverage that and set
                     // AtomicReference which will allow mutating state info for given channel.
                     .set(GrpcLbAttributes.STATE_INFO,
-                            new GrpcLbAttributes.Ref<>(ConnectivityStateInfo.forNonError(IDLE)));
+                            new GrpcLbAttributes.Ref<>(ConnectivityStateInfo.forNonError(IDLE)))
+                    .set(GrpcLbAttributes.SUBCHANNEL_STATS, new SubchannelStats(
+                            latencyDecayNanos, selectorFactory.readsLoadReports(), outlierDetector));
             subchannelAttrs.setAll(addressGroup.getAttributes());
+            // resolved once here, picks and picker builds only read the typed host
+            subchannelAttrs.set(GrpcLbAttributes.HOST_INFO_REF,
+                    new GrpcLbAttributes.Ref<>(GrpcLbAttributes.toHostInfo(addressGroup)));
 
             Ref<Subchannel> stickyRef = null;
             if (stickinessState != null) {
@@ -103,7 +162,7 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
             if (stickyRef != null) {
                 stickyRef.value = subchannel;
             }
-            subchannels.put(addressGroup, subchannel);
+            subchannels.put(strippedAddressGroup, subchannel);
             subchannel.requestConnection();
         }
 
@@ -112,9 +171,14 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
             removedSubchannels.add(subchannels.remove(addressGroup));
         }
 
+        if (selectorFactory.readsAllSubchannels() && !(addedAddrs.isEmpty() && removedAddrs.isEmpty())) {
+            hostsChanged = true;
+        }
+
         // Update the picker before shutting down the subchannels, to reduce the chance of the race
         // between picking a subchannel and shutting it down.
-        updateBalancingState();
+        updateBalancingState(hostsChanged);
+        scheduleOutlierDetection();
 
         // Shutdown removed subchannels
         for (Subchannel removedSubchannel : removedSubchannels) {
@@ -130,7 +194,7 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
     }
 
     private void processSubchannelState(Subchannel subchannel, ConnectivityStateInfo stateInfo) {
-        if (subchannels.get(subchannel.getAddresses()) != subchannel) {
+        if (subchannels.get(stripAttrs(subchannel.getAddresses())) != subchannel) {
             return;
         }
         if (stateInfo.getState() == SHUTDOWN && stickinessState != null) {
@@ -139,6 +203,11 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
         if (stateInfo.getState() == IDLE) {
             subchannel.requestConnection();
         }
+        if (stateInfo.getState() == READY) {
+            GrpcLbAttributes.getSubchannelStats(subchannel).markReady(System.nanoTime());
+        } else if (stateInfo.getState() == IDLE || stateInfo.getState() == TRANSIENT_FAILURE) {
+            GrpcLbAttributes.getSubchannelStats(subchannel).markDisconnected();
+        }
         GrpcLbAttributes.getSubchannelStateInfoRef(subchannel).value = stateInfo;
         updateBalancingState();
     }
@@ -150,22 +219,97 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
         if (stickinessState != null) {
             stickinessState.remove(subchannel);
         }
+        if (outlierDetector != null) {
+            outlierDetector.remove(subchannel);
+        }
     }
 
     @Override
     public void shutdown() {
+        if (refreshTimer != null) {
+            refreshTimer.cancel();
+            refreshTimer = null;
+        }
+        if (outlierDetectionTimer != null) {
+            outlierDetectionTimer.cancel();
+            outlierDetectionTimer = null;
+        }
         for (Subchannel subchannel : getSubchannels()) {
             shutdownSubchannel(subchannel);
         }
     }
 
+    /**
+     * Periodically lets the current selector re-evaluate its dynamic weights. The selector swaps
+     * its schedule in place, so no new picker has to be published.
+     */
+    private void scheduleRefresh() {
+        if (refreshTimer != null || !selectorFactory.isDynamic()) {
+            return;
+        }
+        refreshTimer = helper.getSynchronizationContext().schedule(new Runnable() {
+            @Override
+            public void run() {
+                refreshTimer = null;
+                if (currentPicker instanceof ReadyPicker) {
+                    ((ReadyPicker) currentPicker).selector.refresh();
+                }
+                scheduleRefresh();
+            }
+        }, weightUpdatePeriodNanos, TimeUnit.NANOSECONDS, helper.getScheduledExecutorService());
+    }
+
+    /**
+     * Periodically evaluates the success rates of the hosts and returns the ejected hosts whose
+     * ejection time is over. A change of the ejected set rebuilds the picker, so the schedule
+     * never contains an ejected host.
+     */
+    private void scheduleOutlierDetection() {
+        if (outlierDetectionTimer != null || outlierDetector == null) {
+            return;
+        }
+        outlierDetectionTimer = helper.getSynchronizationContext().schedule(new Runnable() {
+            @Override
+            public void run() {
+                outlierDetectionTimer = null;
+                if (outlierDetector.detect(getSubchannels(), System.nanoTime())) {
+                    logEjections();
+                    updateBalancingState();
+                }
+                scheduleOutlierDetection();
+            }
+        }, outlierDetector.getOptions().getIntervalNanos(), TimeUnit.NANOSECONDS,
+                helper.getScheduledExecutorService());
+    }
+
+    private void logEjections() {
+        List<String> ejected = new ArrayList<>();
+        long now = System.nanoTime();
+        for (Subchannel subchannel : getSubchannels()) {
+            long remaining = outlierDetector.getRemainingEjectionNanos(subchannel, now);
+            if (remaining > 0) {
+                ejected.add(GrpcLbAttributes.getHostIdentity(subchannel)
+                        + " for " + TimeUnit.NANOSECONDS.toSeconds(remaining) + "s");
+            }
+        }
+        helper.getChannelLogger().log(ChannelLogLevel.INFO, "Ejected hosts: {0}", ejected);
+    }
+
     private static final Status EMPTY_OK = Status.OK.withDescription("no subchannels ready");
 
+    private void updateBalancingState() {
+        updateBalancingState(false);
+    }
+
     /**
      * Updates picker with the list of active subchannels (state == READY).
+     *
+     * @param hostsChanged whether the host of a subchannel changed, or a subchannel was added or
+     *                     removed while the selectors read all of them, so that the current
+     *                     picker is stale even if the READY set is the same
      */
     @SuppressWarnings("ReferenceEquality")
-    private void updateBalancingState() {
+    private void updateBalancingState(boolean hostsChanged) {
         List<Subchannel> activeList = filterNonFailingSubchannels(getSubchannels());
         if (activeList.isEmpty()) {
             // No READY subchannels, determine aggregate state and error status
@@ -187,13 +331,22 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
                     // If all subchannels are TRANSIENT_FAILURE, return the Status associated with
                     // an arbitrary subchannel, otherwise return OK.
                     new EmptyPicker(aggStatus));
-        } else {
-            updateBalancingState(READY, new ReadyPicker(activeList, stickinessState));
+        } else if (hostsChanged || currentState != READY || !(currentPicker instanceof ReadyPicker)
+                || !((ReadyPicker) currentPicker).isEquivalentTo(activeList, stickinessState)) {
+            // Only build a new picker (and its schedule) when the READY set or a weight actually
+            // changed.
+            updateBalancingState(READY, new ReadyPicker(activeList, stickinessState), hostsChanged);
+            scheduleRefresh();
         }
     }
 
     private void updateBalancingState(ConnectivityState state, WeightedRoundRobinPicker picker) {
-        if (state != currentState || !picker.isEquivalentTo(currentPicker)) {
+        updateBalancingState(state, picker, false);
+    }
+
+    private void updateBalancingState(ConnectivityState state, WeightedRoundRobinPicker picker,
+                                      boolean force) {
+        if (force || state != currentState || !picker.isEquivalentTo(currentPicker)) {
             helper.updateBalancingState(state, picker);
             currentState = state;
             currentPicker = picker;
@@ -201,31 +354,49 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
     }
 
     /**
-     * Filters out non-ready subchannels.
+     * Filters out non-ready subchannels and the ones ejected by the outlier detection, unless
+     * every ready subchannel is ejected.
      */
     private static List<Subchannel> filterNonFailingSubchannels(
             Collection<Subchannel> subchannels) {
         List<Subchannel> readySubchannels = new ArrayList<>(subchannels.size());
+        boolean ejected = false;
         for (Subchannel subchannel : subchannels) {
-            if (GrpcLbAttributes.isReady(subchannel)) {
+            if (GrpcLbAttributes.isAvailable(subchannel)) {
                 readySubchannels.add(subchannel);
+            } else if (GrpcLbAttributes.isReady(subchannel)) {
+                ejected = true;
+            }
+        }
+        if (readySubchannels.isEmpty() && ejected) {
+            // better an outlier than no host at all
+            for (Subchannel subchannel : subchannels) {
+                if (GrpcLbAttributes.isReady(subchannel)) {
+                    readySubchannels.add(subchannel);
+                }
             }
         }
         return readySubchannels;
     }
 
     /**
-     * Converts list of {@link EquivalentAddressGroup} to {@link EquivalentAddressGroup} set and
-     * remove all attributes.
+     * Maps every {@link EquivalentAddressGroup} without its attributes to the group itself. The
+     * subchannels are keyed by the groups without attributes, so that a registration change that
+     * keeps the addresses, such as a new weight, does not replace the subchannel.
      */
-    private static Set<EquivalentAddressGroup> stripAttrs(List<EquivalentAddressGroup> groupList) {
-        Set<EquivalentAddressGroup> addrs = new HashSet<>(groupList.size());
+    private static Map<EquivalentAddressGroup, EquivalentAddressGroup> stripAttrs(
+            List<EquivalentAddressGroup> groupList) {
+        Map<EquivalentAddressGroup, EquivalentAddressGroup> addrs = new LinkedHashMap<>(groupList.size() * 2);
         for (EquivalentAddressGroup group : groupList) {
-            addrs.add(new EquivalentAddressGroup(group.getAddresses(), group.getAttributes()));
+            addrs.put(stripAttrs(group), group);
         }
         return addrs;
     }
 
+    private static EquivalentAddressGroup stripAttrs(EquivalentAddressGroup group) {
+        return new EquivalentAddressGroup(group.getAddresses());
+    }
+
     @VisibleForTesting
     Collection<Subchannel> getSubchannels() {
         return subchannels.values();
@@ -241,7 +412,7 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
         if (stickinessState == null) {
             return null;
         }
-        return stickinessState.stickinessMap;
+        return stickinessState.stickinessMap.snapshot();
     }
 
 
@@ -251,16 +422,15 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
      */
     @VisibleForTesting
     static final class StickinessState {
-        static final int MAX_ENTRIES = 1000;
+        static final int DEFAULT_MAX_ENTRIES = 1000;
 
         final Key<String> key;
-        final ConcurrentMap<String, Ref<Subchannel>> stickinessMap =
-                new ConcurrentHashMap<>();
-
-        final Queue<String> evictionQueue = new ConcurrentLinkedQueue<>();
+        final StickinessCache stickinessMap;
 
-        StickinessState(@Nonnull String stickinessKey) {
+        StickinessState(@Nonnull String stickinessKey, int maxEntries,
+                        @Nullable PickMetricsRecorder metricsRecorder) {
             this.key = Key.of(stickinessKey, Metadata.ASCII_STRING_MARSHALLER);
+            this.stickinessMap = new StickinessCache(maxEntries, metricsRecorder);
         }
 
         /**
@@ -276,13 +446,12 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
                 Ref<Subchannel> existingSubchannelRef =
                         stickinessMap.putIfAbsent(stickinessValue, newSubchannelRef);
                 if (existingSubchannelRef == null) {
-                    // new entry
-                    addToEvictionQueue(stickinessValue);
+                    // new entry, the cache evicts on its own when full
                     return subchannel;
                 } else {
                     // existing entry
                     Subchannel existingSubchannel = existingSubchannelRef.value;
-                    if (existingSubchannel != null && GrpcLbAttributes.isReady(existingSubchannel)) {
+                    if (existingSubchannel != null && GrpcLbAttributes.isAvailable(existingSubchannel)) {
                         return existingSubchannel;
                     }
                 }
@@ -294,14 +463,6 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
             }
         }
 
-        private void addToEvictionQueue(String value) {
-            String oldValue;
-            while (stickinessMap.size() >= MAX_ENTRIES && (oldValue = evictionQueue.poll()) != null) {
-                stickinessMap.remove(oldValue);
-            }
-            evictionQueue.add(value);
-        }
-
         /**
          * Unregister the subchannel from StickinessState.
          */
@@ -333,52 +494,54 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
         private final List<Subchannel> list; // non-empty
         @Nullable
         private final WeightedRoundRobinLoadBalancer.StickinessState stickinessState;
+        private final SubchannelSelector selector;
+        private final boolean tracksCalls;
 
         ReadyPicker(List<Subchannel> list, @Nullable WeightedRoundRobinLoadBalancer.StickinessState stickinessState) {
             Preconditions.checkArgument(!list.isEmpty(), "empty list");
             this.list = list;
             this.stickinessState = stickinessState;
+            this.selector = selectorFactory.newSelector(list, getSubchannels());
+            this.tracksCalls = selectorFactory.tracksCalls() || outlierDetector != null;
         }
 
         @Override
         public PickResult pickSubchannel(PickSubchannelArgs args) {
+            if (metricsRecorder == null) {
+                return result(pick(args));
+            }
+            long startNanos = System.nanoTime();
+            Subchannel subchannel = pick(args);
+            metricsRecorder.recordPick(GrpcLbAttributes.getHostIdentity(subchannel), System.nanoTime() - startNanos);
+            return result(subchannel);
+        }
+
+        private PickResult result(Subchannel subchannel) {
+            if (tracksCalls) {
+                return PickResult.withSubchannel(subchannel,
+                        GrpcLbAttributes.getSubchannelStats(subchannel).getTracerFactory());
+            }
+            return PickResult.withSubchannel(subchannel);
+        }
+
+        private Subchannel pick(PickSubchannelArgs args) {
             Subchannel subchannel = null;
             if (stickinessState != null) {
                 String stickinessValue = args.getHeaders().get(stickinessState.key);
                 if (stickinessValue != null) {
                     subchannel = stickinessState.getSubchannel(stickinessValue);
-                    if (subchannel == null || !GrpcLbAttributes.isReady(subchannel)) {
-                        subchannel = stickinessState.maybeRegister(stickinessValue, nextSubchannel());
+                    if (subchannel == null || !GrpcLbAttributes.isAvailable(subchannel)) {
+                        subchannel = stickinessState.maybeRegister(stickinessValue, selector.select(args));
+                        if (metricsRecorder != null) {
+                            metricsRecorder.recordStickinessMiss();
+                        }
+                    } else if (metricsRecorder != null) {
+                        metricsRecorder.recordStickinessHit();
                     }
                 }
             }
 
-            return PickResult.withSubchannel(subchannel != null ? subchannel : nextSubchannel());
-        }
-
-        private Subchannel nextSubchannel() {
-            if(null == weightedRoundRobin) {
-                synchronized (WeightedRoundRobin.class){
-                    if(null == weightedRoundRobin){
-                        List<Node> listNodes = GrpcLbAttributes.generateNode(list);
-                        weightedRoundRobin = new WeightedRoundRobin(listNodes);
-                    }
-                }
-            }
-            Subchannel pickedSubchannel = null;
-            Stopwatch stopwatch = Stopwatch.createUnstarted();
-            stopwatch.start();
-            Node node = weightedRoundRobin.select(list);
-            for(Subchannel subchannel: list){
-                Map<String, ?> hostConfig = GrpcLbAttributes.getSubchannelHostConfig(subchannel).value;
-                String nodeInfo = hostConfig.get(GrpcLbAttributes.HOST_IDENTITY).toString();
-                if(nodeInfo.equals(node.getServerInfo())){
-                    pickedSubchannel = subchannel;
-                    break;
-                }
-            }
-            logger.info(String.format("select node: %s take: %s ms", node.getServerInfo(), stopwatch.elapsed(TimeUnit.MICROSECONDS) / 1000.0));
-            return pickedSubchannel;
+            return subchannel != null ? subchannel : selector.select(args);
         }
 
         @Override
@@ -387,10 +550,14 @@ final class WeightedRoundRobinLoadBalancer extends LoadBalancer {
                 return false;
             }
             ReadyPicker other = (ReadyPicker) picker;
+            return other == this || isEquivalentTo(other.list, other.stickinessState);
+        }
+
+        boolean isEquivalentTo(List<Subchannel> otherList, @Nullable StickinessState otherStickinessState) {
             // the lists cannot contain duplicate subchannels
-            return other == this || (stickinessState == other.stickinessState
-                    && list.size() == other.list.size()
-                    && new HashSet<>(list).containsAll(other.list));
+            return stickinessState == otherStickinessState
+                    && list.size() == otherList.size()
+                    && new HashSet<>(list).containsAll(otherList);
         }
     }
 
@@ -0,0 +1,98 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+import io.grpc.LoadBalancer.Subchannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Weighted round robin over the READY subchannels of a picker. The schedule is precomputed from
+ * the weights of a {@link WeightCalculator}; dynamic weights are recomputed on {@link #refresh()}
+ * and a new schedule is swapped in only when they actually changed, so picks never lock.
+ */
+final class WeightedSelector implements SubchannelSelector {
+
+    // aligned with the nodes of weightedRoundRobin, so a scheduled index maps to its subchannel
+    private final Subchannel[] subchannels;
+    private final String[] identities;
+    private final WeightCalculator calculator;
+    private final AtomicInteger cursor;
+    private int[] weights; // only accessed from the synchronization context
+    private volatile WeightedRoundRobin weightedRoundRobin;
+
+    WeightedSelector(List<Subchannel> list, WeightCalculator calculator, AtomicInteger cursor) {
+        this.subchannels = list.toArray(new Subchannel[0]);
+        this.identities = new String[subchannels.length];
+        for (int i = 0; i < subchannels.length; i++) {
+            identities[i] = GrpcLbAttributes.getHostIdentity(subchannels[i]);
+        }
+        this.calculator = calculator;
+        this.cursor = cursor;
+        this.weights = new int[subchannels.length];
+        calculator.computeWeights(subchannels, weights);
+        this.weightedRoundRobin = newSchedule(weights);
+    }
+
+    @Override
+    public Subchannel select(PickSubchannelArgs args) {
+        return subchannels[weightedRoundRobin.selectIndex()];
+    }
+
+    @Override
+    public void refresh() {
+        if (!calculator.isDynamic()) {
+            return;
+        }
+        int[] newWeights = new int[subchannels.length];
+        calculator.computeWeights(subchannels, newWeights);
+        if (!Arrays.equals(weights, newWeights)) {
+            weights = newWeights;
+            weightedRoundRobin = newSchedule(newWeights);
+        }
+    }
+
+    private WeightedRoundRobin newSchedule(int[] weights) {
+        List<Node> nodes = new ArrayList<>(weights.length);
+        for (int i = 0; i < weights.length; i++) {
+            nodes.add(new Node(identities[i], weights[i]));
+        }
+        return new WeightedRoundRobin(nodes, cursor);
+    }
+
+    static final class Factory implements SubchannelSelector.Factory {
+
+        private final WeightCalculator calculator;
+
+        // Rotation position of the channel, shared by all of its selectors so that a picker rebuilt
+        // on a membership or state change continues the rotation instead of restarting at the top.
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        Factory(WeightCalculator calculator) {
+            this.calculator = calculator;
+        }
+
+        @Override
+        public SubchannelSelector newSelector(List<Subchannel> readyList) {
+            return new WeightedSelector(readyList, calculator, cursor);
+        }
+
+        @Override
+        public boolean tracksCalls() {
+            return calculator.tracksCalls();
+        }
+
+        @Override
+        public boolean isDynamic() {
+            return calculator.isDynamic();
+        }
+
+        @Override
+        public boolean readsLoadReports() {
+            return calculator.readsLoadReports();
+        }
+    }
+}
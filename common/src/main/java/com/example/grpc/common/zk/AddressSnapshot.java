@@ -0,0 +1,149 @@
+package com.example.grpc.common.zk;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.internal.SharedResourceHolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ * Local copy of the last address set a resolver handed to its balancer, so that a new resolver
+ * can serve it before ZooKeeper answers, or when it does not answer at all.
+ *
+ * <p>The file holds the raw data of every child znode, which carries the address and the weights
+ * of the host, in a compact binary form: a magic number and a format version, the number of
+ * entries, then the name and the data of every child, and a CRC32 of all of it. It is written to a
+ * temporary file first and then moved over the previous one, so a reader never sees a partial
+ * snapshot; a damaged or unknown file is ignored.
+ */
+final class AddressSnapshot {
+
+    private static final int MAGIC = 0x5a4b534e; // "ZKSN"
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int MAX_DATA_LENGTH = 1 << 20;
+
+    /**
+     * Thread the snapshots of all the resolvers are written on. A write syncs the file to disk,
+     * which can take long enough to hold up the shared timer of gRPC or the ZooKeeper event thread.
+     */
+    static final SharedResourceHolder.Resource<ExecutorService> WRITER =
+            new SharedResourceHolder.Resource<ExecutorService>() {
+                @Override
+                public ExecutorService create() {
+                    return Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("grpc-zk-snapshot-writer")
+                            .build());
+                }
+
+                @Override
+                public void close(ExecutorService instance) {
+                    // the writes already queued still complete
+                    instance.shutdown();
+                }
+
+                @Override
+                public String toString() {
+                    return "grpc-zk-snapshot-writer";
+                }
+            };
+
+    private AddressSnapshot() {
+    }
+
+    /**
+     * Returns the snapshot file of a service path in the given directory.
+     */
+    static File file(File directory, String authority, String path) {
+        String name = (authority + path).replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(directory, name + ".snapshot");
+    }
+
+    static void write(File file, Map<String, byte[]> children) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(directory.toPath());
+        File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            CRC32 crc = new CRC32();
+            try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+                DataOutputStream out = new DataOutputStream(
+                        new CheckedOutputStream(new BufferedOutputStream(fileOut), crc));
+                out.writeInt(MAGIC);
+                out.writeByte(FORMAT_VERSION);
+                out.writeInt(children.size());
+                for (Map.Entry<String, byte[]> child : children.entrySet()) {
+                    out.writeUTF(child.getKey());
+                    out.writeInt(child.getValue().length);
+                    out.write(child.getValue());
+                }
+                out.flush();
+                // the checksum itself is not part of the checksum
+                new DataOutputStream(fileOut).writeLong(crc.getValue());
+                fileOut.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Returns the children stored in the file, in their original order, or an empty map when the
+     * file does not exist.
+     *
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    static Map<String, byte[]> read(File file) throws IOException {
+        if (!file.isFile()) {
+            return Collections.emptyMap();
+        }
+        CRC32 crc = new CRC32();
+        try (FileInputStream fileIn = new FileInputStream(file)) {
+            BufferedInputStream buffered = new BufferedInputStream(fileIn);
+            DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc));
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+                throw new IOException("not a snapshot file: " + file);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("corrupted snapshot: " + file);
+            }
+            Map<String, byte[]> children = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String child = in.readUTF();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_DATA_LENGTH) {
+                    throw new IOException("corrupted snapshot: " + file);
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                children.put(child, data);
+            }
+            long expected = crc.getValue();
+            if (new DataInputStream(buffered).readLong() != expected) {
+                throw new IOException("checksum mismatch: " + file);
+            }
+            return children;
+        }
+    }
+}
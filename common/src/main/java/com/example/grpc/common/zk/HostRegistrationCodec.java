@@ -0,0 +1,177 @@
+package com.example.grpc.common.zk;
+
+import com.example.grpc.common.lb.GrpcLbAttributes;
+import com.example.grpc.common.lb.HostInfo;
+import com.example.grpc.registry.HostRegistration;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+
+/**
+ * Encodes the data of a registration znode.
+ *
+ * <p>The current format is a 0 byte, a format version byte and a {@link HostRegistration}
+ * message. The legacy format, {@code host:port?lb_weight=N&key=value...} in plain text, never
+ * starts with a 0 byte, so both can be read side by side while servers migrate. Both are decoded
+ * straight into a {@link HostInfo}: the message is read in place from the znode data, and the text
+ * is scanned once instead of going through {@code URI} parsing, splits and an untyped map.
+ */
+public final class HostRegistrationCodec {
+
+    private static final byte MARKER = 0;
+
+    static final byte FORMAT_VERSION = 1;
+
+    private static final String ZONE_PARAMETER = "zone";
+
+    private static final String VERSION_PARAMETER = "version";
+
+    private HostRegistrationCodec() {
+    }
+
+    public static byte[] encode(HostInfo hostInfo) {
+        HostRegistration registration = HostRegistration.newBuilder()
+                .setHost(hostInfo.getHost())
+                .setPort(hostInfo.getPort())
+                .setWeight(hostInfo.getWeight())
+                .setZone(hostInfo.getZone())
+                .setVersion(hostInfo.getVersion())
+                .putAllMetadata(hostInfo.getMetadata())
+                .build();
+        byte[] data = new byte[2 + registration.getSerializedSize()];
+        data[0] = MARKER;
+        data[1] = FORMAT_VERSION;
+        try {
+            CodedOutputStream out = CodedOutputStream.newInstance(data, 2, data.length - 2);
+            registration.writeTo(out);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to serialize " + hostInfo, e);
+        }
+        return data;
+    }
+
+    /**
+     * Returns the legacy text form of a host, for servers that register while older clients are
+     * still around.
+     */
+    public static byte[] encodeLegacy(HostInfo hostInfo) {
+        StringBuilder sb = new StringBuilder()
+                .append(hostInfo.getHost()).append(':').append(hostInfo.getPort())
+                .append('?').append(GrpcLbAttributes.HOST_LB_WEIGHT).append('=').append(hostInfo.getWeight());
+        if (!hostInfo.getZone().isEmpty()) {
+            sb.append('&').append(ZONE_PARAMETER).append('=').append(hostInfo.getZone());
+        }
+        if (!hostInfo.getVersion().isEmpty()) {
+            sb.append('&').append(VERSION_PARAMETER).append('=').append(hostInfo.getVersion());
+        }
+        for (Map.Entry<String, String> entry : hostInfo.getMetadata().entrySet()) {
+            sb.append('&').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data is in neither format
+     */
+    public static HostInfo decode(byte[] data) {
+        if (data.length > 0 && data[0] == MARKER) {
+            return decodeBinary(data);
+        }
+        return decodeLegacy(new String(data, StandardCharsets.UTF_8));
+    }
+
+    private static HostInfo decodeBinary(byte[] data) {
+        if (data.length < 2 || data[1] != FORMAT_VERSION) {
+            throw new IllegalArgumentException(
+                    "unsupported registration format " + (data.length < 2 ? "?" : data[1]));
+        }
+        HostRegistration registration;
+        try {
+            registration = HostRegistration.parseFrom(CodedInputStream.newInstance(data, 2, data.length - 2));
+        } catch (IOException e) {
+            // InvalidProtocolBufferException, reading from an array does no other I/O
+            throw new IllegalArgumentException("corrupted registration", e);
+        }
+        try {
+            return HostInfo.newBuilder()
+                    .setHost(registration.getHost())
+                    .setPort(registration.getPort())
+                    .setWeight(registration.getWeight())
+                    .setZone(registration.getZone())
+                    .setVersion(registration.getVersion())
+                    .putAllMetadata(registration.getMetadataMap())
+                    .build();
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    private static HostInfo decodeLegacy(String data) {
+        HostInfo.Builder builder = HostInfo.newBuilder();
+        int query = data.indexOf('?');
+        int end = query < 0 ? data.length() : query;
+        int colon;
+        if (data.startsWith("[")) {
+            // [ipv6]:port
+            int bracket = data.indexOf(']');
+            if (bracket < 0 || bracket + 1 >= end || data.charAt(bracket + 1) != ':') {
+                throw new IllegalArgumentException("no port in " + data);
+            }
+            builder.setHost(data.substring(1, bracket));
+            colon = bracket + 1;
+        } else {
+            colon = data.lastIndexOf(':', end - 1);
+            if (colon <= 0) {
+                throw new IllegalArgumentException("no port in " + data);
+            }
+            builder.setHost(data.substring(0, colon));
+        }
+        builder.setPort(parseInt(data, colon + 1, end));
+
+        int pos = end + 1;
+        while (pos < data.length()) {
+            int amp = data.indexOf('&', pos);
+            int paramEnd = amp < 0 ? data.length() : amp;
+            int eq = data.indexOf('=', pos);
+            if (eq < 0 || eq > paramEnd) {
+                throw new IllegalArgumentException("invalid parameter in " + data);
+            }
+            String key = data.substring(pos, eq);
+            if (GrpcLbAttributes.HOST_LB_WEIGHT.equals(key)) {
+                builder.setWeight(parseInt(data, eq + 1, paramEnd));
+            } else if (ZONE_PARAMETER.equals(key)) {
+                builder.setZone(data.substring(eq + 1, paramEnd));
+            } else if (VERSION_PARAMETER.equals(key)) {
+                builder.setVersion(data.substring(eq + 1, paramEnd));
+            } else {
+                builder.putMetadata(key, data.substring(eq + 1, paramEnd));
+            }
+            pos = paramEnd + 1;
+        }
+        try {
+            return builder.build();
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    private static int parseInt(String s, int start, int end) {
+        if (start >= end || end - start > 9) {
+            throw new IllegalArgumentException("invalid number in " + s);
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("invalid number in " + s);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
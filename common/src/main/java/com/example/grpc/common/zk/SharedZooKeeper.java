@@ -0,0 +1,148 @@
+package com.example.grpc.common.zk;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+
+/**
+ * ZooKeeper session shared by all the resolvers of a process that point at the same ensemble, and
+ * reference counted: the session is opened by the first {@link #acquire} of an ensemble and
+ * closed by the last {@link #release}. An expired session is replaced transparently, the users are
+ * told through {@link SessionListener} so that they can set their watches again.
+ *
+ * <p>Neither acquiring nor using the session blocks: the client connects in the background and
+ * queues the asynchronous calls made before it is connected.
+ */
+final class SharedZooKeeper implements Watcher {
+
+    private static final Logger logger = Logger.getLogger(SharedZooKeeper.class.getName());
+
+    private static final int SESSION_TIMEOUT_MS = 2000;
+
+    // guarded by SharedZooKeeper.class
+    private static final Map<String, SharedZooKeeper> sessions = new HashMap<>();
+
+    interface SessionListener {
+        /**
+         * Called from the ZooKeeper event thread whenever the session (re)connects. When
+         * {@code newSession} is set the previous session expired and all its watches are gone.
+         */
+        void onSessionConnected(boolean newSession);
+    }
+
+    private final String connectString;
+
+    private final List<SessionListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile ZooKeeper zoo;
+
+    // whether the next SyncConnected is the first one of a session, guarded by SharedZooKeeper.class
+    private boolean sessionOpened = true;
+
+    // guarded by SharedZooKeeper.class
+    private int refCount;
+
+    private SharedZooKeeper(String connectString) throws IOException {
+        this.connectString = connectString;
+        this.zoo = new ZooKeeper(connectString, SESSION_TIMEOUT_MS, this);
+    }
+
+    static SharedZooKeeper acquire(String connectString) throws IOException {
+        synchronized (SharedZooKeeper.class) {
+            SharedZooKeeper shared = sessions.get(connectString);
+            if (shared == null) {
+                logger.info("Connecting to Zookeeper Address " + connectString);
+                shared = new SharedZooKeeper(connectString);
+                sessions.put(connectString, shared);
+            }
+            shared.refCount++;
+            return shared;
+        }
+    }
+
+    void release() {
+        synchronized (SharedZooKeeper.class) {
+            if (--refCount > 0) {
+                return;
+            }
+            sessions.remove(connectString);
+        }
+        try {
+            zoo.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    ZooKeeper get() {
+        return zoo;
+    }
+
+    boolean isConnected() {
+        return zoo.getState().isConnected();
+    }
+
+    void addListener(SessionListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(SessionListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void process(WatchedEvent we) {
+        if (we.getType() != Event.EventType.None) {
+            return;
+        }
+        switch (we.getState()) {
+            case SyncConnected:
+                boolean newSession;
+                // the event thread of a session may run before its handle is assigned to zoo, the
+                // lock is held until it is
+                synchronized (SharedZooKeeper.class) {
+                    newSession = sessionOpened;
+                    sessionOpened = false;
+                }
+                logger.info("Connected!");
+                for (SessionListener listener : listeners) {
+                    listener.onSessionConnected(newSession);
+                }
+                break;
+            case Disconnected:
+                logger.info("Connection lost, reconnecting");
+                break;
+            case Expired:
+                logger.info("Session expired, opening a new one");
+                renew();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void renew() {
+        synchronized (SharedZooKeeper.class) {
+            if (refCount == 0) {
+                return;
+            }
+            try {
+                zoo.close();
+                sessionOpened = true;
+                zoo = new ZooKeeper(connectString, SESSION_TIMEOUT_MS, this);
+            } catch (IOException e) {
+                logger.severe("Failed to reopen session: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -1,104 +1,452 @@
 package com.example.grpc.common.zk;
 
 import com.example.grpc.common.lb.GrpcLbAttributes;
+import com.example.grpc.common.lb.HostInfo;
 import io.grpc.Attributes;
 import io.grpc.EquivalentAddressGroup;
 import io.grpc.NameResolver;
+import io.grpc.Status;
+import io.grpc.internal.GrpcUtil;
+import io.grpc.internal.SharedResourceHolder;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
-import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.Stat;
 
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-public class ZKNameResolver extends NameResolver implements Watcher {
-
-    private static final int TIMEOUT_MS = 2000;
+public class ZKNameResolver extends NameResolver implements Watcher, SharedZooKeeper.SessionListener {
 
     private String PATH = "/grpc_greet_service";
 
     private URI zkUri;
 
-    private ZooKeeper zoo;
+    private SharedZooKeeper zooKeeper;
 
     private Listener listener;
 
     private final Logger logger = Logger.getLogger(ZKNameResolver.class.getName());
 
     /**
-     * The callback from Zookeeper when servers are added/removed.
+     * Last known state of every child of {@link #PATH}. Only touched from the ZooKeeper event
+     * thread, which runs the watcher and all the async callbacks one at a time.
+     */
+    private final Map<String, ChildEntry> children = new HashMap<>();
+
+    /**
+     * Children whose last read failed for another reason than their deletion, such as a connection
+     * loss. They keep their last known state, or stay pending, and are read again on the next
+     * listing or reconnection, which also sets their data watch again. Only touched from the
+     * ZooKeeper event thread.
+     */
+    private final Set<String> unreadChildren = new HashSet<>();
+
+    /**
+     * Number of getData calls in flight; the listener is only updated once they all completed so
+     * that a burst of new children results in a single update.
+     */
+    private int pendingFetches;
+
+    private final ZKNameResolverOptions options;
+
+    private ScheduledExecutorService timerService;
+
+    private final Object lock = new Object();
+
+    private final Object snapshotLock = new Object();
+
+    @Nullable
+    private File snapshotFile;
+
+    // set along with snapshotFile, null again once shut down; guarded by snapshotLock
+    @Nullable
+    private ExecutorService snapshotWriter;
+
+    // latest snapshot not written yet, guarded by snapshotLock
+    @Nullable
+    private Map<String, byte[]> snapshotToWrite;
+
+    // guarded by lock
+    private List<EquivalentAddressGroup> lastAddresses = Collections.emptyList();
+    private List<EquivalentAddressGroup> pendingAddresses;
+    private Map<String, byte[]> pendingSnapshot;
+    private long firstPendingNanos;
+    private ScheduledFuture<?> flushTimer;
+    private volatile boolean shutdown;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private final Runnable writeSnapshotTask = new Runnable() {
+        @Override
+        public void run() {
+            Map<String, byte[]> snapshot;
+            synchronized (snapshotLock) {
+                snapshot = snapshotToWrite;
+                snapshotToWrite = null;
+            }
+            try {
+                AddressSnapshot.write(snapshotFile, snapshot);
+            } catch (IOException e) {
+                logger.info("Failed to write snapshot " + snapshotFile + ": " + e.getMessage());
+            }
+        }
+    };
+
+    private final AsyncCallback.ChildrenCallback childrenCallback = new AsyncCallback.ChildrenCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> servers) {
+            if (rc == KeeperException.Code.NONODE.intValue()) {
+                logger.info("PATH does not exist.");
+                // the exists watch reports its creation
+                zooKeeper.get().exists(PATH, ZKNameResolver.this, existsCallback, null);
+                return;
+            }
+            if (rc != KeeperException.Code.OK.intValue()) {
+                // a connection loss is retried when the session reconnects
+                logger.info("Failed to list " + path + ": " + KeeperException.Code.get(rc));
+                return;
+            }
+            onChildren(servers);
+        }
+    };
+
+    private final AsyncCallback.DataCallback dataCallback = new AsyncCallback.DataCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            pendingFetches--;
+            String child = (String) ctx;
+            if (rc == KeeperException.Code.OK.intValue()) {
+                onData(child, data, stat.getVersion());
+            } else if (rc == KeeperException.Code.NONODE.intValue()) {
+                // deleted in the meantime, the children watch reports it as well
+                children.remove(child);
+            } else {
+                logger.info("Failed to read " + path + ": " + KeeperException.Code.get(rc));
+                if (children.containsKey(child)) {
+                    unreadChildren.add(child);
+                }
+            }
+            maybeUpdateListener();
+        }
+    };
+
+    private final AsyncCallback.StatCallback existsCallback = new AsyncCallback.StatCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, Stat stat) {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                // created between the listing and the exists call
+                listChildren();
+            }
+        }
+    };
+
+    /**
+     * The callback from Zookeeper when servers are added/removed or change their data.
      */
     @Override
     public void process(WatchedEvent we) {
-        if (we.getType() == Event.EventType.None) {
-            logger.info("Connection expired");
-        } else {
-            try {
-                List<String> servers = zoo.getChildren(PATH, false);
-                AddServersToListener(servers);
-                zoo.getChildren(PATH, this);
-            } catch (Exception ex) {
-                logger.info(ex.getMessage());
+        if (shutdown || we.getType() == Event.EventType.None) {
+            // connection state changes are handled in onSessionConnected
+            return;
+        }
+        if (we.getType() == Event.EventType.NodeChildrenChanged
+                || we.getType() == Event.EventType.NodeCreated) {
+            listChildren();
+        } else if (we.getType() == Event.EventType.NodeDataChanged) {
+            if (we.getPath().equals(PATH)) {
+                // an exists call that found PATH leaves its watch on it, there is no child to read
+                return;
+            }
+            String child = we.getPath().substring(PATH.length() + 1);
+            if (children.containsKey(child)) {
+                fetch(child);
             }
         }
     }
 
-    private Map<String, Object> parseParameter(String parameter){
-        Map<String, Object> parameters = new HashMap();
-        for(String para: parameter.split("&")){
-            String[] parameterKeyValue = para.split("=");
-            parameters.put(parameterKeyValue[0], parameterKeyValue[1]);
+    /**
+     * Lists the children again after a reconnection, a failed call may have been lost while the
+     * session was disconnected, and reads the children whose last read failed. When the session
+     * expired the data watches are gone as well, so every known child is read again; unchanged
+     * ones don't result in an update.
+     */
+    @Override
+    public void onSessionConnected(boolean newSession) {
+        if (shutdown) {
+            return;
+        }
+        listChildren();
+        for (String child : new ArrayList<>(newSession ? children.keySet() : unreadChildren)) {
+            fetch(child);
         }
-        return parameters;
     }
 
-    private void AddServersToListener(List<String> servers) {
-        List<EquivalentAddressGroup> addrs = new ArrayList<EquivalentAddressGroup>();
-        logger.info("Updating server list");
+    private void listChildren() {
+        zooKeeper.get().getChildren(PATH, this, childrenCallback, null);
+    }
+
+    private void onChildren(List<String> servers) {
+        Set<String> listed = new HashSet<>(servers);
+        children.keySet().retainAll(listed);
+        unreadChildren.retainAll(listed);
         for (String child : servers) {
-            try {
-                String nodeData = new String(zoo.getData(PATH + "/" + child, true, null));
-                logger.info(String.format("Online node: %s, data: %s", child, nodeData));
-                URI uri = new URI("dummy://" + nodeData);
-                String host = uri.getHost();
-                int port = uri.getPort();
-                Map<String, Object> parameterKeyValue = parseParameter(uri.getQuery());
-                parameterKeyValue.put(GrpcLbAttributes.HOST_IDENTITY, String.format("%s:%s:%s",
-                        host, port, parameterKeyValue.get(GrpcLbAttributes.HOST_LB_WEIGHT)));
-                List<SocketAddress> socketAddressesList = new ArrayList<>();
-                socketAddressesList.add(new InetSocketAddress(host, port));
-                Attributes attrs = Attributes.newBuilder()
-                        .set(GrpcLbAttributes.HOST_CONFIG, new GrpcLbAttributes.Ref<>(parameterKeyValue))
-                        .build();
-                addrs.add(new EquivalentAddressGroup(socketAddressesList, attrs));
-            } catch (Exception ex) {
-                logger.info("Unparsable server address: " + child);
-                logger.info(ex.getMessage());
+            ChildEntry entry = children.get(child);
+            if (entry == null) {
+                children.put(child, ChildEntry.PENDING);
+                fetch(child);
+            } else if (entry.version == ChildEntry.SNAPSHOT_VERSION || unreadChildren.contains(child)) {
+                // loaded from the snapshot or failed to read, read it to confirm and to set its
+                // data watch
+                fetch(child);
+            }
+        }
+        maybeUpdateListener();
+    }
+
+    private void fetch(String child) {
+        unreadChildren.remove(child);
+        pendingFetches++;
+        // also re-arms the data watch of the child
+        zooKeeper.get().getData(PATH + "/" + child, this, dataCallback, child);
+    }
+
+    private void onData(String child, byte[] data, int version) {
+        ChildEntry entry = children.get(child);
+        if (entry == null || entry.version == version) {
+            // removed while fetching, or nothing changed since the last read
+            return;
+        }
+        if (entry.addressGroup != null && Arrays.equals(entry.data, data)) {
+            children.put(child, new ChildEntry(version, data, entry.addressGroup));
+            return;
+        }
+        children.put(child, new ChildEntry(version, data, parseAddress(child, data)));
+    }
+
+    @Nullable
+    private EquivalentAddressGroup parseAddress(String child, byte[] data) {
+        HostInfo hostInfo;
+        try {
+            hostInfo = HostRegistrationCodec.decode(data);
+        } catch (IllegalArgumentException ex) {
+            logger.info("Unparsable server address: " + child);
+            logger.info(ex.getMessage());
+            return null;
+        }
+        logger.info(String.format("Online node: %s, data: %s", child, hostInfo));
+        List<SocketAddress> socketAddressesList = new ArrayList<>();
+        socketAddressesList.add(new InetSocketAddress(hostInfo.getHost(), hostInfo.getPort()));
+        Attributes attrs = Attributes.newBuilder()
+                .set(GrpcLbAttributes.HOST_INFO, hostInfo)
+                .build();
+        return new EquivalentAddressGroup(socketAddressesList, attrs);
+    }
+
+    /**
+     * Hands the current address list to {@link #publish} once no read is in flight.
+     */
+    private void maybeUpdateListener() {
+        if (pendingFetches > 0) {
+            return;
+        }
+        List<String> names = new ArrayList<>(children.keySet());
+        Collections.sort(names);
+        List<EquivalentAddressGroup> addrs = new ArrayList<EquivalentAddressGroup>(names.size());
+        Map<String, byte[]> snapshot = snapshotFile == null ? null : new LinkedHashMap<String, byte[]>();
+        for (String child : names) {
+            ChildEntry entry = children.get(child);
+            if (entry.addressGroup != null) {
+                addrs.add(entry.addressGroup);
+                if (snapshot != null) {
+                    snapshot.put(child, entry.data);
+                }
             }
         }
+        publish(addrs, snapshot);
+    }
+
+    /**
+     * Schedules the push of the address list at the end of the coalescing window. Every new list
+     * restarts the window, up to the max delay counted from the first list held back, so a burst of
+     * events collapses into one update of the balancer.
+     */
+    private void publish(List<EquivalentAddressGroup> addrs, @Nullable Map<String, byte[]> snapshot) {
+        long windowNanos = options.getCoalescingWindowNanos();
+        Map<String, byte[]> toWrite;
+        synchronized (lock) {
+            if (shutdown) {
+                return;
+            }
+            pendingAddresses = addrs;
+            pendingSnapshot = snapshot;
+            if (windowNanos != 0) {
+                scheduleFlushLocked(windowNanos);
+                return;
+            }
+            toWrite = flushLocked();
+        }
+        writeSnapshot(toWrite);
+    }
+
+    private void scheduleFlushLocked(long windowNanos) {
+        long now = System.nanoTime();
+        long delayNanos = windowNanos;
+        if (flushTimer == null) {
+            firstPendingNanos = now;
+        } else {
+            flushTimer.cancel(false);
+            delayNanos = Math.min(windowNanos, firstPendingNanos + options.getMaxUpdateDelayNanos() - now);
+        }
+        flushTimer = timerService.schedule(flushTask, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    private void flush() {
+        Map<String, byte[]> toWrite;
+        synchronized (lock) {
+            toWrite = flushLocked();
+        }
+        writeSnapshot(toWrite);
+    }
+
+    /**
+     * Pushes the pending address list to the listener if it is different from the last one pushed.
+     * The address group of an unchanged child is reused as is, so an unchanged list compares equal.
+     *
+     * @return the snapshot to write once out of the lock, if the list was pushed
+     */
+    @Nullable
+    private Map<String, byte[]> flushLocked() {
+        List<EquivalentAddressGroup> addrs = pendingAddresses;
+        Map<String, byte[]> snapshot = pendingSnapshot;
+        pendingAddresses = null;
+        pendingSnapshot = null;
+        flushTimer = null;
+        if (shutdown || addrs == null || addrs.equals(lastAddresses)) {
+            return null;
+        }
         if (addrs.size() > 0) {
+            logger.info("Updating server list");
+            lastAddresses = addrs;
             listener.onAddresses(addrs, Attributes.EMPTY);
+            return snapshot;
         } else {
             logger.info("No servers online. Keep looking");
+            return null;
+        }
+    }
+
+    /**
+     * Hands the snapshot to the writer thread. Only the latest one matters, so a snapshot that is
+     * still waiting for the writer is replaced rather than written as well.
+     */
+    private void writeSnapshot(@Nullable Map<String, byte[]> snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        synchronized (snapshotLock) {
+            if (snapshotWriter == null) {
+                return;
+            }
+            boolean queued = snapshotToWrite != null;
+            snapshotToWrite = snapshot;
+            if (!queued) {
+                snapshotWriter.execute(writeSnapshotTask);
+            }
+        }
+    }
+
+    /**
+     * Hands the addresses of the snapshot to the listener and keeps them as the known children,
+     * marked so that the first listing reads them again from ZooKeeper. Unchanged ones then keep
+     * their address group and don't result in another update.
+     */
+    private boolean serveSnapshot() {
+        Map<String, byte[]> snapshot;
+        try {
+            snapshot = AddressSnapshot.read(snapshotFile);
+        } catch (IOException e) {
+            logger.info("Ignoring snapshot " + snapshotFile + ": " + e.getMessage());
+            return false;
+        }
+        List<EquivalentAddressGroup> addrs = new ArrayList<EquivalentAddressGroup>(snapshot.size());
+        for (Map.Entry<String, byte[]> child : snapshot.entrySet()) {
+            EquivalentAddressGroup addressGroup = parseAddress(child.getKey(), child.getValue());
+            if (addressGroup != null) {
+                children.put(child.getKey(),
+                        new ChildEntry(ChildEntry.SNAPSHOT_VERSION, child.getValue(), addressGroup));
+                addrs.add(addressGroup);
+            }
+        }
+        if (addrs.isEmpty()) {
+            return false;
+        }
+        logger.info("Serving " + addrs.size() + " servers from snapshot " + snapshotFile);
+        synchronized (lock) {
+            lastAddresses = addrs;
+        }
+        listener.onAddresses(addrs, Attributes.EMPTY);
+        return true;
+    }
+
+    private static final class ChildEntry {
+        static final int SNAPSHOT_VERSION = -2;
+
+        static final ChildEntry PENDING = new ChildEntry(-1, null, null);
+
+        final int version;
+        final byte[] data;
+        @Nullable
+        final EquivalentAddressGroup addressGroup;
+
+        ChildEntry(int version, byte[] data, @Nullable EquivalentAddressGroup addressGroup) {
+            this.version = version;
+            this.data = data;
+            this.addressGroup = addressGroup;
         }
     }
 
     public ZKNameResolver(URI zkUri, String path){
+        this(zkUri, path, ZKNameResolverOptions.DEFAULT);
+    }
+
+    public ZKNameResolver(URI zkUri, String path, ZKNameResolverOptions options) {
         this.zkUri = zkUri;
         this.PATH = path;
+        this.options = options;
     }
 
-
     public ZKNameResolver(URI zkUri) {
+        this(zkUri, ZKNameResolverOptions.DEFAULT);
+    }
+
+    public ZKNameResolver(URI zkUri, ZKNameResolverOptions options) {
         this.zkUri = zkUri;
+        this.options = options;
     }
 
     @Override
@@ -106,51 +454,63 @@ public class ZKNameResolver extends NameResolver implements Watcher {
         return zkUri.getAuthority();
     }
 
+    /**
+     * Returns immediately: the shared session connects in the background and the children are
+     * read asynchronously, the listener is updated from the ZooKeeper event thread once they are
+     * all known.
+     */
     @Override
     public void start(Listener listener) {
         this.listener = listener;
-        final CountDownLatch connectedSignal = new CountDownLatch(1);
+        this.timerService = SharedResourceHolder.get(GrpcUtil.TIMER_SERVICE);
+        boolean served = false;
+        if (options.getSnapshotDirectory() != null) {
+            snapshotFile = AddressSnapshot.file(options.getSnapshotDirectory(), zkUri.getAuthority(), PATH);
+            synchronized (snapshotLock) {
+                snapshotWriter = SharedResourceHolder.get(AddressSnapshot.WRITER);
+            }
+            served = serveSnapshot();
+        }
         try {
-            String zkaddr = zkUri.getAuthority();
-            logger.info("Connecting to Zookeeper Address " + zkaddr);
-
-            this.zoo = new ZooKeeper(zkaddr, TIMEOUT_MS, new Watcher() {
-                public void process(WatchedEvent we) {
-                    if (we.getState() == Event.KeeperState.SyncConnected) {
-                        connectedSignal.countDown();
-                    }
-                }
-            });
-            connectedSignal.await();
-            logger.info("Connected!");
+            this.zooKeeper = SharedZooKeeper.acquire(zkUri.getAuthority());
         } catch (Exception e) {
             logger.info("Failed to connect");
-            return;
-        }
-
-
-        try {
-            Stat stat = zoo.exists(PATH, true);
-            if (stat == null) {
-                logger.info("PATH does not exist.");
-            } else {
-                logger.info("PATH exists");
+            if (!served) {
+                listener.onError(Status.UNAVAILABLE.withDescription("Failed to connect to " + zkUri).withCause(e));
             }
-        } catch (Exception e) {
-            logger.info("Failed to get stat");
             return;
         }
-
-        try {
-            final CountDownLatch connectedSignal1 = new CountDownLatch(1);
-            List<String> servers = zoo.getChildren(PATH, this);
-            AddServersToListener(servers);
-        } catch (Exception e) {
-            logger.info(e.getMessage());
+        zooKeeper.addListener(this);
+        // otherwise listed by onSessionConnected
+        if (zooKeeper.isConnected()) {
+            listChildren();
         }
     }
 
     @Override
     public void shutdown() {
+        synchronized (lock) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            if (flushTimer != null) {
+                flushTimer.cancel(false);
+                flushTimer = null;
+            }
+            if (timerService != null) {
+                timerService = SharedResourceHolder.release(GrpcUtil.TIMER_SERVICE, timerService);
+            }
+        }
+        synchronized (snapshotLock) {
+            if (snapshotWriter != null) {
+                snapshotWriter = SharedResourceHolder.release(AddressSnapshot.WRITER, snapshotWriter);
+            }
+        }
+        if (zooKeeper != null) {
+            // the watches already set on the shared session fire at most once more and are ignored
+            zooKeeper.removeListener(this);
+            zooKeeper.release();
+        }
     }
 }
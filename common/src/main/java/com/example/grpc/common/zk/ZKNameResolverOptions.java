@@ -0,0 +1,92 @@
+package com.example.grpc.common.zk;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Optional settings of the resolvers created by {@link ZKNameResolverProvider}.
+ */
+public final class ZKNameResolverOptions {
+
+    public static final ZKNameResolverOptions DEFAULT = newBuilder().build();
+
+    private final long coalescingWindowNanos;
+
+    private final long maxUpdateDelayNanos;
+
+    @Nullable
+    private final File snapshotDirectory;
+
+    private ZKNameResolverOptions(Builder builder) {
+        this.coalescingWindowNanos = builder.coalescingWindowNanos;
+        this.maxUpdateDelayNanos = builder.maxUpdateDelayNanos;
+        this.snapshotDirectory = builder.snapshotDirectory;
+    }
+
+    public long getCoalescingWindowNanos() {
+        return coalescingWindowNanos;
+    }
+
+    public long getMaxUpdateDelayNanos() {
+        return maxUpdateDelayNanos;
+    }
+
+    @Nullable
+    public File getSnapshotDirectory() {
+        return snapshotDirectory;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private long coalescingWindowNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        private long maxUpdateDelayNanos = TimeUnit.SECONDS.toNanos(1);
+        private File snapshotDirectory;
+
+        private Builder() {
+        }
+
+        /**
+         * How long the address list has to stay unchanged before it is handed to the balancer, so
+         * that a burst of ZooKeeper events, such as a mass restart, results in a single update.
+         * Defaults to 100 ms; 0 pushes every change immediately.
+         */
+        public Builder setCoalescingWindow(long window, TimeUnit unit) {
+            Preconditions.checkArgument(window >= 0, "window must not be negative");
+            this.coalescingWindowNanos = unit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * Upper bound of the time a change can be held back by the coalescing window while the
+         * list keeps changing. Defaults to 1 second.
+         */
+        public Builder setMaxUpdateDelay(long delay, TimeUnit unit) {
+            Preconditions.checkArgument(delay >= 0, "delay must not be negative");
+            this.maxUpdateDelayNanos = unit.toNanos(delay);
+            return this;
+        }
+
+        /**
+         * Directory where every resolver keeps a snapshot of the last address set it handed to the
+         * balancer. A resolver serves its snapshot as soon as it starts, before ZooKeeper answers,
+         * and keeps serving it while ZooKeeper is unreachable. Disabled by default.
+         */
+        public Builder setSnapshotDirectory(@Nullable File snapshotDirectory) {
+            this.snapshotDirectory = snapshotDirectory;
+            return this;
+        }
+
+        public ZKNameResolverOptions build() {
+            Preconditions.checkArgument(maxUpdateDelayNanos >= coalescingWindowNanos,
+                    "max update delay must not be shorter than the coalescing window");
+            return new ZKNameResolverOptions(this);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.grpc.common.zk;
 
+import com.google.common.base.Preconditions;
 import io.grpc.Attributes;
 import io.grpc.NameResolver;
 import io.grpc.NameResolverProvider;
@@ -9,10 +10,21 @@ import java.net.URI;
 
 
 public class ZKNameResolverProvider extends NameResolverProvider {
+
+    private final ZKNameResolverOptions options;
+
+    public ZKNameResolverProvider() {
+        this(ZKNameResolverOptions.DEFAULT);
+    }
+
+    public ZKNameResolverProvider(ZKNameResolverOptions options) {
+        this.options = Preconditions.checkNotNull(options, "options");
+    }
+
     @Nullable
     @Override
     public NameResolver newNameResolver(URI targetUri, Attributes params) {
-        return new ZKNameResolver(targetUri);
+        return new ZKNameResolver(targetUri, options);
     }
 
     @Override
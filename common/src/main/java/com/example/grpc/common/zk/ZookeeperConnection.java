@@ -1,6 +1,6 @@
 package com.example.grpc.common.zk;
 
-import com.example.grpc.common.lb.GrpcLbAttributes;
+import com.example.grpc.common.lb.HostInfo;
 import org.apache.zookeeper.*;
 import org.apache.zookeeper.data.Stat;
 
@@ -18,7 +18,30 @@ public class ZookeeperConnection {
 
     private ZooKeeper zoo;
 
+    private boolean binaryFormat;
+
+    private HostInfo hostInfo;
+
+    private String nodePath;
+
+    /**
+     * Registers in the binary format of {@link HostRegistrationCodec} instead of the legacy
+     * {@code host:port?lb_weight=N} text. Off by default: clients that cannot read the binary
+     * format drop the host, so only turn it on once every client has been upgraded.
+     */
+    public void setBinaryFormat(boolean binaryFormat) {
+        this.binaryFormat = binaryFormat;
+    }
+
     public boolean connect(String zkUriStr, String serverIp, String portStr, int lbWeight) throws IOException, InterruptedException {
+        return connect(zkUriStr, HostInfo.newBuilder()
+                .setHost(serverIp)
+                .setPort(Integer.parseInt(portStr))
+                .setWeight(lbWeight)
+                .build());
+    }
+
+    public synchronized boolean connect(String zkUriStr, HostInfo hostInfo) throws IOException, InterruptedException {
         final CountDownLatch connectedSignal = new CountDownLatch(1);
         String zkHostPort;
         try {
@@ -51,21 +74,21 @@ public class ZookeeperConnection {
             return false;
         }
 
-        String nodePath = String.format("%s/node-%s-%s", path, serverIp, portStr);
-        String nodeData = String.format("%s:%s?%s=%s", serverIp, portStr, GrpcLbAttributes.HOST_LB_WEIGHT, lbWeight);
+        String nodePath = String.format("%s/node-%s-%s", path, hostInfo.getHost(), hostInfo.getPort());
+        byte[] nodeData = encode(hostInfo);
 
         try {
             stat = zoo.exists(nodePath, true);
             if (stat == null) {
                 try {
-                    zoo.create(nodePath, nodeData.getBytes(), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                    zoo.create(nodePath, nodeData, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
                 } catch (Exception e) {
                     logger.severe("Failed to create node, msg: " + e.getMessage());
                     return false;
                 }
             } else {
                 try {
-                    zoo.setData(nodePath, nodeData.getBytes(), stat.getVersion());
+                    zoo.setData(nodePath, nodeData, stat.getVersion());
                 } catch (Exception e) {
                     logger.severe("Failed to update node data, msg: " + e.getMessage());
                     return false;
@@ -75,9 +98,43 @@ public class ZookeeperConnection {
             logger.severe("Failed to add node, msg: " + e.getMessage());
             return false;
         }
+        this.hostInfo = hostInfo;
+        this.nodePath = nodePath;
         return true;
     }
 
+    /**
+     * Changes the weight of the registered host in place. The node is kept, so the clients apply
+     * the new weight to their existing connections to the host.
+     */
+    public synchronized boolean updateWeight(int lbWeight) {
+        if (nodePath == null) {
+            throw new IllegalStateException("not registered");
+        }
+        HostInfo updated = hostInfo.toBuilder().setWeight(lbWeight).build();
+        try {
+            // the node is ephemeral and only written by this session, no version to check
+            zoo.setData(nodePath, encode(updated), -1);
+        } catch (Exception e) {
+            logger.severe("Failed to update weight, msg: " + e.getMessage());
+            return false;
+        }
+        hostInfo = updated;
+        logger.info("Updated weight of " + nodePath + " to " + lbWeight);
+        return true;
+    }
+
+    /**
+     * Returns the weight currently registered, or -1 when not registered.
+     */
+    public synchronized int getWeight() {
+        return hostInfo == null ? -1 : hostInfo.getWeight();
+    }
+
+    private byte[] encode(HostInfo hostInfo) {
+        return binaryFormat ? HostRegistrationCodec.encode(hostInfo) : HostRegistrationCodec.encodeLegacy(hostInfo);
+    }
+
     public void close() throws InterruptedException {
         zoo.close();
     }
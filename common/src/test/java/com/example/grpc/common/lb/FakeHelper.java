@@ -0,0 +1,99 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.ChannelLogger;
+import io.grpc.ConnectivityState;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.ManagedChannel;
+import io.grpc.NameResolver;
+import io.grpc.SynchronizationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Channel helper stand-in that hands out {@link FakeSubchannel}s and keeps the latest picker.
+ */
+final class FakeHelper extends LoadBalancer.Helper {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "fake-helper-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    final List<FakeSubchannel> subchannels = new ArrayList<>();
+
+    volatile ConnectivityState state;
+
+    volatile LoadBalancer.SubchannelPicker picker;
+
+    private final SynchronizationContext syncContext = new SynchronizationContext(
+            new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                    throw new AssertionError(e);
+                }
+            });
+
+    @Override
+    public LoadBalancer.Subchannel createSubchannel(LoadBalancer.CreateSubchannelArgs args) {
+        FakeSubchannel subchannel = new FakeSubchannel(args);
+        subchannels.add(subchannel);
+        return subchannel;
+    }
+
+    @Override
+    public ManagedChannel createOobChannel(EquivalentAddressGroup eag, String authority) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void updateBalancingState(ConnectivityState newState, LoadBalancer.SubchannelPicker newPicker) {
+        this.state = newState;
+        this.picker = newPicker;
+    }
+
+    // still abstract in this version of gRPC, so it cannot be left out
+    @SuppressWarnings("deprecation")
+    @Override
+    public NameResolver.Factory getNameResolverFactory() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getAuthority() {
+        return "fake-authority";
+    }
+
+    @Override
+    public SynchronizationContext getSynchronizationContext() {
+        return syncContext;
+    }
+
+    @Override
+    public ScheduledExecutorService getScheduledExecutorService() {
+        return TIMER;
+    }
+
+    @Override
+    public ChannelLogger getChannelLogger() {
+        return new ChannelLogger() {
+            @Override
+            public void log(ChannelLogLevel level, String message) {
+            }
+
+            @Override
+            public void log(ChannelLogLevel level, String messageFormat, Object... args) {
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.CallOptions;
+import io.grpc.LoadBalancer;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+
+final class FakePickSubchannelArgs extends LoadBalancer.PickSubchannelArgs {
+
+    private static final MethodDescriptor.Marshaller<Void> VOID_MARSHALLER = new MethodDescriptor.Marshaller<Void>() {
+        @Override
+        public InputStream stream(Void value) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public Void parse(InputStream stream) {
+            return null;
+        }
+    };
+
+    static final MethodDescriptor<Void, Void> METHOD = MethodDescriptor.<Void, Void>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Service/Call")
+            .setRequestMarshaller(VOID_MARSHALLER)
+            .setResponseMarshaller(VOID_MARSHALLER)
+            .build();
+
+    private final Metadata headers;
+
+    FakePickSubchannelArgs() {
+        this(new Metadata());
+    }
+
+    FakePickSubchannelArgs(Metadata headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    public CallOptions getCallOptions() {
+        return CallOptions.DEFAULT;
+    }
+
+    @Override
+    public Metadata getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public MethodDescriptor<?, ?> getMethodDescriptor() {
+        return METHOD;
+    }
+}
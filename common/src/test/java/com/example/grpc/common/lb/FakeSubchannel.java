@@ -0,0 +1,91 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.Attributes;
+import io.grpc.ConnectivityState;
+import io.grpc.ConnectivityStateInfo;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Subchannel stand-in without any transport: its connectivity state is driven by the test.
+ */
+final class FakeSubchannel extends LoadBalancer.Subchannel {
+
+    private final List<EquivalentAddressGroup> addressGroups;
+
+    private final Attributes attributes;
+
+    private LoadBalancer.SubchannelStateListener listener;
+
+    boolean shutdown;
+
+    FakeSubchannel(LoadBalancer.CreateSubchannelArgs args) {
+        this.addressGroups = args.getAddresses();
+        this.attributes = args.getAttributes();
+    }
+
+    /**
+     * A subchannel that is not owned by a balancer, for the selectors that only read the
+     * attributes: its host, a READY state and fresh call statistics.
+     */
+    FakeSubchannel(HostInfo hostInfo) {
+        this(hostInfo, new SubchannelStats(LoadBalancerOptions.DEFAULT.getLatencyDecayNanos(), true, null));
+    }
+
+    FakeSubchannel(HostInfo hostInfo, SubchannelStats stats) {
+        this.addressGroups = Collections.singletonList(new EquivalentAddressGroup(
+                new InetSocketAddress(hostInfo.getHost(), hostInfo.getPort())));
+        this.attributes = Attributes.newBuilder()
+                .set(GrpcLbAttributes.HOST_INFO, hostInfo)
+                .set(GrpcLbAttributes.STATE_INFO,
+                        new GrpcLbAttributes.Ref<>(ConnectivityStateInfo.forNonError(ConnectivityState.READY)))
+                .set(GrpcLbAttributes.SUBCHANNEL_STATS, stats)
+                .build();
+    }
+
+    static FakeSubchannel of(String host, int weight) {
+        return new FakeSubchannel(HostInfo.newBuilder().setHost(host).setPort(50051).setWeight(weight).build());
+    }
+
+    @Override
+    public void start(LoadBalancer.SubchannelStateListener listener) {
+        this.listener = listener;
+    }
+
+    void updateState(ConnectivityState state) {
+        listener.onSubchannelState(ConnectivityStateInfo.forNonError(state));
+    }
+
+    void updateState(ConnectivityStateInfo stateInfo) {
+        listener.onSubchannelState(stateInfo);
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public void requestConnection() {
+    }
+
+    @Override
+    public List<EquivalentAddressGroup> getAllAddresses() {
+        return addressGroups;
+    }
+
+    @Override
+    public Attributes getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public String toString() {
+        return GrpcLbAttributes.getHostInfo(this).getAuthority();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.ClientStreamTracer;
+import io.grpc.LoadBalancer.Subchannel;
+import io.grpc.Metadata;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Drives a {@link WeightedSelector} with latency-aware weights against simulated backends: every
+ * pick completes after the latency of its backend on a simulated clock, and the weights are
+ * refreshed every 100 picks like the balancer does periodically.
+ */
+public class LatencyAwareWeightsTest {
+
+    private static final long REFRESH_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Subchannel fast1 = FakeSubchannel.of("10.0.0.1", 1);
+    private final Subchannel fast2 = FakeSubchannel.of("10.0.0.2", 1);
+    private final Subchannel slow1 = FakeSubchannel.of("10.0.0.3", 1);
+    private final Subchannel slow2 = FakeSubchannel.of("10.0.0.4", 1);
+    private final List<Subchannel> hosts = Arrays.asList(fast1, fast2, slow1, slow2);
+
+    private final Map<Subchannel, Long> latencies = new HashMap<>();
+
+    private long now = System.nanoTime();
+
+    private Map<Subchannel, Integer> run(WeightedSelector selector, int rounds) {
+        Map<Subchannel, Integer> picks = new HashMap<>();
+        for (Subchannel host : hosts) {
+            picks.put(host, 0);
+        }
+        FakePickSubchannelArgs args = new FakePickSubchannelArgs();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < 100; i++) {
+                Subchannel picked = selector.select(args);
+                picks.put(picked, picks.get(picked) + 1);
+                GrpcLbAttributes.getSubchannelStats(picked).recordLatency(latencies.get(picked), now);
+            }
+            now += REFRESH_PERIOD_NANOS;
+            selector.refresh();
+        }
+        return picks;
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private void setLatency(long fast, long slow) {
+        latencies.put(fast1, millis(fast));
+        latencies.put(fast2, millis(fast));
+        latencies.put(slow1, millis(slow));
+        latencies.put(slow2, millis(slow));
+    }
+
+    @Test
+    public void trafficMovesAwayFromSlowBackends() {
+        setLatency(1, 10);
+        WeightedSelector selector = new WeightedSelector(hosts, new LatencyAwareWeights(), new AtomicInteger());
+        // without samples every backend starts with the same share
+        Map<Subchannel, Integer> warmUp = run(selector, 1);
+        assertEquals(25, (int) warmUp.get(slow1));
+
+        Map<Subchannel, Integer> picks = run(selector, 50);
+        int fast = picks.get(fast1) + picks.get(fast2);
+        int slow = picks.get(slow1) + picks.get(slow2);
+        // ten times the latency, about a tenth of the traffic
+        assertTrue("fast " + fast + " slow " + slow, slow * 6 < fast && slow * 15 > fast);
+        assertTrue(Math.abs(picks.get(fast1) - picks.get(fast2)) <= 1);
+    }
+
+    @Test
+    public void recoveredBackendsWinTheirShareBack() {
+        setLatency(1, 10);
+        WeightedSelector selector = new WeightedSelector(hosts, new LatencyAwareWeights(), new AtomicInteger());
+        run(selector, 50);
+
+        setLatency(1, 1);
+        // the peak average of the slow ones decays over the 10 second period of the default options
+        run(selector, 500);
+        Map<Subchannel, Integer> picks = run(selector, 20);
+        int fast = picks.get(fast1) + picks.get(fast2);
+        int slow = picks.get(slow1) + picks.get(slow2);
+        assertTrue("fast " + fast + " slow " + slow, slow * 10 > fast * 8);
+    }
+
+    @Test
+    public void slowdownIsPenalizedOnTheFirstSlowCall() {
+        setLatency(1, 1);
+        WeightedSelector selector = new WeightedSelector(hosts, new LatencyAwareWeights(), new AtomicInteger());
+        run(selector, 10);
+
+        latencies.put(slow1, millis(20));
+        Map<Subchannel, Integer> picks = run(selector, 2);
+        // one round at an even share, then a twentieth
+        assertTrue("picks " + picks.get(slow1), picks.get(slow1) < 30);
+    }
+
+    @Test
+    public void queuedCallsReduceTheShare() {
+        setLatency(1, 1);
+        WeightedSelector selector = new WeightedSelector(hosts, new LatencyAwareWeights(), new AtomicInteger());
+        run(selector, 10);
+
+        // three calls stuck on a backend make it look four times slower
+        for (int i = 0; i < 3; i++) {
+            GrpcLbAttributes.getSubchannelStats(slow1).getTracerFactory()
+                    .newClientStreamTracer(ClientStreamTracer.StreamInfo.newBuilder().build(), new Metadata());
+        }
+        Map<Subchannel, Integer> picks = run(selector, 10);
+        double ratio = (double) picks.get(fast1) / picks.get(slow1);
+        assertTrue("ratio " + ratio, ratio > 3 && ratio < 5);
+    }
+
+    @Test
+    public void unsampledBackendGetsTheAverageLatency() {
+        Subchannel[] subchannels = {fast1, slow1, FakeSubchannel.of("10.0.0.5", 1)};
+        GrpcLbAttributes.getSubchannelStats(fast1).recordLatency(millis(1), now);
+        GrpcLbAttributes.getSubchannelStats(slow1).recordLatency(millis(3), now);
+        int[] weights = new int[3];
+        new LatencyAwareWeights().computeWeights(subchannels, weights);
+        assertEquals("[100, 33, 50]", Arrays.toString(weights));
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.Attributes;
+import io.grpc.ClientStreamTracer;
+import io.grpc.ConnectivityState;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancer.Subchannel;
+import io.grpc.Metadata;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class LeastRequestSelectorTest {
+
+    /**
+     * A host with {@code inFlight} calls started and not completed yet.
+     */
+    private static Subchannel host(String host, int weight, int inFlight) {
+        FakeSubchannel subchannel = FakeSubchannel.of(host, weight);
+        start(subchannel, inFlight);
+        return subchannel;
+    }
+
+    private static void start(Subchannel subchannel, int calls) {
+        ClientStreamTracer.Factory tracers = GrpcLbAttributes.getSubchannelStats(subchannel).getTracerFactory();
+        for (int i = 0; i < calls; i++) {
+            tracers.newClientStreamTracer(ClientStreamTracer.StreamInfo.newBuilder().build(), new Metadata());
+        }
+    }
+
+    private static Map<String, Integer> select(SubchannelSelector selector, int count) {
+        Map<String, Integer> picks = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String host = GrpcLbAttributes.getHostInfo(selector.select(new FakePickSubchannelArgs())).getHost();
+            Integer picked = picks.get(host);
+            picks.put(host, picked == null ? 1 : picked + 1);
+        }
+        return picks;
+    }
+
+    private static int count(Map<String, Integer> picks, String host) {
+        Integer picked = picks.get(host);
+        return picked == null ? 0 : picked;
+    }
+
+    @Test
+    public void lessLoadedHostOfAPairWins() {
+        Map<String, Integer> picks = select(new LeastRequestSelector(Arrays.asList(
+                host("10.0.0.1", 1, 0), host("10.0.0.2", 1, 1), host("10.0.0.3", 1, 2)), true), 3000);
+        // the busiest host loses every pair it is in, the idlest wins both of its pairs
+        assertEquals(0, count(picks, "10.0.0.3"));
+        assertTrue(picks.toString(), count(picks, "10.0.0.1") > 1800 && count(picks, "10.0.0.1") < 2200);
+        assertTrue(picks.toString(), count(picks, "10.0.0.2") > 800 && count(picks, "10.0.0.2") < 1200);
+    }
+
+    @Test
+    public void powerOfTwoChoicesAlwaysComparesTwoDifferentHosts() {
+        Map<String, Integer> picks = select(new LeastRequestSelector(Arrays.asList(
+                host("10.0.0.1", 1, 5), host("10.0.0.2", 1, 0)), true), 1000);
+        assertEquals(1000, count(picks, "10.0.0.2"));
+    }
+
+    @Test
+    public void weightedLeastRequestPicksTheLeastLoadedHost() {
+        Map<String, Integer> picks = select(new LeastRequestSelector(Arrays.asList(
+                host("10.0.0.1", 1, 3), host("10.0.0.2", 1, 1), host("10.0.0.3", 1, 2)), false), 1000);
+        assertEquals(1000, count(picks, "10.0.0.2"));
+    }
+
+    @Test
+    public void tiesAreSpread() {
+        Map<String, Integer> picks = select(new LeastRequestSelector(Arrays.asList(
+                host("10.0.0.1", 1, 1), host("10.0.0.2", 1, 1), host("10.0.0.3", 1, 1)), false), 3000);
+        for (String host : new String[]{"10.0.0.1", "10.0.0.2", "10.0.0.3"}) {
+            assertTrue(picks.toString(), count(picks, host) > 800);
+        }
+    }
+
+    @Test
+    public void weightBiasesTheChoice() {
+        // (4 + 1) / 3 against (1 + 1) / 1: the heavier host is less loaded for its weight
+        for (boolean powerOfTwoChoices : new boolean[]{true, false}) {
+            Map<String, Integer> picks = select(new LeastRequestSelector(Arrays.asList(
+                    host("10.0.0.1", 3, 4), host("10.0.0.2", 1, 1)), powerOfTwoChoices), 1000);
+            assertEquals(1000, count(picks, "10.0.0.1"));
+        }
+        // without weights the fewer calls win
+        Map<String, Integer> picks = select(new LeastRequestSelector(Arrays.asList(
+                host("10.0.0.1", 1, 4), host("10.0.0.2", 1, 1)), false), 1000);
+        assertEquals(1000, count(picks, "10.0.0.2"));
+    }
+
+    @Test
+    public void zeroWeightHostsOnlyGetCallsWhenAllAre() {
+        Map<String, Integer> picks = select(new LeastRequestSelector(Arrays.asList(
+                host("10.0.0.1", 0, 0), host("10.0.0.2", 1, 10)), false), 100);
+        assertEquals(100, count(picks, "10.0.0.2"));
+
+        picks = select(new LeastRequestSelector(Arrays.asList(
+                host("10.0.0.1", 0, 0), host("10.0.0.2", 0, 10)), false), 100);
+        assertEquals(100, count(picks, "10.0.0.1"));
+    }
+
+    @Test
+    public void singleHostIsAlwaysPicked() {
+        for (boolean powerOfTwoChoices : new boolean[]{true, false}) {
+            Subchannel only = host("10.0.0.1", 1, 100);
+            SubchannelSelector selector = new LeastRequestSelector(Collections.singletonList(only), powerOfTwoChoices);
+            for (int i = 0; i < 10; i++) {
+                assertSame(only, selector.select(new FakePickSubchannelArgs()));
+            }
+        }
+    }
+
+    @Test
+    public void providerTracksTheCallsOfItsPicks() {
+        LeastRequestLoadBalanceProvider provider = new LeastRequestLoadBalanceProvider();
+        assertEquals(GrpcLbAttributes.P2C_LEAST_REQUEST, provider.getPolicyName());
+        assertEquals(GrpcLbAttributes.WEIGHTED_LEAST_REQUEST, new LeastRequestLoadBalanceProvider(
+                LeastRequestLoadBalanceProvider.Mode.WEIGHTED_LEAST_REQUEST, LoadBalancerOptions.DEFAULT)
+                .getPolicyName());
+
+        FakeHelper helper = new FakeHelper();
+        LoadBalancer balancer = provider.newLoadBalancer(helper);
+        List<EquivalentAddressGroup> addressGroups = new ArrayList<>();
+        for (String host : new String[]{"10.0.0.1", "10.0.0.2"}) {
+            addressGroups.add(new EquivalentAddressGroup(new InetSocketAddress(host, 50051),
+                    Attributes.newBuilder().set(GrpcLbAttributes.HOST_INFO,
+                            HostInfo.newBuilder().setHost(host).setPort(50051).build()).build()));
+        }
+        balancer.handleResolvedAddresses(LoadBalancer.ResolvedAddresses.newBuilder()
+                .setAddresses(addressGroups)
+                .build());
+        for (FakeSubchannel subchannel : helper.subchannels) {
+            subchannel.updateState(ConnectivityState.READY);
+        }
+        start(helper.subchannels.get(0), 3);
+
+        for (int i = 0; i < 10; i++) {
+            LoadBalancer.PickResult result = helper.picker.pickSubchannel(new FakePickSubchannelArgs());
+            assertSame(helper.subchannels.get(1), result.getSubchannel());
+            assertNotNull(result.getStreamTracerFactory());
+        }
+        balancer.shutdown();
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.grpc.common.lb;
+
+import com.example.grpc.load.LoadReport;
+import io.grpc.LoadBalancer.Subchannel;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.grpc.common.lb.SubchannelStatsTest.concurrency;
+import static com.example.grpc.common.lb.SubchannelStatsTest.report;
+import static org.junit.Assert.assertEquals;
+
+
+public class LoadReportWeightsTest {
+
+    private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static Subchannel host(String address, int weight) {
+        return new FakeSubchannel(HostInfo.newBuilder().setHost(address).setPort(50051).setWeight(weight).build(),
+                new SubchannelStats(DECAY_NANOS, true, null));
+    }
+
+    private static void record(Subchannel host, LoadReport report, long nowNanos) {
+        GrpcLbAttributes.getSubchannelStats(host).recordLoadReport(report, nowNanos);
+    }
+
+    private static String weights(Subchannel... hosts) {
+        int[] weights = new int[hosts.length];
+        new LoadReportWeights().computeWeights(hosts, weights);
+        return Arrays.toString(weights);
+    }
+
+    @Test
+    public void busierBackendGetsLessTraffic() {
+        Subchannel busy = host("10.0.0.1", 1);
+        Subchannel idle = host("10.0.0.2", 1);
+        long now = System.nanoTime();
+        // same rate, four times the CPU per call
+        record(busy, report(100, 0.8, 4, 0), now);
+        record(idle, report(100, 0.2, 4, 0), now);
+        assertEquals("[25, 100]", weights(busy, idle));
+    }
+
+    @Test
+    public void queueingBackendGetsLessTraffic() {
+        Subchannel queueing = host("10.0.0.1", 1);
+        Subchannel running = host("10.0.0.2", 1);
+        long now = System.nanoTime();
+        record(queueing, report(100, 0.5, 4, 12), now);
+        record(running, report(100, 0.5, 4, 0), now);
+        assertEquals("[25, 100]", weights(queueing, running));
+    }
+
+    @Test
+    public void backendWithoutReportGetsTheAverage() {
+        Subchannel a = host("10.0.0.1", 1);
+        Subchannel b = host("10.0.0.2", 1);
+        Subchannel silent = host("10.0.0.3", 1);
+        long now = System.nanoTime();
+        record(a, report(100, 0.5, 1, 0), now);
+        record(b, report(100, 0.25, 1, 0), now);
+        assertEquals("[50, 100, 75]", weights(a, b, silent));
+    }
+
+    @Test
+    public void staleReportCountsAsMissing() {
+        Subchannel fresh = host("10.0.0.1", 1);
+        Subchannel stale = host("10.0.0.2", 1);
+        long now = System.nanoTime();
+        record(fresh, report(100, 0.5, 1, 0), now);
+        // a great score, but reported longer ago than the decay period
+        record(stale, report(10000, 0.01, 1, 0), now - 2 * DECAY_NANOS);
+        assertEquals("[100, 100]", weights(fresh, stale));
+    }
+
+    @Test
+    public void configuredWeightsWithoutAnyReport() {
+        assertEquals("[1, 3, 0]", weights(host("10.0.0.1", 1), host("10.0.0.2", 3), host("10.0.0.3", 0)));
+    }
+
+    @Test
+    public void drainedBackendStaysDrained() {
+        Subchannel drained = host("10.0.0.1", 0);
+        Subchannel serving = host("10.0.0.2", 1);
+        long now = System.nanoTime();
+        record(drained, report(10000, 0.01, 1, 0), now);
+        record(serving, report(100, 0.5, 1, 0), now);
+        assertEquals("[0, 100]", weights(drained, serving));
+    }
+
+    @Test
+    public void weightsStayWithinBounds() {
+        Subchannel overloaded = host("10.0.0.1", 1);
+        Subchannel fast = host("10.0.0.2", 1);
+        long now = System.nanoTime();
+        record(overloaded, report(1, 1, 1, 1000), now);
+        record(fast, report(100000, 0.01, 1, 0), now);
+        int[] weights = new int[2];
+        new LoadReportWeights().computeWeights(new Subchannel[]{overloaded, fast}, weights);
+        // never dropped entirely, so it keeps reporting
+        assertEquals(1, weights[0]);
+        assertEquals(LatencyAwareWeights.WEIGHT_RESOLUTION, weights[1]);
+    }
+
+    @Test
+    public void backendAtItsConcurrencyLimitGetsLessTraffic() {
+        Subchannel limited = host("10.0.0.1", 1);
+        Subchannel other = host("10.0.0.2", 1);
+        long now = System.nanoTime();
+        record(limited, report(100, 0.5, 1, 0), now);
+        record(other, report(100, 0.5, 1, 0), now);
+        GrpcLbAttributes.getSubchannelStats(limited).recordConcurrencyReport(concurrency(20, 15), now);
+        // a quarter of its limit left
+        assertEquals("[25, 100]", weights(limited, other));
+    }
+}
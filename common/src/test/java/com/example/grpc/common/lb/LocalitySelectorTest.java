@@ -0,0 +1,133 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.Attributes;
+import io.grpc.ConnectivityState;
+import io.grpc.ConnectivityStateInfo;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancer.Subchannel;
+import io.grpc.Status;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class LocalitySelectorTest {
+
+    private static final String LOCAL_ZONE = "zone-a";
+
+    private final FakeHelper helper = new FakeHelper();
+
+    private WeightedRoundRobinLoadBalancer balancer;
+
+    private final Map<String, FakeSubchannel> subchannels = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        // every local host is needed for all calls to stay local
+        balancer = new WeightedRoundRobinLoadBalancer(helper, LoadBalancerOptions.DEFAULT,
+                new LocalitySelector.Factory(LOCAL_ZONE, 1,
+                        new WeightedSelector.Factory(WeightCalculator.STATIC),
+                        new WeightedSelector.Factory(WeightCalculator.STATIC)));
+    }
+
+    private static EquivalentAddressGroup addressGroup(String host, String zone) {
+        HostInfo hostInfo = HostInfo.newBuilder().setHost(host).setPort(50051).setZone(zone).build();
+        return new EquivalentAddressGroup(new InetSocketAddress(host, 50051),
+                Attributes.newBuilder().set(GrpcLbAttributes.HOST_INFO, hostInfo).build());
+    }
+
+    private void resolve(EquivalentAddressGroup... addressGroups) {
+        int created = helper.subchannels.size();
+        balancer.handleResolvedAddresses(LoadBalancer.ResolvedAddresses.newBuilder()
+                .setAddresses(Arrays.asList(addressGroups))
+                .build());
+        for (FakeSubchannel subchannel : helper.subchannels.subList(created, helper.subchannels.size())) {
+            subchannels.put(GrpcLbAttributes.getHostInfo(subchannel).getHost(), subchannel);
+            subchannel.updateState(ConnectivityState.READY);
+        }
+    }
+
+    private List<String> pick(int count) {
+        List<String> hosts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Subchannel subchannel = helper.picker.pickSubchannel(new FakePickSubchannelArgs()).getSubchannel();
+            hosts.add(GrpcLbAttributes.getHostInfo(subchannel).getHost());
+        }
+        return hosts;
+    }
+
+    private static int remote(List<String> hosts) {
+        int remote = 0;
+        for (String host : hosts) {
+            if (host.startsWith("10.1.")) {
+                remote++;
+            }
+        }
+        return remote;
+    }
+
+    private void resolveAll() {
+        resolve(addressGroup("10.0.0.1", LOCAL_ZONE), addressGroup("10.0.0.2", LOCAL_ZONE),
+                addressGroup("10.0.0.3", LOCAL_ZONE),
+                addressGroup("10.1.0.1", "zone-b"), addressGroup("10.1.0.2", "zone-b"));
+    }
+
+    @Test
+    public void callsStayLocalWhileTheLocalZoneIsHealthy() {
+        resolveAll();
+        assertEquals(0, remote(pick(1000)));
+    }
+
+    @Test
+    public void callsSpillOverWhenALocalHostFails() {
+        resolveAll();
+        subchannels.get("10.0.0.1").updateState(
+                ConnectivityStateInfo.forTransientFailure(Status.UNAVAILABLE));
+        // a third of the local capacity is gone
+        int remote = remote(pick(3000));
+        assertTrue("remote " + remote, remote > 800 && remote < 1200);
+    }
+
+    @Test
+    public void localShareRecoversWhenTheFailedHostIsRemoved() {
+        resolveAll();
+        subchannels.get("10.0.0.1").updateState(
+                ConnectivityStateInfo.forTransientFailure(Status.UNAVAILABLE));
+        assertNotEquals(0, remote(pick(1000)));
+
+        // the READY hosts stay the same, but the failed one no longer counts as local capacity
+        resolve(addressGroup("10.0.0.2", LOCAL_ZONE), addressGroup("10.0.0.3", LOCAL_ZONE),
+                addressGroup("10.1.0.1", "zone-b"), addressGroup("10.1.0.2", "zone-b"));
+        assertEquals(0, remote(pick(1000)));
+    }
+
+    @Test
+    public void eachSideKeepsItsOwnRotation() {
+        resolveAll();
+        subchannels.get("10.0.0.1").updateState(
+                ConnectivityStateInfo.forTransientFailure(Status.UNAVAILABLE));
+        String lastLocal = null;
+        String lastRemote = null;
+        for (String host : pick(1000)) {
+            // a pick of one side does not advance the rotation of the other
+            if (host.startsWith("10.1.")) {
+                assertNotEquals(lastRemote, host);
+                lastRemote = host;
+            } else {
+                assertNotEquals(lastLocal, host);
+                lastLocal = host;
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.Attributes;
+import io.grpc.ClientStreamTracer;
+import io.grpc.ConnectivityState;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancer.Subchannel;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class OutlierDetectorTest {
+
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private int consecutiveFailureChecks;
+
+    private final List<Subchannel> hosts = new ArrayList<>();
+
+    private OutlierDetector detector;
+
+    private long now = System.nanoTime();
+
+    private static OutlierDetectionOptions.Builder options() {
+        return OutlierDetectionOptions.newBuilder()
+                .setInterval(1, TimeUnit.SECONDS)
+                .setWindow(5, TimeUnit.SECONDS)
+                .setConsecutiveFailures(5)
+                .setSuccessRateStdevFactor(1)
+                .setSuccessRateMinimumHosts(5)
+                .setSuccessRateRequestVolume(10)
+                .setBaseEjectionTime(2, TimeUnit.SECONDS)
+                .setMaxEjectionTime(20, TimeUnit.SECONDS)
+                .setMaxEjectionPercent(20);
+    }
+
+    private void start(OutlierDetectionOptions options, int hostCount) {
+        detector = new OutlierDetector(options, new Runnable() {
+            @Override
+            public void run() {
+                consecutiveFailureChecks++;
+            }
+        });
+        for (int i = 0; i < hostCount; i++) {
+            hosts.add(new FakeSubchannel(HostInfo.newBuilder().setHost("10.0.0." + i).setPort(50051).build(),
+                    new SubchannelStats(TimeUnit.SECONDS.toNanos(10), false, detector)));
+        }
+        // the first run only records where the window starts
+        assertFalse(detector.detect(hosts, now));
+    }
+
+    private static void complete(Subchannel host, int calls, Status status) {
+        ClientStreamTracer.Factory tracers = GrpcLbAttributes.getSubchannelStats(host).getTracerFactory();
+        for (int i = 0; i < calls; i++) {
+            tracers.newClientStreamTracer(ClientStreamTracer.StreamInfo.newBuilder().build(), new Metadata())
+                    .streamClosed(status);
+        }
+    }
+
+    private static boolean isEjected(Subchannel host) {
+        return GrpcLbAttributes.getSubchannelStats(host).isEjected();
+    }
+
+    /**
+     * Every host completes 20 calls, the first one also fails {@code failures} calls in between,
+     * never twice in a row, then the next interval is evaluated.
+     */
+    private boolean interval(int failures) {
+        for (Subchannel host : hosts) {
+            complete(host, 20, Status.OK);
+        }
+        for (int i = 0; i < failures; i++) {
+            complete(hosts.get(0), 1, Status.UNAVAILABLE);
+            complete(hosts.get(0), 1, Status.OK);
+        }
+        now += INTERVAL;
+        return detector.detect(hosts, now);
+    }
+
+    private boolean failInARow(Subchannel host) {
+        complete(host, 5, Status.UNAVAILABLE);
+        return detector.checkConsecutiveFailures(hosts, now);
+    }
+
+    @Test
+    public void lowSuccessRateEjectsTheHost() {
+        start(options().build(), 5);
+        assertFalse(interval(0));
+        assertTrue(interval(20));
+        assertTrue(isEjected(hosts.get(0)));
+        for (Subchannel host : hosts.subList(1, hosts.size())) {
+            assertFalse(isEjected(host));
+        }
+    }
+
+    @Test
+    public void successRateNeedsEnoughHostsAndCalls() {
+        start(options().build(), 4);
+        assertFalse(interval(20));
+        assertFalse(isEjected(hosts.get(0)));
+
+        hosts.clear();
+        start(options().setSuccessRateRequestVolume(100).build(), 5);
+        assertFalse(interval(20));
+        assertFalse(isEjected(hosts.get(0)));
+    }
+
+    @Test
+    public void consecutiveFailuresEjectRightAway() {
+        start(options().build(), 5);
+        complete(hosts.get(1), 4, Status.UNAVAILABLE);
+        complete(hosts.get(1), 1, Status.OK);
+        complete(hosts.get(1), 4, Status.DEADLINE_EXCEEDED);
+        assertEquals(0, consecutiveFailureChecks);
+        assertFalse(detector.checkConsecutiveFailures(hosts, now));
+
+        // not a failure of the host
+        complete(hosts.get(1), 1, Status.NOT_FOUND);
+        assertEquals(0, consecutiveFailureChecks);
+
+        complete(hosts.get(1), 5, Status.UNAVAILABLE);
+        assertEquals(1, consecutiveFailureChecks);
+        assertTrue(detector.checkConsecutiveFailures(hosts, now));
+        assertTrue(isEjected(hosts.get(1)));
+        assertEquals(2 * INTERVAL, detector.getRemainingEjectionNanos(hosts.get(1), now));
+    }
+
+    @Test
+    public void ejectionsAreCappedByTheMaxPercent() {
+        start(options().setMaxEjectionPercent(40).build(), 5);
+        assertTrue(failInARow(hosts.get(0)));
+        assertTrue(failInARow(hosts.get(1)));
+        assertFalse(failInARow(hosts.get(2)));
+        assertFalse(isEjected(hosts.get(2)));
+
+        // one host can always be ejected
+        hosts.clear();
+        start(options().setMaxEjectionPercent(1).build(), 5);
+        assertTrue(failInARow(hosts.get(0)));
+        assertFalse(failInARow(hosts.get(1)));
+    }
+
+    @Test
+    public void hostReturnsAfterTheEjectionTime() {
+        start(options().build(), 5);
+        assertTrue(failInARow(hosts.get(0)));
+
+        now += INTERVAL;
+        assertFalse(detector.detect(hosts, now));
+        assertTrue(isEjected(hosts.get(0)));
+
+        now += INTERVAL;
+        assertTrue(detector.detect(hosts, now));
+        assertFalse(isEjected(hosts.get(0)));
+        assertEquals(0, GrpcLbAttributes.getSubchannelStats(hosts.get(0)).getConsecutiveFailures());
+        assertEquals(0, detector.getRemainingEjectionNanos(hosts.get(0), now));
+    }
+
+    @Test
+    public void returnedHostIsNotJudgedByTheCallsBeforeItsEjection() {
+        start(options().build(), 5);
+        assertTrue(interval(20));
+        now += INTERVAL;
+        detector.detect(hosts, now);
+        now += INTERVAL;
+        assertTrue(detector.detect(hosts, now));
+        assertFalse(isEjected(hosts.get(0)));
+
+        // the window still covers the failures, but they were before the ejection
+        assertFalse(interval(0));
+        assertFalse(isEjected(hosts.get(0)));
+    }
+
+    @Test
+    public void repeatedEjectionsDoubleUntilTheHostStaysIn() {
+        start(options().build(), 5);
+        Subchannel host = hosts.get(0);
+        long[] expected = {2, 4, 8, 16, 20};
+        for (long seconds : expected) {
+            assertTrue(failInARow(host));
+            long remaining = detector.getRemainingEjectionNanos(host, now);
+            assertEquals(TimeUnit.SECONDS.toNanos(seconds), remaining);
+            now += remaining;
+            assertTrue(detector.detect(hosts, now));
+        }
+
+        // every interval the host stays in takes one ejection off the count
+        for (int i = 0; i < 4; i++) {
+            now += INTERVAL;
+            detector.detect(hosts, now);
+        }
+        assertTrue(failInARow(host));
+        assertEquals(TimeUnit.SECONDS.toNanos(4), detector.getRemainingEjectionNanos(host, now));
+        now += TimeUnit.SECONDS.toNanos(4);
+        assertTrue(detector.detect(hosts, now));
+
+        for (int i = 0; i < 6; i++) {
+            now += INTERVAL;
+            detector.detect(hosts, now);
+        }
+        assertTrue(failInARow(host));
+        assertEquals(TimeUnit.SECONDS.toNanos(2), detector.getRemainingEjectionNanos(host, now));
+    }
+
+    @Test
+    public void balancerSkipsEjectedHostsUnlessAllAreEjected() {
+        FakeHelper helper = new FakeHelper();
+        WeightedRoundRobinLoadBalancer balancer = new WeightedRoundRobinLoadBalancer(helper,
+                LoadBalancerOptions.newBuilder()
+                        .setOutlierDetection(options()
+                                // only the consecutive failures, the timer never runs
+                                .setInterval(1, TimeUnit.HOURS)
+                                .setWindow(1, TimeUnit.HOURS)
+                                .setMaxEjectionPercent(100)
+                                .build())
+                        .build());
+        List<EquivalentAddressGroup> addressGroups = new ArrayList<>();
+        for (String host : new String[]{"10.0.0.1", "10.0.0.2"}) {
+            addressGroups.add(new EquivalentAddressGroup(new InetSocketAddress(host, 50051),
+                    Attributes.newBuilder().set(GrpcLbAttributes.HOST_INFO,
+                            HostInfo.newBuilder().setHost(host).setPort(50051).build()).build()));
+        }
+        balancer.handleResolvedAddresses(LoadBalancer.ResolvedAddresses.newBuilder()
+                .setAddresses(addressGroups)
+                .build());
+        for (FakeSubchannel subchannel : helper.subchannels) {
+            subchannel.updateState(ConnectivityState.READY);
+        }
+        assertEquals(2, pickedHosts(helper).size());
+
+        complete(helper.subchannels.get(0), 5, Status.UNAVAILABLE);
+        Set<String> picked = pickedHosts(helper);
+        assertEquals(1, picked.size());
+        assertTrue(picked.contains("10.0.0.2"));
+
+        // better an outlier than no host at all
+        complete(helper.subchannels.get(1), 5, Status.UNAVAILABLE);
+        assertEquals(ConnectivityState.READY, helper.state);
+        assertEquals(2, pickedHosts(helper).size());
+        balancer.shutdown();
+    }
+
+    private static Set<String> pickedHosts(FakeHelper helper) {
+        Set<String> hosts = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            Subchannel subchannel = helper.picker.pickSubchannel(new FakePickSubchannelArgs()).getSubchannel();
+            hosts.add(GrpcLbAttributes.getHostInfo(subchannel).getHost());
+        }
+        return hosts;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer.Subchannel;
+import io.grpc.Metadata;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class RingHashSelectorTest {
+
+    private static final String HEADER = "x-session-id";
+
+    private static final Metadata.Key<String> KEY = Metadata.Key.of(HEADER, Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final int KEYS = 20000;
+
+    private static List<Subchannel> hosts(int count) {
+        List<Subchannel> hosts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            hosts.add(FakeSubchannel.of("10.0.0." + i, 1));
+        }
+        return hosts;
+    }
+
+    private static Subchannel select(SubchannelSelector selector, String value) {
+        Metadata headers = new Metadata();
+        headers.put(KEY, value);
+        return selector.select(new FakePickSubchannelArgs(headers));
+    }
+
+    private static Map<String, Subchannel> assign(SubchannelSelector selector) {
+        Map<String, Subchannel> owners = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owners.put("session-" + i, select(selector, "session-" + i));
+        }
+        return owners;
+    }
+
+    private static Map<Subchannel, Integer> counts(Map<String, Subchannel> owners) {
+        Map<Subchannel, Integer> counts = new HashMap<>();
+        for (Subchannel owner : owners.values()) {
+            Integer count = counts.get(owner);
+            counts.put(owner, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    @Test
+    public void sameValueGoesToTheSameHost() {
+        SubchannelSelector selector = new RingHashSelector.Factory(HEADER).newSelector(hosts(5));
+        Subchannel first = select(selector, "session-42");
+        for (int i = 0; i < 10; i++) {
+            assertSame(first, select(selector, "session-42"));
+        }
+        // the ring only depends on the hosts, another channel sends the value to the same one
+        Subchannel elsewhere = select(new RingHashSelector.Factory(HEADER).newSelector(hosts(5)), "session-42");
+        assertEquals(GrpcLbAttributes.getHostInfo(first), GrpcLbAttributes.getHostInfo(elsewhere));
+    }
+
+    @Test
+    public void valuesAreSpreadOverTheHosts() {
+        List<Subchannel> hosts = hosts(10);
+        Map<Subchannel, Integer> counts = counts(assign(new RingHashSelector.Factory(HEADER).newSelector(hosts)));
+        assertEquals(10, counts.size());
+        for (Map.Entry<Subchannel, Integer> entry : counts.entrySet()) {
+            // 160 points per host keep every share within about a third of the fair one
+            assertTrue(entry.getKey() + " got " + entry.getValue(),
+                    Math.abs(entry.getValue() - KEYS / 10) < KEYS / 10 / 3);
+        }
+    }
+
+    @Test
+    public void removingAHostOnlyMovesItsValues() {
+        List<Subchannel> hosts = hosts(10);
+        RingHashSelector.Factory factory = new RingHashSelector.Factory(HEADER);
+        Map<String, Subchannel> before = assign(factory.newSelector(hosts));
+        Subchannel removed = hosts.remove(3);
+        Map<String, Subchannel> after = assign(factory.newSelector(hosts));
+
+        for (Map.Entry<String, Subchannel> entry : before.entrySet()) {
+            if (entry.getValue() != removed) {
+                assertSame(entry.getKey(), entry.getValue(), after.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void addingAHostOnlyTakesValues() {
+        List<Subchannel> hosts = hosts(10);
+        RingHashSelector.Factory factory = new RingHashSelector.Factory(HEADER);
+        Map<String, Subchannel> before = assign(factory.newSelector(hosts));
+        Subchannel added = FakeSubchannel.of("10.0.1.1", 1);
+        hosts.add(added);
+        Map<String, Subchannel> after = assign(factory.newSelector(hosts));
+
+        int moved = 0;
+        for (Map.Entry<String, Subchannel> entry : after.entrySet()) {
+            if (entry.getValue() != before.get(entry.getKey())) {
+                assertSame(added, entry.getValue());
+                moved++;
+            }
+        }
+        // about 1/11 of the values
+        assertTrue("moved " + moved, moved > KEYS / 11 / 2 && moved < KEYS / 11 * 2);
+    }
+
+    @Test
+    public void addingAHeavierHostOnlyTakesItsShare() {
+        List<Subchannel> hosts = hosts(10);
+        RingHashSelector.Factory factory = new RingHashSelector.Factory(HEADER);
+        Map<String, Subchannel> before = assign(factory.newSelector(hosts));
+        // the new maximum weight leaves the points of the other hosts where they are
+        Subchannel added = FakeSubchannel.of("10.0.1.1", 5);
+        hosts.add(added);
+        Map<String, Subchannel> after = assign(factory.newSelector(hosts));
+
+        int moved = 0;
+        for (Map.Entry<String, Subchannel> entry : after.entrySet()) {
+            if (entry.getValue() != before.get(entry.getKey())) {
+                assertSame(added, entry.getValue());
+                moved++;
+            }
+        }
+        // about 5/15 of the values
+        assertTrue("moved " + moved, moved > KEYS / 3 * 3 / 4 && moved < KEYS / 3 * 5 / 4);
+    }
+
+    @Test
+    public void lightHostNextToHeavyOnesKeepsItsShare() {
+        List<Subchannel> hosts = new ArrayList<>();
+        Subchannel light = FakeSubchannel.of("10.0.0.1", 1);
+        hosts.add(light);
+        for (int i = 2; i < 6; i++) {
+            hosts.add(FakeSubchannel.of("10.0.0." + i, 100));
+        }
+        Integer count = counts(assign(new RingHashSelector.Factory(HEADER).newSelector(hosts))).get(light);
+        // about 1/401 of the values, 50
+        assertTrue("got " + count, count != null && count > 25 && count < 100);
+    }
+
+    @Test
+    public void ringIsCappedForLargeWeights() {
+        List<Subchannel> hosts = new ArrayList<>();
+        Subchannel light = FakeSubchannel.of("10.0.0.1", 1000);
+        Subchannel heavy = FakeSubchannel.of("10.0.0.2", 3000);
+        hosts.add(light);
+        hosts.add(heavy);
+        Map<Subchannel, Integer> counts = counts(assign(new RingHashSelector.Factory(HEADER).newSelector(hosts)));
+        double ratio = (double) counts.get(heavy) / counts.get(light);
+        assertTrue("ratio " + ratio, ratio > 2.5 && ratio < 3.5);
+    }
+
+    @Test
+    public void sharesFollowTheWeights() {
+        List<Subchannel> hosts = new ArrayList<>();
+        Subchannel light = FakeSubchannel.of("10.0.0.1", 1);
+        Subchannel heavy = FakeSubchannel.of("10.0.0.2", 3);
+        hosts.add(light);
+        hosts.add(heavy);
+        Map<Subchannel, Integer> counts = counts(assign(new RingHashSelector.Factory(HEADER).newSelector(hosts)));
+        double ratio = (double) counts.get(heavy) / counts.get(light);
+        assertTrue("ratio " + ratio, ratio > 2 && ratio < 4.5);
+    }
+
+    @Test
+    public void zeroWeightHostsOnlyServeWhenAllAreZero() {
+        List<Subchannel> hosts = new ArrayList<>();
+        Subchannel drained = FakeSubchannel.of("10.0.0.1", 0);
+        hosts.add(drained);
+        hosts.add(FakeSubchannel.of("10.0.0.2", 1));
+        assertEquals(1, counts(assign(new RingHashSelector.Factory(HEADER).newSelector(hosts))).size());
+
+        List<Subchannel> allDrained = new ArrayList<>();
+        allDrained.add(drained);
+        allDrained.add(FakeSubchannel.of("10.0.0.2", 0));
+        assertEquals(2, counts(assign(new RingHashSelector.Factory(HEADER).newSelector(allDrained))).size());
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.Attributes;
+import io.grpc.ConnectivityState;
+import io.grpc.ConnectivityStateInfo;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancer.Subchannel;
+import io.grpc.Status;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class SlowStartWeightsTest {
+
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(100);
+
+    private static LoadBalancerOptions.Builder options() {
+        return LoadBalancerOptions.newBuilder()
+                .setSlowStartWindow(100, TimeUnit.SECONDS)
+                .setSlowStartMinWeightFraction(0.1);
+    }
+
+    /**
+     * A host that became READY {@code readyFor} ago; far longer than the window for a warm one.
+     */
+    private static Subchannel host(int weight, long readyFor) {
+        FakeSubchannel subchannel = FakeSubchannel.of("10.0.0." + weight, weight);
+        GrpcLbAttributes.getSubchannelStats(subchannel).markReady(System.nanoTime() - readyFor);
+        return subchannel;
+    }
+
+    private static Subchannel warm(int weight) {
+        return host(weight, 10 * WINDOW);
+    }
+
+    private static int[] weights(LoadBalancerOptions options, Subchannel... subchannels) {
+        int[] weights = new int[subchannels.length];
+        SlowStartWeights.wrap(WeightCalculator.STATIC, options).computeWeights(subchannels, weights);
+        return weights;
+    }
+
+    @Test
+    public void disabledWithoutAWindow() {
+        assertSame(WeightCalculator.STATIC, SlowStartWeights.wrap(WeightCalculator.STATIC, LoadBalancerOptions.DEFAULT));
+    }
+
+    @Test
+    public void warmHostsKeepTheirWeights() {
+        assertArrayEquals(new int[]{1, 2}, weights(options().build(), warm(1), warm(2)));
+    }
+
+    @Test
+    public void neverReadyHostIsNotRamped() {
+        assertArrayEquals(new int[]{1, 2}, weights(options().build(), FakeSubchannel.of("10.0.0.1", 1), warm(2)));
+    }
+
+    @Test
+    public void weightRampsLinearlyOverTheWindow() {
+        assertArrayEquals(new int[]{500, 1000}, weights(options().build(), host(1000, WINDOW / 2), warm(1000)));
+        assertArrayEquals(new int[]{750, 1000}, weights(options().build(), host(1000, WINDOW * 3 / 4), warm(1000)));
+    }
+
+    @Test
+    public void weightStartsAtTheMinFraction() {
+        assertArrayEquals(new int[]{100, 1000}, weights(options().build(), host(1000, 0), warm(1000)));
+        assertArrayEquals(new int[]{100, 1000}, weights(options().build(), host(1000, WINDOW / 20), warm(1000)));
+        assertArrayEquals(new int[]{300, 1000},
+                weights(options().setSlowStartMinWeightFraction(0.3).build(), host(1000, WINDOW / 20), warm(1000)));
+    }
+
+    @Test
+    public void curveHoldsTheHostBackLonger() {
+        assertArrayEquals(new int[]{250, 1000},
+                weights(options().setSlowStartCurve(2).build(), host(1000, WINDOW / 2), warm(1000)));
+    }
+
+    @Test
+    public void smallWeightsAreScaledToRampInSteps() {
+        // without scaling half of a weight of 1 would round back to 1
+        int[] weights = weights(options().build(), host(1, WINDOW / 2), warm(1), warm(2));
+        assertArrayEquals(new int[]{25, 50, 100}, weights);
+        assertTrue(weights[2] >= SlowStartWeights.RAMP_RESOLUTION);
+
+        // large weights are left at their scale
+        assertArrayEquals(new int[]{1500, 3000, 3000},
+                weights(options().build(), host(3000, WINDOW / 2), warm(3000), warm(3000)));
+    }
+
+    @Test
+    public void readyAfterAFailureOrIdleRampsAgain() throws Exception {
+        FakeHelper helper = new FakeHelper();
+        WeightedRoundRobinLoadBalancer balancer = new WeightedRoundRobinLoadBalancer(helper, options().build());
+        balancer.handleResolvedAddresses(LoadBalancer.ResolvedAddresses.newBuilder()
+                .setAddresses(Collections.singletonList(new EquivalentAddressGroup(
+                        new InetSocketAddress("10.0.0.1", 50051),
+                        Attributes.newBuilder().set(GrpcLbAttributes.HOST_INFO,
+                                HostInfo.newBuilder().setHost("10.0.0.1").setPort(50051).build()).build())))
+                .build());
+        FakeSubchannel subchannel = helper.subchannels.get(0);
+        SubchannelStats stats = GrpcLbAttributes.getSubchannelStats(subchannel);
+        long pause = TimeUnit.MILLISECONDS.toNanos(50);
+
+        subchannel.updateState(ConnectivityState.READY);
+        Thread.sleep(50);
+        subchannel.updateState(ConnectivityState.CONNECTING);
+        subchannel.updateState(ConnectivityState.READY);
+        assertTrue(stats.getReadyForNanos(System.nanoTime()) >= pause);
+
+        // the server may have restarted on the same address
+        subchannel.updateState(ConnectivityStateInfo.forTransientFailure(Status.UNAVAILABLE));
+        subchannel.updateState(ConnectivityState.READY);
+        assertTrue(stats.getReadyForNanos(System.nanoTime()) < pause);
+
+        Thread.sleep(50);
+        subchannel.updateState(ConnectivityState.IDLE);
+        subchannel.updateState(ConnectivityState.READY);
+        assertTrue(stats.getReadyForNanos(System.nanoTime()) < pause);
+        balancer.shutdown();
+    }
+
+    @Test
+    public void readyAgainWithoutADisconnectKeepsTheRamp() {
+        SubchannelStats stats = new SubchannelStats(WINDOW, false, null);
+        stats.markReady(1000);
+        stats.markReady(2000);
+        assertEquals(1000, stats.getReadyForNanos(2000));
+
+        stats.markDisconnected();
+        stats.markReady(3000);
+        assertEquals(0, stats.getReadyForNanos(3000));
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.grpc.common.lb;
+
+import com.example.grpc.common.lb.GrpcLbAttributes.Ref;
+import io.grpc.LoadBalancer.Subchannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class StickinessCacheTest {
+
+    // below two segments of 16, so a single segment with a protected list of 8
+    private static final int SIZE = 10;
+
+    private final Ref<Subchannel> ref = new Ref<Subchannel>(FakeSubchannel.of("10.0.0.1", 1));
+
+    private void insertOneOffs(StickinessCache cache, String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            cache.putIfAbsent(prefix + i, ref);
+        }
+    }
+
+    @Test
+    public void promotedEntrySurvivesABurstOfOneOffs() {
+        StickinessCache cache = new StickinessCache(SIZE, null);
+        cache.putIfAbsent("returning", ref);
+        assertNotNull(cache.get("returning"));
+        cache.putIfAbsent("once", ref);
+
+        insertOneOffs(cache, "burst-", 100);
+
+        assertNotNull(cache.get("returning"));
+        assertNull(cache.get("once"));
+        assertEquals(SIZE, cache.size());
+    }
+
+    @Test
+    public void probationIsEvictedInInsertionOrder() {
+        StickinessCache cache = new StickinessCache(SIZE, null);
+        insertOneOffs(cache, "key-", SIZE + 3);
+        for (int i = 0; i < 3; i++) {
+            assertNull(cache.get("key-" + i));
+        }
+        for (int i = 3; i < SIZE + 3; i++) {
+            assertNotNull(cache.get("key-" + i));
+        }
+    }
+
+    @Test
+    public void protectedOverflowDemotesTheLeastRecentlyUsed() {
+        StickinessCache cache = new StickinessCache(SIZE, null);
+        // one more than the protected list holds
+        for (int i = 0; i < 9; i++) {
+            cache.putIfAbsent("hot-" + i, ref);
+            cache.get("hot-" + i);
+        }
+        insertOneOffs(cache, "burst-", 100);
+
+        assertNull(cache.get("hot-0"));
+        for (int i = 1; i < 9; i++) {
+            assertNotNull("hot-" + i, cache.get("hot-" + i));
+        }
+    }
+
+    @Test
+    public void sizeStaysBoundedAcrossSegments() {
+        StickinessCache cache = new StickinessCache(1000, null);
+        insertOneOffs(cache, "key-", 10000);
+        assertEquals(1000, cache.size());
+    }
+
+    @Test
+    public void putIfAbsentKeepsTheFirstValue() {
+        StickinessCache cache = new StickinessCache(SIZE, null);
+        Ref<Subchannel> other = new Ref<Subchannel>(FakeSubchannel.of("10.0.0.2", 1));
+        assertNull(cache.putIfAbsent("key", ref));
+        assertSame(ref, cache.putIfAbsent("key", other));
+        assertSame(ref, cache.get("key"));
+    }
+
+    @Test
+    public void replaceOnlySwapsTheExpectedValue() {
+        StickinessCache cache = new StickinessCache(SIZE, null);
+        Ref<Subchannel> other = new Ref<Subchannel>(FakeSubchannel.of("10.0.0.2", 1));
+        cache.putIfAbsent("key", ref);
+        assertFalse(cache.replace("key", other, other));
+        assertTrue(cache.replace("key", ref, other));
+        assertSame(other, cache.get("key"));
+        assertFalse(cache.replace("missing", ref, other));
+    }
+}
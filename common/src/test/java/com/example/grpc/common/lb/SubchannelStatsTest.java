@@ -0,0 +1,102 @@
+package com.example.grpc.common.lb;
+
+import com.example.grpc.load.ConcurrencyReport;
+import com.example.grpc.load.LoadReport;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class SubchannelStatsTest {
+
+    private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final SubchannelStats stats = new SubchannelStats(DECAY_NANOS, true, null);
+
+    private final long start = System.nanoTime();
+
+    static LoadReport report(double qps, double cpu, int inFlight, int queueDepth) {
+        return LoadReport.newBuilder()
+                .setQps(qps)
+                .setCpuUtilization(cpu)
+                .setInFlight(inFlight)
+                .setQueueDepth(queueDepth)
+                .build();
+    }
+
+    static ConcurrencyReport concurrency(int limit, int inFlight) {
+        return ConcurrencyReport.newBuilder().setLimit(limit).setInFlight(inFlight).build();
+    }
+
+    @Test
+    public void scoreIsQpsPerCpuScaledByTheRunningShare() {
+        stats.recordLoadReport(report(100, 0.5, 2, 2), start);
+        assertEquals(100, stats.getLoadScore(start), 1e-9);
+    }
+
+    @Test
+    public void idleReportsAreSkipped() {
+        stats.recordLoadReport(report(0, 0.5, 0, 0), start);
+        stats.recordLoadReport(report(100, 0, 0, 0), start);
+        assertEquals(0, stats.getLoadScore(start), 0);
+    }
+
+    @Test
+    public void tinyCpuUsageDoesNotBlowUpTheScore() {
+        stats.recordLoadReport(report(10, 1e-6, 1, 0), start);
+        assertEquals(1000, stats.getLoadScore(start), 1e-9);
+    }
+
+    @Test
+    public void reportsAreAveraged() {
+        stats.recordLoadReport(report(100, 0.5, 1, 0), start);
+        stats.recordLoadReport(report(100, 1, 1, 0), start + DECAY_NANOS / 10);
+        double score = stats.getLoadScore(start + DECAY_NANOS / 10);
+        // e^-0.1 of the old score, the rest of the new one
+        assertEquals(200 * Math.exp(-0.1) + 100 * (1 - Math.exp(-0.1)), score, 1e-6);
+    }
+
+    @Test
+    public void staleScoreIsDroppedAndReplaced() {
+        stats.recordLoadReport(report(100, 0.5, 1, 0), start);
+        long later = start + DECAY_NANOS + 1;
+        assertEquals(0, stats.getLoadScore(later), 0);
+
+        stats.recordLoadReport(report(100, 1, 1, 0), later);
+        assertEquals(100, stats.getLoadScore(later), 1e-9);
+    }
+
+    @Test
+    public void headroomDropsAtOnceAndRecoversGradually() {
+        assertEquals(1, stats.getHeadroom(start), 0);
+        stats.recordConcurrencyReport(concurrency(10, 9), start);
+        assertEquals(0.1, stats.getHeadroom(start), 1e-9);
+
+        stats.recordConcurrencyReport(concurrency(10, 1), start + DECAY_NANOS / 10);
+        double headroom = stats.getHeadroom(start + DECAY_NANOS / 10);
+        assertTrue("headroom " + headroom, headroom > 0.1 && headroom < 0.3);
+
+        // forgotten without recent reports
+        assertEquals(1, stats.getHeadroom(start + 2 * DECAY_NANOS), 0);
+    }
+
+    @Test
+    public void headroomScalesTheScoreDownToAFloor() {
+        stats.recordLoadReport(report(100, 0.5, 1, 0), start);
+        stats.recordConcurrencyReport(concurrency(10, 5), start);
+        assertEquals(100, stats.getLoadScore(start), 1e-9);
+
+        // rejecting calls
+        stats.recordConcurrencyReport(concurrency(10, 10), start);
+        assertEquals(10, stats.getLoadScore(start), 1e-9);
+    }
+
+    @Test
+    public void invalidConcurrencyReportIsIgnored() {
+        stats.recordConcurrencyReport(concurrency(0, 5), start);
+        assertEquals(1, stats.getHeadroom(start), 0);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.Attributes;
+import io.grpc.ConnectivityState;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancer.Subchannel;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+
+public class WeightedRoundRobinLoadBalancerTest {
+
+    private final FakeHelper helper = new FakeHelper();
+
+    private WeightedRoundRobinLoadBalancer balancer;
+
+    @Before
+    public void setUp() {
+        balancer = new WeightedRoundRobinLoadBalancer(helper);
+    }
+
+    private static EquivalentAddressGroup addressGroup(String host, int weight) {
+        HostInfo hostInfo = HostInfo.newBuilder().setHost(host).setPort(50051).setWeight(weight).build();
+        return new EquivalentAddressGroup(new InetSocketAddress(host, 50051),
+                Attributes.newBuilder().set(GrpcLbAttributes.HOST_INFO, hostInfo).build());
+    }
+
+    private void resolve(EquivalentAddressGroup... addressGroups) {
+        balancer.handleResolvedAddresses(LoadBalancer.ResolvedAddresses.newBuilder()
+                .setAddresses(Arrays.asList(addressGroups))
+                .build());
+    }
+
+    private Map<String, Integer> pick(int count) {
+        Map<String, Integer> picks = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            Subchannel subchannel = helper.picker.pickSubchannel(new FakePickSubchannelArgs()).getSubchannel();
+            String host = GrpcLbAttributes.getHostInfo(subchannel).getHost();
+            Integer picked = picks.get(host);
+            picks.put(host, picked == null ? 1 : picked + 1);
+        }
+        return picks;
+    }
+
+    @Test
+    public void weightChangeKeepsTheSubchannelsAndRebuildsThePicker() {
+        resolve(addressGroup("10.0.0.1", 1), addressGroup("10.0.0.2", 1));
+        for (FakeSubchannel subchannel : helper.subchannels) {
+            subchannel.updateState(ConnectivityState.READY);
+        }
+        assertEquals(2, helper.subchannels.size());
+        assertEquals(Integer.valueOf(200), pick(400).get("10.0.0.1"));
+        LoadBalancer.SubchannelPicker before = helper.picker;
+
+        resolve(addressGroup("10.0.0.1", 3), addressGroup("10.0.0.2", 1));
+
+        assertEquals(2, helper.subchannels.size());
+        for (FakeSubchannel subchannel : helper.subchannels) {
+            assertFalse(subchannel.shutdown);
+            assertEquals(ConnectivityState.READY,
+                    GrpcLbAttributes.getSubchannelStateInfoRef(subchannel).value.getState());
+        }
+        assertEquals(3, GrpcLbAttributes.getHostInfo(helper.subchannels.get(0)).getWeight());
+        assertNotSame(before, helper.picker);
+        assertEquals(ConnectivityState.READY, helper.state);
+        Map<String, Integer> picks = pick(400);
+        assertEquals(Integer.valueOf(300), picks.get("10.0.0.1"));
+        assertEquals(Integer.valueOf(100), picks.get("10.0.0.2"));
+    }
+
+    @Test
+    public void unchangedAddressesKeepThePicker() {
+        resolve(addressGroup("10.0.0.1", 1), addressGroup("10.0.0.2", 2));
+        for (FakeSubchannel subchannel : helper.subchannels) {
+            subchannel.updateState(ConnectivityState.READY);
+        }
+        LoadBalancer.SubchannelPicker before = helper.picker;
+
+        resolve(addressGroup("10.0.0.1", 1), addressGroup("10.0.0.2", 2));
+        assertEquals(2, helper.subchannels.size());
+        assertSame(before, helper.picker);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.grpc.common.lb;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class WeightedRoundRobinTest {
+
+    private static Node[] nodes(int... weights) {
+        Node[] nodes = new Node[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            nodes[i] = new Node("10.0.0." + i + ":50051", weights[i]);
+        }
+        return nodes;
+    }
+
+    private static int[] counts(int[] schedule, int n) {
+        int[] counts = new int[n];
+        for (int index : schedule) {
+            counts[index]++;
+        }
+        return counts;
+    }
+
+    @Test
+    public void everyNodeAppearsWeightOverGcdTimes() {
+        int[] schedule = WeightedRoundRobin.buildSchedule(nodes(6, 4, 2, 10));
+        // gcd 2
+        assertEquals(11, schedule.length);
+        assertEquals(Arrays.toString(new int[]{3, 2, 1, 5}), Arrays.toString(counts(schedule, 4)));
+    }
+
+    @Test
+    public void appearancesAreSpreadOverTheCycle() {
+        int[] weights = {1, 3, 7, 20, 33};
+        int[] schedule = WeightedRoundRobin.buildSchedule(nodes(weights));
+        int total = schedule.length;
+        int[] picked = new int[weights.length];
+        for (int s = 0; s < total; s++) {
+            picked[schedule[s]]++;
+            // every prefix of the cycle holds each node about in proportion to its weight
+            for (int node = 0; node < weights.length; node++) {
+                double expected = (s + 1) * (double) weights[node] / total;
+                assertTrue("node " + node + " after " + (s + 1) + " picks: " + picked[node] + " vs " + expected,
+                        Math.abs(picked[node] - expected) < 1);
+            }
+        }
+    }
+
+    @Test
+    public void heavyNodeIsNotPickedInABurst() {
+        int[] schedule = WeightedRoundRobin.buildSchedule(nodes(1, 1, 1, 3));
+        for (int s = 1; s < schedule.length; s++) {
+            assertFalse(Arrays.toString(schedule), schedule[s] == 3 && schedule[s - 1] == 3);
+        }
+    }
+
+    @Test
+    public void scheduleIsScaledDownAboveTheMaximumSize() {
+        int big = WeightedRoundRobin.MAX_SCHEDULE_SIZE;
+        // coprime weights, so the gcd does not reduce them
+        int[] schedule = WeightedRoundRobin.buildSchedule(nodes(big - 1, big, 1));
+        assertTrue(schedule.length <= WeightedRoundRobin.MAX_SCHEDULE_SIZE + 3);
+        int[] counts = counts(schedule, 3);
+        // a light node is rounded up rather than dropped
+        assertEquals(1, counts[2]);
+        assertTrue(Math.abs(counts[0] - counts[1]) <= 2);
+    }
+
+    @Test
+    public void zeroWeightsFallBackToRoundRobin() {
+        int[] schedule = WeightedRoundRobin.buildSchedule(nodes(0, 0, 0));
+        assertEquals("[0, 1, 2]", Arrays.toString(schedule));
+    }
+
+    @Test
+    public void zeroWeightNodeIsSkippedWhenOthersAreWeighted() {
+        int[] schedule = WeightedRoundRobin.buildSchedule(nodes(0, 2, 1));
+        assertEquals(Arrays.toString(new int[]{0, 2, 1}), Arrays.toString(counts(schedule, 3)));
+    }
+
+    @Test
+    public void selectFollowsTheSharedCursor() {
+        List<Node> list = Arrays.asList(nodes(1, 2));
+        AtomicInteger cursor = new AtomicInteger();
+        WeightedRoundRobin first = new WeightedRoundRobin(list, cursor);
+        int[] picks = new int[2];
+        for (int i = 0; i < 30; i++) {
+            picks[first.selectIndex()]++;
+        }
+        assertEquals(10, picks[0]);
+        assertEquals(20, picks[1]);
+        assertEquals(30, cursor.get());
+        // a rebuild continues from the cursor instead of restarting at the first slot
+        WeightedRoundRobin second = new WeightedRoundRobin(list, cursor);
+        assertEquals(WeightedRoundRobin.buildSchedule(nodes(1, 2))[30 % 3], second.selectIndex());
+    }
+}
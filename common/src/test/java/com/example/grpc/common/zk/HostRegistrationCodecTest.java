@@ -0,0 +1,97 @@
+package com.example.grpc.common.zk;
+
+import com.example.grpc.common.lb.HostInfo;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class HostRegistrationCodecTest {
+
+    private static final HostInfo HOST = HostInfo.newBuilder()
+            .setHost("10.0.0.1")
+            .setPort(50051)
+            .setWeight(3)
+            .setZone("eu-west-1a")
+            .setVersion("1.4.2")
+            .putMetadata("canary", "true")
+            .putMetadata("rack", "r12")
+            .build();
+
+    private static HostInfo decode(String data) {
+        return HostRegistrationCodec.decode(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertInvalid(byte[] data) {
+        try {
+            HostRegistrationCodec.decode(data);
+            fail("decoded " + new String(data, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void binaryRoundTrip() {
+        assertEquals(HOST, HostRegistrationCodec.decode(HostRegistrationCodec.encode(HOST)));
+    }
+
+    @Test
+    public void legacyRoundTrip() {
+        byte[] legacy = HostRegistrationCodec.encodeLegacy(HOST);
+        assertEquals("10.0.0.1:50051?lb_weight=3&zone=eu-west-1a&version=1.4.2&canary=true&rack=r12",
+                new String(legacy, StandardCharsets.UTF_8));
+        assertEquals(HOST, HostRegistrationCodec.decode(legacy));
+    }
+
+    @Test
+    public void minimalHostRoundTrip() {
+        HostInfo host = HostInfo.newBuilder().setHost("backend").setPort(8080).build();
+        assertEquals(host, HostRegistrationCodec.decode(HostRegistrationCodec.encode(host)));
+        assertEquals(host, HostRegistrationCodec.decode(HostRegistrationCodec.encodeLegacy(host)));
+    }
+
+    @Test
+    public void legacyWithoutParametersKeepsTheDefaultWeight() {
+        HostInfo host = decode("10.0.0.1:50051");
+        assertEquals("10.0.0.1", host.getHost());
+        assertEquals(50051, host.getPort());
+        assertEquals(HostInfo.DEFAULT_WEIGHT, host.getWeight());
+        assertEquals("", host.getZone());
+    }
+
+    @Test
+    public void legacyIpv6() {
+        HostInfo host = decode("[2001:db8::1]:50051?lb_weight=2");
+        assertEquals("2001:db8::1", host.getHost());
+        assertEquals(50051, host.getPort());
+        assertEquals(2, host.getWeight());
+    }
+
+    @Test
+    public void invalidLegacyIsRejected() {
+        assertInvalid("10.0.0.1".getBytes(StandardCharsets.UTF_8));
+        assertInvalid("10.0.0.1:".getBytes(StandardCharsets.UTF_8));
+        assertInvalid("10.0.0.1:port".getBytes(StandardCharsets.UTF_8));
+        assertInvalid("10.0.0.1:99999".getBytes(StandardCharsets.UTF_8));
+        assertInvalid("10.0.0.1:50051?lb_weight".getBytes(StandardCharsets.UTF_8));
+        assertInvalid("10.0.0.1:50051?lb_weight=-1".getBytes(StandardCharsets.UTF_8));
+        assertInvalid("[::1]50051".getBytes(StandardCharsets.UTF_8));
+        assertInvalid(new byte[0]);
+    }
+
+    @Test
+    public void unsupportedOrCorruptedBinaryIsRejected() {
+        byte[] data = HostRegistrationCodec.encode(HOST);
+        byte[] nextVersion = data.clone();
+        nextVersion[1] = HostRegistrationCodec.FORMAT_VERSION + 1;
+        assertInvalid(nextVersion);
+        assertInvalid(new byte[]{0});
+
+        byte[] truncated = new byte[data.length - 3];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertInvalid(truncated);
+    }
+}
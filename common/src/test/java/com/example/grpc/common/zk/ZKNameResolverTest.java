@@ -0,0 +1,348 @@
+package com.example.grpc.common.zk;
+
+import com.example.grpc.common.lb.GrpcLbAttributes;
+import com.example.grpc.common.lb.HostInfo;
+import io.grpc.Attributes;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.Status;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Runs the resolver against an in-process ZooKeeper server.
+ */
+public class ZKNameResolverTest {
+
+    private static final AtomicInteger PATHS = new AtomicInteger();
+
+    private static File dataDir;
+
+    private static ServerCnxnFactory serverFactory;
+
+    private static URI zkUri;
+
+    private ZooKeeper zoo;
+
+    private String path;
+
+    private final List<ZKNameResolver> resolvers = new ArrayList<>();
+
+    @BeforeClass
+    public static void startZooKeeper() throws Exception {
+        dataDir = Files.createTempDirectory("zk").toFile();
+        ZooKeeperServer server = new ZooKeeperServer(dataDir, dataDir, 2000);
+        serverFactory = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 100);
+        serverFactory.startup(server);
+        zkUri = URI.create("zk://127.0.0.1:" + serverFactory.getLocalPort());
+    }
+
+    @AfterClass
+    public static void stopZooKeeper() {
+        serverFactory.shutdown();
+    }
+
+    @Before
+    public void connect() throws Exception {
+        final CountDownLatch connected = new CountDownLatch(1);
+        zoo = new ZooKeeper(zkUri.getAuthority(), 5000, new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getState() == Event.KeeperState.SyncConnected) {
+                    connected.countDown();
+                }
+            }
+        });
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+        path = "/service-" + PATHS.incrementAndGet();
+        zoo.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    }
+
+    @After
+    public void close() throws Exception {
+        for (ZKNameResolver resolver : resolvers) {
+            resolver.shutdown();
+        }
+        zoo.close();
+    }
+
+    private RecordingListener start(ZKNameResolverOptions options) {
+        ZKNameResolver resolver = new ZKNameResolver(zkUri, path, options);
+        resolvers.add(resolver);
+        RecordingListener listener = new RecordingListener();
+        resolver.start(listener);
+        return listener;
+    }
+
+    private static ZKNameResolverOptions immediate() {
+        return ZKNameResolverOptions.newBuilder().setCoalescingWindow(0, TimeUnit.MILLISECONDS).build();
+    }
+
+    private static byte[] registration(int port) {
+        return HostRegistrationCodec.encode(HostInfo.newBuilder().setHost("127.0.0.1").setPort(port).build());
+    }
+
+    private void register(String child, int port, List<ACL> acl) throws Exception {
+        zoo.create(path + "/" + child, registration(port), acl, CreateMode.EPHEMERAL);
+    }
+
+    private void register(String child, int port) throws Exception {
+        register(child, port, ZooDefs.Ids.OPEN_ACL_UNSAFE);
+    }
+
+    private static List<Integer> ports(List<EquivalentAddressGroup> addresses) {
+        List<Integer> ports = new ArrayList<>();
+        for (EquivalentAddressGroup addressGroup : addresses) {
+            ports.add(addressGroup.getAttributes().get(GrpcLbAttributes.HOST_INFO).getPort());
+        }
+        Collections.sort(ports);
+        return ports;
+    }
+
+    @Test
+    public void resolvesTheRegisteredHosts() throws Exception {
+        register("a", 1001);
+        register("b", 1002);
+        RecordingListener listener = start(immediate());
+        assertEquals("[1001, 1002]", ports(listener.next()).toString());
+
+        zoo.setData(path + "/a", registration(1003), -1);
+        assertEquals("[1002, 1003]", ports(listener.next()).toString());
+
+        zoo.delete(path + "/b", -1);
+        assertEquals("[1003]", ports(listener.next()).toString());
+    }
+
+    @Test
+    public void failedReadIsRetriedOnTheNextListing() throws Exception {
+        // getData fails with NOAUTH, like a read lost to a connection loss it is not a deletion
+        List<ACL> unreadable = Collections.singletonList(
+                new ACL(ZooDefs.Perms.ALL & ~ZooDefs.Perms.READ, ZooDefs.Ids.ANYONE_ID_UNSAFE));
+        register("a", 1001, unreadable);
+        register("b", 1002);
+        RecordingListener listener = start(immediate());
+        assertEquals("[1002]", ports(listener.next()).toString());
+
+        zoo.setACL(path + "/a", ZooDefs.Ids.OPEN_ACL_UNSAFE, -1);
+        register("c", 1003);
+        assertEquals("[1001, 1002, 1003]", ports(listener.next()).toString());
+
+        // the retried read set the data watch of the child again
+        zoo.setData(path + "/a", registration(1004), -1);
+        assertEquals("[1002, 1003, 1004]", ports(listener.next()).toString());
+    }
+
+    @Test
+    public void dataChangeOfTheServicePathIsIgnored() throws Exception {
+        register("a", 1001);
+        RecordingListener listener = start(immediate());
+        assertEquals("[1001]", ports(listener.next()).toString());
+
+        // as delivered by an exists watch left on the service path
+        resolvers.get(0).process(new WatchedEvent(Watcher.Event.EventType.NodeDataChanged,
+                Watcher.Event.KeeperState.SyncConnected, path));
+        listener.assertNoUpdate(200, TimeUnit.MILLISECONDS);
+
+        zoo.setData(path + "/a", registration(1002), -1);
+        assertEquals("[1002]", ports(listener.next()).toString());
+    }
+
+    @Test
+    public void weightUpdateKeepsTheRegisteredNode() throws Exception {
+        ZookeeperConnection connection = new ZookeeperConnection();
+        try {
+            assertTrue(connection.connect(zkUri.toString(), "127.0.0.1", "1001", 1));
+            // the path the servers register under
+            path = "/grpc_greet_service";
+            String node = path + "/node-127.0.0.1-1001";
+            long created = zoo.exists(node, false).getCzxid();
+            RecordingListener listener = start(immediate());
+            assertEquals(1, weight(listener.next()));
+
+            assertTrue(connection.updateWeight(5));
+            assertEquals(5, connection.getWeight());
+            assertEquals(5, weight(listener.next()));
+            assertEquals(created, zoo.exists(node, false).getCzxid());
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static int weight(List<EquivalentAddressGroup> addresses) {
+        assertEquals(1, addresses.size());
+        return addresses.get(0).getAttributes().get(GrpcLbAttributes.HOST_INFO).getWeight();
+    }
+
+    @Test
+    public void expiredSessionIsReplacedAndTheDataWatchedAgain() throws Exception {
+        register("a", 1001);
+        RecordingListener listener = start(immediate());
+        assertEquals("[1001]", ports(listener.next()).toString());
+
+        SharedZooKeeper shared = SharedZooKeeper.acquire(zkUri.getAuthority());
+        try {
+            long sessionId = shared.get().getSessionId();
+            expire(shared.get());
+            for (int i = 0; i < 200 && (shared.get().getSessionId() == sessionId || !shared.isConnected()); i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(shared.isConnected());
+
+            // only seen if the new session read the child again, which also set its data watch
+            zoo.setData(path + "/a", registration(1002), -1);
+            assertEquals("[1002]", ports(listener.next()).toString());
+        } finally {
+            shared.release();
+        }
+    }
+
+    /**
+     * Closes the session of {@code zooKeeper} from another client, which is reported to it as an
+     * expiration.
+     */
+    private static void expire(ZooKeeper zooKeeper) throws Exception {
+        final CountDownLatch connected = new CountDownLatch(1);
+        ZooKeeper twin = new ZooKeeper(zkUri.getAuthority(), 2000, new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getState() == Event.KeeperState.SyncConnected) {
+                    connected.countDown();
+                }
+            }
+        }, zooKeeper.getSessionId(), zooKeeper.getSessionPasswd());
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+        twin.close();
+    }
+
+    @Test
+    public void burstOfNewHostsResultsInASingleUpdate() throws Exception {
+        RecordingListener listener = start(ZKNameResolverOptions.newBuilder()
+                .setCoalescingWindow(500, TimeUnit.MILLISECONDS)
+                .setMaxUpdateDelay(5, TimeUnit.SECONDS)
+                .build());
+        final CountDownLatch created = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            zoo.create(path + "/host-" + i, registration(2000 + i), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.EPHEMERAL, new AsyncCallback.StringCallback() {
+                        @Override
+                        public void processResult(int rc, String path, Object ctx, String name) {
+                            created.countDown();
+                        }
+                    }, null);
+        }
+        assertTrue(created.await(10, TimeUnit.SECONDS));
+
+        assertEquals(20, listener.next().size());
+        listener.assertNoUpdate(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void steadyChangesAreStillPushedWithinTheMaxDelay() throws Exception {
+        long windowMillis = 300;
+        long maxDelayMillis = 1000;
+        RecordingListener listener = start(ZKNameResolverOptions.newBuilder()
+                .setCoalescingWindow(windowMillis, TimeUnit.MILLISECONDS)
+                .setMaxUpdateDelay(maxDelayMillis, TimeUnit.MILLISECONDS)
+                .build());
+        // a change every 100 ms keeps restarting the window for 4 seconds
+        long start = System.nanoTime();
+        for (int i = 0; i < 40; i++) {
+            register("host-" + i, 3000 + i);
+            Thread.sleep(100);
+        }
+        long end = System.nanoTime();
+
+        List<Long> times = new ArrayList<>();
+        for (Long time = listener.times.poll(5, TimeUnit.SECONDS); time != null;
+                time = listener.times.poll(1, TimeUnit.SECONDS)) {
+            times.add(time);
+        }
+        // pushed about once per max delay while the changes go on, and once after the last one
+        assertTrue("updates " + times.size(), times.size() >= 3 && times.size() <= 6);
+        long first = TimeUnit.NANOSECONDS.toMillis(times.get(0) - start);
+        assertTrue("first update after " + first + " ms", first >= maxDelayMillis - 100 && first < maxDelayMillis + 500);
+        for (int i = 1; i < times.size() && times.get(i) < end; i++) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(times.get(i) - times.get(i - 1));
+            assertTrue("update " + i + " after " + gap + " ms", gap < maxDelayMillis + windowMillis + 500);
+        }
+    }
+
+    @Test
+    public void snapshotIsServedByTheNextResolver() throws Exception {
+        File snapshotDirectory = Files.createTempDirectory("snapshots").toFile();
+        ZKNameResolverOptions options = ZKNameResolverOptions.newBuilder()
+                .setCoalescingWindow(0, TimeUnit.MILLISECONDS)
+                .setSnapshotDirectory(snapshotDirectory)
+                .build();
+        register("a", 1001);
+        assertEquals("[1001]", ports(start(options).next()).toString());
+        // written in the background, after the update
+        File snapshot = AddressSnapshot.file(snapshotDirectory, zkUri.getAuthority(), path);
+        for (int i = 0; i < 100 && !snapshot.exists(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(snapshot.exists());
+
+        RecordingListener listener = start(options);
+        // served from the snapshot before start returns
+        assertEquals("[1001]", ports(listener.updates.poll()).toString());
+    }
+
+    private static final class RecordingListener implements NameResolver.Listener {
+        final BlockingQueue<List<EquivalentAddressGroup>> updates = new LinkedBlockingQueue<>();
+
+        final BlockingQueue<Long> times = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onAddresses(List<EquivalentAddressGroup> servers, Attributes attributes) {
+            times.add(System.nanoTime());
+            updates.add(servers);
+        }
+
+        @Override
+        public void onError(Status error) {
+            throw new AssertionError(error);
+        }
+
+        List<EquivalentAddressGroup> next() throws InterruptedException {
+            List<EquivalentAddressGroup> update = updates.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no update", update);
+            return update;
+        }
+
+        void assertNoUpdate(long timeout, TimeUnit unit) throws InterruptedException {
+            assertNull(updates.poll(timeout, unit));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.grpc.client;
+
+import com.example.grpc.protocol.GreetBatchRequest;
+import com.example.grpc.protocol.GreetBatchResponse;
+import com.example.grpc.protocol.GreetRequest;
+import com.example.grpc.protocol.GreetResponse;
+import com.example.grpc.protocol.GreetServiceGrpc;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Coalesces concurrent {@code greet} calls into {@code greetBatch} calls, so that small requests
+ * share the HTTP/2 framing and headers of one call. A batch is sent as soon as it holds
+ * {@code maxBatchSize} requests, or once the first of its requests has waited for the linger
+ * time. Every batch is a single call on the channel, so the balancer of the channel picks one
+ * backend for all of its requests.
+ */
+public final class GreetBatcher {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    public static final long DEFAULT_LINGER_MICROS = 1000;
+
+    private final GreetServiceGrpc.GreetServiceFutureStub stub;
+
+    private final int maxBatchSize;
+
+    private final long lingerNanos;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("greet-batcher").build());
+
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private List<Pending> pending = new ArrayList<>();
+
+    // guarded by lock
+    private ScheduledFuture<?> lingerTimer;
+
+    // guarded by lock
+    private boolean shutdown;
+
+    public GreetBatcher(Channel channel) {
+        this(channel, DEFAULT_MAX_BATCH_SIZE, DEFAULT_LINGER_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    public GreetBatcher(Channel channel, int maxBatchSize, long linger, TimeUnit unit) {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        Preconditions.checkArgument(linger >= 0, "linger must not be negative");
+        this.stub = GreetServiceGrpc.newFutureStub(channel);
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = unit.toNanos(linger);
+    }
+
+    /**
+     * Returns the response of the request, or a failure with {@link Status#UNAVAILABLE} once the
+     * batcher is shut down.
+     */
+    public ListenableFuture<GreetResponse> greet(GreetRequest request) {
+        Pending call = new Pending(request);
+        List<Pending> batch = null;
+        synchronized (lock) {
+            if (shutdown) {
+                return Futures.immediateFailedFuture(
+                        Status.UNAVAILABLE.withDescription("batcher is shut down").asRuntimeException());
+            }
+            pending.add(call);
+            if (pending.size() >= maxBatchSize || lingerNanos == 0) {
+                batch = takeLocked();
+            } else if (lingerTimer == null) {
+                lingerTimer = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+        return call.response;
+    }
+
+    /**
+     * Blocking variant of {@link #greet}, with the exceptions of a blocking stub.
+     *
+     * @throws StatusRuntimeException if the batch failed
+     */
+    public GreetResponse greetBlocking(GreetRequest request) {
+        try {
+            return greet(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withDescription("interrupted").withCause(e).asRuntimeException();
+        } catch (ExecutionException e) {
+            throw Status.fromThrowable(e.getCause()).asRuntimeException();
+        }
+    }
+
+    /**
+     * Sends the waiting requests right away.
+     */
+    public void flush() {
+        List<Pending> batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takeLocked();
+        }
+        send(batch);
+    }
+
+    /**
+     * Sends the waiting requests and stops the linger timer; the channel is left open. Later
+     * requests are rejected.
+     */
+    public void shutdown() {
+        List<Pending> batch;
+        synchronized (lock) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            batch = takeLocked();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+        timer.shutdown();
+    }
+
+    private List<Pending> takeLocked() {
+        List<Pending> batch = pending;
+        pending = new ArrayList<>(Math.min(maxBatchSize, batch.size() * 2));
+        if (lingerTimer != null) {
+            lingerTimer.cancel(false);
+            lingerTimer = null;
+        }
+        return batch;
+    }
+
+    private void send(final List<Pending> batch) {
+        GreetBatchRequest.Builder request = GreetBatchRequest.newBuilder();
+        for (Pending call : batch) {
+            request.addRequests(call.request);
+        }
+        Futures.addCallback(stub.greetBatch(request.build()), new FutureCallback<GreetBatchResponse>() {
+            @Override
+            public void onSuccess(GreetBatchResponse result) {
+                if (result.getResponsesCount() != batch.size()) {
+                    onFailure(Status.INTERNAL
+                            .withDescription("expected " + batch.size() + " responses, got " + result.getResponsesCount())
+                            .asRuntimeException());
+                    return;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).response.set(result.getResponses(i));
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // the requests shared one call, they share its failure
+                for (Pending call : batch) {
+                    call.response.setException(t);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static final class Pending {
+        final GreetRequest request;
+        final SettableFuture<GreetResponse> response = SettableFuture.create();
+
+        Pending(GreetRequest request) {
+            this.request = request;
+        }
+    }
+}
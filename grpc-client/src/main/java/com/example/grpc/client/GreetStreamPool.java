@@ -0,0 +1,280 @@
+package com.example.grpc.client;
+
+import com.example.grpc.protocol.GreetRequest;
+import com.example.grpc.protocol.GreetResponse;
+import com.example.grpc.protocol.GreetServiceGrpc;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Sends {@code greet} requests over a fixed number of long-lived {@code greetStream} calls, so that
+ * a small request costs one message instead of a whole call. The balancer of the channel picks a
+ * backend once per stream and the stream stays pinned to it; with enough streams the weighted
+ * policies spread them over the backends in proportion to their weights, and requests are spread
+ * evenly over the streams.
+ * <p>
+ * A pinned stream does not notice when the weights or the backends change, so the streams are
+ * recycled one at a time: every {@code maxStreamAge / streams} the oldest one is replaced by a new
+ * stream, picked with the current picker, and half-closed once its responses are in. A stream that
+ * fails is replaced by the next request that lands on its slot, and {@link #rebalance()} recycles
+ * all of them at once when the caller knows the backends changed.
+ */
+public final class GreetStreamPool {
+
+    public static final int DEFAULT_STREAMS = 16;
+
+    public static final long DEFAULT_MAX_STREAM_AGE_SECONDS = 30;
+
+    private final GreetServiceGrpc.GreetServiceStub stub;
+
+    // replaced under lock, read without it
+    private final AtomicReferenceArray<PinnedStream> streams;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("greet-stream-pool").build());
+
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private boolean shutdown;
+
+    public GreetStreamPool(Channel channel) {
+        this(channel, DEFAULT_STREAMS, DEFAULT_MAX_STREAM_AGE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param maxStreamAge how long a stream stays pinned to its backend, 0 to never recycle them
+     */
+    public GreetStreamPool(Channel channel, int streams, long maxStreamAge, TimeUnit unit) {
+        Preconditions.checkArgument(streams > 0, "streams must be positive");
+        Preconditions.checkArgument(maxStreamAge >= 0, "maxStreamAge must not be negative");
+        this.stub = GreetServiceGrpc.newStub(channel);
+        this.streams = new AtomicReferenceArray<>(streams);
+        for (int i = 0; i < streams; i++) {
+            this.streams.set(i, new PinnedStream());
+        }
+        long recycleNanos = unit.toNanos(maxStreamAge) / streams;
+        if (recycleNanos > 0) {
+            timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    recycleOldest();
+                }
+            }, recycleNanos, recycleNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public ListenableFuture<GreetResponse> greet(GreetRequest request) {
+        int start = next.getAndIncrement();
+        // prefer a stream that can take the message without buffering it
+        for (int i = 0; i < streams.length(); i++) {
+            int slot = Math.floorMod(start + i, streams.length());
+            ListenableFuture<GreetResponse> response = streamAt(slot).sendIfReady(request);
+            if (response != null) {
+                return response;
+            }
+        }
+        int slot = Math.floorMod(start, streams.length());
+        while (true) {
+            ListenableFuture<GreetResponse> response = streamAt(slot).send(request);
+            if (response != null) {
+                return response;
+            }
+            // closed in the meantime, streamAt reopens the slot
+        }
+    }
+
+    /**
+     * Blocking variant of {@link #greet}, with the exceptions of a blocking stub.
+     *
+     * @throws StatusRuntimeException if the stream of the request failed
+     */
+    public GreetResponse greetBlocking(GreetRequest request) {
+        try {
+            return greet(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withDescription("interrupted").withCause(e).asRuntimeException();
+        } catch (ExecutionException e) {
+            throw Status.fromThrowable(e.getCause()).asRuntimeException();
+        }
+    }
+
+    /**
+     * Replaces every stream by a new one, picked with the current picker of the channel. The old
+     * streams are half-closed and finish the requests already sent on them.
+     */
+    public void rebalance() {
+        synchronized (lock) {
+            if (shutdown) {
+                return;
+            }
+            for (int i = 0; i < streams.length(); i++) {
+                replaceLocked(i);
+            }
+        }
+    }
+
+    /**
+     * Half-closes every stream, letting the requests already sent complete; the channel is left
+     * open.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            for (int i = 0; i < streams.length(); i++) {
+                streams.get(i).drain();
+            }
+        }
+        timer.shutdown();
+    }
+
+    private PinnedStream streamAt(int slot) {
+        PinnedStream stream = streams.get(slot);
+        if (!stream.isClosed()) {
+            return stream;
+        }
+        synchronized (lock) {
+            stream = streams.get(slot);
+            if (stream.isClosed()) {
+                if (shutdown) {
+                    throw Status.UNAVAILABLE.withDescription("stream pool is shut down").asRuntimeException();
+                }
+                stream = new PinnedStream();
+                streams.set(slot, stream);
+            }
+            return stream;
+        }
+    }
+
+    private void recycleOldest() {
+        synchronized (lock) {
+            if (shutdown) {
+                return;
+            }
+            int oldest = 0;
+            for (int i = 1; i < streams.length(); i++) {
+                if (streams.get(i).openedNanos - streams.get(oldest).openedNanos < 0) {
+                    oldest = i;
+                }
+            }
+            replaceLocked(oldest);
+        }
+    }
+
+    private void replaceLocked(int slot) {
+        // open the new stream first, so the slot never waits for a pick
+        PinnedStream old = streams.getAndSet(slot, new PinnedStream());
+        old.drain();
+    }
+
+    /**
+     * One {@code greetStream} call. The server answers in order, so the responses are matched
+     * with the requests by a queue.
+     */
+    private final class PinnedStream implements StreamObserver<GreetResponse> {
+        final long openedNanos = System.nanoTime();
+
+        final ClientCallStreamObserver<GreetRequest> requestStream;
+
+        // guarded by this
+        private final Queue<SettableFuture<GreetResponse>> pending = new ArrayDeque<>();
+
+        // guarded by this, no more requests once set
+        private boolean closed;
+
+        PinnedStream() {
+            this.requestStream = (ClientCallStreamObserver<GreetRequest>) stub.greetStream(this);
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Returns {@code null} if the stream is closed or would have to buffer the request.
+         */
+        ListenableFuture<GreetResponse> sendIfReady(GreetRequest request) {
+            if (!requestStream.isReady()) {
+                return null;
+            }
+            return send(request);
+        }
+
+        /**
+         * Returns {@code null} if the stream is closed.
+         */
+        synchronized ListenableFuture<GreetResponse> send(GreetRequest request) {
+            if (closed) {
+                return null;
+            }
+            SettableFuture<GreetResponse> response = SettableFuture.create();
+            pending.add(response);
+            requestStream.onNext(request);
+            return response;
+        }
+
+        synchronized void drain() {
+            if (!closed) {
+                closed = true;
+                requestStream.onCompleted();
+            }
+        }
+
+        @Override
+        public void onNext(GreetResponse value) {
+            SettableFuture<GreetResponse> response;
+            synchronized (this) {
+                response = pending.poll();
+            }
+            if (response != null) {
+                response.set(value);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            fail(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            fail(Status.INTERNAL.withDescription("stream completed before answering every request")
+                    .asRuntimeException());
+        }
+
+        private void fail(Throwable t) {
+            Queue<SettableFuture<GreetResponse>> failed;
+            synchronized (this) {
+                closed = true;
+                failed = new ArrayDeque<>(pending);
+                pending.clear();
+            }
+            for (SettableFuture<GreetResponse> response : failed) {
+                response.setException(t);
+            }
+        }
+    }
+}
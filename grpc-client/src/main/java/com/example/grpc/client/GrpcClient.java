@@ -60,8 +60,14 @@ public class GrpcClient {
 
     public static void main(String[] args) throws InterruptedException {
         //args = new String[]{"zk://10.30.61.45:2181"};
+        if (args.length > 1) {
+            // any option turns the client into a load generator
+            LoadGenerator.main(args);
+            return;
+        }
         if (args.length != 1) {
             System.out.println("Usage: grpc_client zk://ADDR:PORT");
+            System.out.println(LoadGenerator.USAGE);
             return;
         }
         GrpcClient client = new GrpcClient(args[0]);
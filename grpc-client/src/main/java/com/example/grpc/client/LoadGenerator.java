@@ -0,0 +1,420 @@
+package com.example.grpc.client;
+
+import com.example.grpc.common.lb.GrpcLbAttributes;
+import com.example.grpc.common.lb.LatencyAwareLoadBalanceProvider;
+import com.example.grpc.common.lb.LatencyHistogram;
+import com.example.grpc.common.lb.LeastRequestLoadBalanceProvider;
+import com.example.grpc.common.lb.LoadBalancerOptions;
+import com.example.grpc.common.lb.LoadReportLoadBalanceProvider;
+import com.example.grpc.common.lb.LocalityAwareLoadBalanceProvider;
+import com.example.grpc.common.lb.RingHashLoadBalanceProvider;
+import com.example.grpc.common.lb.WeightedRoundRobinLoadBalanceProvider;
+import com.example.grpc.common.zk.ZKNameResolverProvider;
+import com.example.grpc.protocol.GreetRequest;
+import com.example.grpc.protocol.GreetResponse;
+import com.example.grpc.protocol.GreetServiceGrpc;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Grpc;
+import io.grpc.LoadBalancerRegistry;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.stub.AbstractStub;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Drives greetings through the balancer and reports the throughput, the latency distribution and
+ * the share of the calls every backend served, to check that the traffic follows the
+ * {@code lb_weight} of the servers under load.
+ *
+ * <p>In the closed-loop mode a fixed number of calls is kept in flight, a new one starting when
+ * one completes. In the open-loop mode calls start at a constant rate whatever the latency, up to
+ * {@code --max-in-flight}; a call that would exceed it is shed and counted, and the latency is
+ * measured from the time the call was due, so a stalled backend does not hide its own queueing.
+ * The calls are made with the async stub, with the blocking stub on platform threads, or with the
+ * blocking stub on virtual threads (JDK 21 and later).
+ */
+public final class LoadGenerator {
+
+    enum Mode {
+        CLOSED, OPEN
+    }
+
+    enum Stub {
+        ASYNC, BLOCKING, VIRTUAL
+    }
+
+    private static final GreetRequest REQUEST = GreetRequest.newBuilder().setName("load").build();
+
+    private final Options options;
+
+    private final GreetServiceGrpc.GreetServiceFutureStub futureStub;
+
+    private final GreetServiceGrpc.GreetServiceBlockingStub blockingStub;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder shed = new LongAdder();
+
+    private final Map<Status.Code, LongAdder> failures = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> backends = new ConcurrentHashMap<>();
+
+    private final Semaphore inFlight;
+
+    private volatile boolean recording;
+
+    private volatile boolean stopped;
+
+    LoadGenerator(Channel channel, Options options) {
+        this.options = options;
+        Channel tracked = ClientInterceptors.intercept(channel, new BackendInterceptor());
+        this.futureStub = GreetServiceGrpc.newFutureStub(tracked);
+        this.blockingStub = GreetServiceGrpc.newBlockingStub(tracked);
+        this.inFlight = new Semaphore(options.mode == Mode.OPEN ? options.maxInFlight : options.concurrency);
+    }
+
+    void run() throws InterruptedException {
+        ExecutorService executor = newExecutor();
+        long warmupEnd = System.nanoTime() + options.warmupNanos;
+        long end = warmupEnd + options.durationNanos;
+        Thread switcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sleepUntil(warmupEnd);
+                recording = true;
+                sleepUntil(end);
+                stopped = true;
+            }
+        }, "load-timer");
+        switcher.setDaemon(true);
+        switcher.start();
+
+        if (options.mode == Mode.CLOSED) {
+            for (int i = 0; i < options.concurrency; i++) {
+                inFlight.acquire();
+                start(executor, System.nanoTime(), true);
+            }
+        } else {
+            long period = TimeUnit.SECONDS.toNanos(1) / options.rate;
+            long due = System.nanoTime();
+            while (!stopped) {
+                long now = System.nanoTime();
+                // catch up with the calls that became due while parked
+                while (due <= now && !stopped) {
+                    if (inFlight.tryAcquire()) {
+                        start(executor, due, false);
+                    } else if (recording) {
+                        shed.increment();
+                    }
+                    due += period;
+                }
+                LockSupport.parkNanos(due - System.nanoTime());
+            }
+        }
+        switcher.join();
+        // let the calls in flight complete so they are part of the report
+        if (!inFlight.tryAcquire(permits(), 30, TimeUnit.SECONDS)) {
+            System.err.println("calls still in flight after 30s");
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private int permits() {
+        return options.mode == Mode.OPEN ? options.maxInFlight : options.concurrency;
+    }
+
+    private ExecutorService newExecutor() {
+        if (options.stub == Stub.ASYNC) {
+            return null;
+        }
+        if (options.stub == Stub.BLOCKING) {
+            return Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("load-%d").build());
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("virtual threads need JDK 21 or later", e);
+        }
+    }
+
+    /**
+     * Starts one call holding a permit of {@link #inFlight}. In the closed loop its completion
+     * starts the next call, otherwise it gives the permit back.
+     */
+    private void start(final ExecutorService executor, final long dueNanos, final boolean loop) {
+        final boolean recorded = recording;
+        if (executor == null) {
+            Futures.addCallback(withDeadline(futureStub).greet(REQUEST), new FutureCallback<GreetResponse>() {
+                @Override
+                public void onSuccess(GreetResponse result) {
+                    complete(executor, dueNanos, loop, recorded, Status.OK);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    complete(executor, dueNanos, loop, recorded, Status.fromThrowable(t));
+                }
+            }, MoreExecutors.directExecutor());
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long due = dueNanos;
+                boolean rec = recorded;
+                do {
+                    Status status = Status.OK;
+                    try {
+                        withDeadline(blockingStub).greet(REQUEST);
+                    } catch (RuntimeException e) {
+                        status = Status.fromThrowable(e);
+                    }
+                    record(due, rec, status);
+                    due = System.nanoTime();
+                    rec = recording;
+                } while (loop && !stopped);
+                inFlight.release();
+            }
+        });
+    }
+
+    private void complete(ExecutorService executor, long dueNanos, boolean loop, boolean recorded, Status status) {
+        record(dueNanos, recorded, status);
+        if (loop && !stopped) {
+            start(executor, System.nanoTime(), true);
+        } else {
+            inFlight.release();
+        }
+    }
+
+    private <S extends AbstractStub<S>> S withDeadline(S stub) {
+        return options.deadlineMillis > 0 ? stub.withDeadlineAfter(options.deadlineMillis, TimeUnit.MILLISECONDS) : stub;
+    }
+
+    private void record(long dueNanos, boolean recorded, Status status) {
+        if (!recorded) {
+            return;
+        }
+        latency.record(System.nanoTime() - dueNanos);
+        if (!status.isOk()) {
+            failed.increment();
+            counter(failures, status.getCode()).increment();
+        }
+    }
+
+    private static <K> LongAdder counter(Map<K, LongAdder> counters, K key) {
+        LongAdder counter = counters.get(key);
+        if (counter == null) {
+            LongAdder created = new LongAdder();
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    private static void sleepUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    String report() {
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        double seconds = options.durationNanos / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "mode=%s stub=%s policy=%s %s, %.0fs after %.0fs of warmup%n",
+                options.mode.name().toLowerCase(Locale.ROOT), options.stub.name().toLowerCase(Locale.ROOT),
+                options.policy,
+                options.mode == Mode.CLOSED ? "concurrency=" + options.concurrency
+                        : "rate=" + options.rate + "/s max-in-flight=" + options.maxInFlight,
+                seconds, options.warmupNanos / 1e9));
+        sb.append(String.format(Locale.ROOT, "calls %d, %.1f/s, failed %d %s, shed %d%n",
+                snapshot.getCount(), snapshot.getCount() / seconds, failed.sum(), new TreeMap<>(failures),
+                shed.sum()));
+        sb.append("latency (us)\n");
+        for (double percentile : new double[]{50, 75, 90, 95, 99, 99.9, 99.99, 100}) {
+            sb.append(String.format(Locale.ROOT, "  p%-6s %10d%n", new DecimalFormat("0.##", DecimalFormatSymbols.getInstance(Locale.ROOT)).format(percentile),
+                    TimeUnit.NANOSECONDS.toMicros(snapshot.getValueAtPercentile(percentile))));
+        }
+        sb.append(String.format(Locale.ROOT, "  mean    %10.0f%n", snapshot.getMean() / 1000));
+        long served = 0;
+        for (LongAdder count : backends.values()) {
+            served += count.sum();
+        }
+        sb.append("backends\n");
+        for (Map.Entry<String, LongAdder> backend : new TreeMap<>(backends).entrySet()) {
+            long count = backend.getValue().sum();
+            sb.append(String.format(Locale.ROOT, "  %-24s %10d %6.2f%%%n",
+                    backend.getKey(), count, served == 0 ? 0 : count * 100.0 / served));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Counts the calls that reached each backend, by the remote address of the transport.
+     */
+    private final class BackendInterceptor implements ClientInterceptor {
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+                MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+            final ClientCall<ReqT, RespT> call = next.newCall(method, callOptions);
+            final boolean recorded = recording;
+            return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(call) {
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+                        @Override
+                        public void onHeaders(Metadata headers) {
+                            if (recorded) {
+                                SocketAddress address = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+                                counter(backends, address instanceof InetSocketAddress
+                                        ? ((InetSocketAddress) address).getHostString() + ":" + ((InetSocketAddress) address).getPort()
+                                        : String.valueOf(address)).increment();
+                            }
+                            super.onHeaders(headers);
+                        }
+                    }, headers);
+                }
+            };
+        }
+    }
+
+    static final class Options {
+        String target;
+        String policy = GrpcLbAttributes.WEIGHT_ROUND_ROBIN;
+        Mode mode = Mode.CLOSED;
+        Stub stub = Stub.ASYNC;
+        int concurrency = 64;
+        int rate = 1000;
+        int maxInFlight = 1000;
+        long durationNanos = TimeUnit.SECONDS.toNanos(30);
+        long warmupNanos = TimeUnit.SECONDS.toNanos(5);
+        long deadlineMillis = 5000;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            options.target = args[0];
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                Preconditions.checkArgument(arg.startsWith("--") && i + 1 < args.length, "missing value of %s", arg);
+                String value = args[++i];
+                switch (arg) {
+                    case "--policy":
+                        options.policy = value;
+                        break;
+                    case "--mode":
+                        options.mode = Mode.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "--stub":
+                        options.stub = Stub.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "--concurrency":
+                        options.concurrency = positive(arg, value);
+                        break;
+                    case "--rate":
+                        options.rate = positive(arg, value);
+                        break;
+                    case "--max-in-flight":
+                        options.maxInFlight = positive(arg, value);
+                        break;
+                    case "--duration":
+                        options.durationNanos = TimeUnit.SECONDS.toNanos(positive(arg, value));
+                        break;
+                    case "--warmup":
+                        options.warmupNanos = TimeUnit.SECONDS.toNanos(Integer.parseInt(value));
+                        break;
+                    case "--deadline-ms":
+                        options.deadlineMillis = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + arg);
+                }
+            }
+            return options;
+        }
+
+        private static int positive(String name, String value) {
+            int n = Integer.parseInt(value);
+            Preconditions.checkArgument(n > 0, "%s must be positive", name);
+            return n;
+        }
+    }
+
+    static void registerPolicies() {
+        LoadBalancerRegistry registry = LoadBalancerRegistry.getDefaultRegistry();
+        registry.register(new WeightedRoundRobinLoadBalanceProvider());
+        registry.register(new LatencyAwareLoadBalanceProvider());
+        registry.register(new LeastRequestLoadBalanceProvider());
+        registry.register(new LeastRequestLoadBalanceProvider(
+                LeastRequestLoadBalanceProvider.Mode.WEIGHTED_LEAST_REQUEST, LoadBalancerOptions.DEFAULT));
+        registry.register(new RingHashLoadBalanceProvider());
+        registry.register(new LoadReportLoadBalanceProvider());
+        registry.register(new LocalityAwareLoadBalanceProvider());
+    }
+
+    static final String USAGE = "Usage: grpc_client zk://ADDR:PORT [--policy NAME] [--mode closed|open]"
+            + " [--stub async|blocking|virtual] [--concurrency N] [--rate CALLS_PER_S] [--max-in-flight N]"
+            + " [--duration S] [--warmup S] [--deadline-ms MS]";
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            return;
+        }
+        registerPolicies();
+        ManagedChannel channel = ManagedChannelBuilder
+                .forTarget(options.target)
+                .defaultLoadBalancingPolicy(options.policy)
+                .nameResolverFactory(new ZKNameResolverProvider())
+                .usePlaintext()
+                .build();
+        try {
+            LoadGenerator generator = new LoadGenerator(channel, options);
+            generator.run();
+            System.out.print(generator.report());
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.grpc.client;
+
+import com.example.grpc.protocol.GreetBatchRequest;
+import com.example.grpc.protocol.GreetBatchResponse;
+import com.example.grpc.protocol.GreetRequest;
+import com.example.grpc.protocol.GreetResponse;
+import com.example.grpc.protocol.GreetServiceGrpc;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class GreetBatcherTest {
+
+    // size of every batch the server received
+    private final List<Integer> batches = new CopyOnWriteArrayList<>();
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    private GreetBatcher batcher;
+
+    @Before
+    public void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(new GreetServiceGrpc.GreetServiceImplBase() {
+                    @Override
+                    public void greetBatch(GreetBatchRequest request, StreamObserver<GreetBatchResponse> responseObserver) {
+                        batches.add(request.getRequestsCount());
+                        GreetBatchResponse.Builder response = GreetBatchResponse.newBuilder();
+                        for (GreetRequest greetRequest : request.getRequestsList()) {
+                            if (greetRequest.getName().equals("fail")) {
+                                responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                                return;
+                            }
+                            response.addResponses(GreetResponse.newBuilder()
+                                    .setGreeting("Hello, " + greetRequest.getName()));
+                        }
+                        responseObserver.onNext(response.build());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @After
+    public void tearDown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    private static GreetRequest request(String name) {
+        return GreetRequest.newBuilder().setName(name).build();
+    }
+
+    private List<ListenableFuture<GreetResponse>> greet(String... names) {
+        List<ListenableFuture<GreetResponse>> responses = new ArrayList<>();
+        for (String name : names) {
+            responses.add(batcher.greet(request(name)));
+        }
+        return responses;
+    }
+
+    private static Status.Code failure(ListenableFuture<GreetResponse> response) throws Exception {
+        try {
+            response.get(10, TimeUnit.SECONDS);
+            fail("no failure");
+            return null;
+        } catch (ExecutionException e) {
+            return Status.fromThrowable(e.getCause()).getCode();
+        }
+    }
+
+    @Test
+    public void fullBatchIsSentAndAnsweredInOrder() throws Exception {
+        batcher = new GreetBatcher(channel, 4, 1, TimeUnit.HOURS);
+        List<ListenableFuture<GreetResponse>> responses = greet("a", "b", "c", "d");
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals("Hello, " + (char) ('a' + i), responses.get(i).get(10, TimeUnit.SECONDS).getGreeting());
+        }
+        assertEquals("[4]", batches.toString());
+    }
+
+    @Test
+    public void partialBatchIsSentAfterTheLinger() throws Exception {
+        batcher = new GreetBatcher(channel, 64, 10, TimeUnit.MILLISECONDS);
+        List<ListenableFuture<GreetResponse>> responses = greet("a", "b");
+        assertEquals("Hello, b", responses.get(1).get(10, TimeUnit.SECONDS).getGreeting());
+        assertEquals("Hello, a", responses.get(0).get().getGreeting());
+        assertEquals("[2]", batches.toString());
+    }
+
+    @Test
+    public void failedBatchFailsEveryCaller() throws Exception {
+        batcher = new GreetBatcher(channel, 3, 1, TimeUnit.HOURS);
+        for (ListenableFuture<GreetResponse> response : greet("a", "fail", "b")) {
+            assertEquals(Status.Code.UNAVAILABLE, failure(response));
+        }
+        // the next batch is not affected
+        List<ListenableFuture<GreetResponse>> responses = greet("c", "d", "e");
+        assertEquals("Hello, e", responses.get(2).get(10, TimeUnit.SECONDS).getGreeting());
+        assertEquals("[3, 3]", batches.toString());
+    }
+
+    @Test
+    public void shutdownSendsTheWaitingRequestsAndRejectsLaterOnes() throws Exception {
+        batcher = new GreetBatcher(channel, 64, 1, TimeUnit.HOURS);
+        ListenableFuture<GreetResponse> waiting = batcher.greet(request("a"));
+        batcher.shutdown();
+        assertEquals("Hello, a", waiting.get(10, TimeUnit.SECONDS).getGreeting());
+
+        assertEquals(Status.Code.UNAVAILABLE, failure(batcher.greet(request("b"))));
+        try {
+            batcher.greetBlocking(request("c"));
+            fail();
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        }
+        assertEquals("[1]", batches.toString());
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.grpc.client;
+
+import com.example.grpc.protocol.GreetRequest;
+import com.example.grpc.protocol.GreetResponse;
+import com.example.grpc.protocol.GreetServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class GreetStreamPoolTest {
+
+    // streams opened on the server
+    private final AtomicInteger streams = new AtomicInteger();
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    private GreetStreamPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(new GreetServiceGrpc.GreetServiceImplBase() {
+                    @Override
+                    public StreamObserver<GreetRequest> greetStream(final StreamObserver<GreetResponse> responseObserver) {
+                        streams.incrementAndGet();
+                        return new StreamObserver<GreetRequest>() {
+                            @Override
+                            public void onNext(GreetRequest request) {
+                                if (request.getName().equals("fail")) {
+                                    responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                                } else {
+                                    responseObserver.onNext(GreetResponse.newBuilder()
+                                            .setGreeting("Hello, " + request.getName()).build());
+                                }
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                            }
+
+                            @Override
+                            public void onCompleted() {
+                                responseObserver.onCompleted();
+                            }
+                        };
+                    }
+                })
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        pool = new GreetStreamPool(channel, 1, 0, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    private static GreetRequest request(String name) {
+        return GreetRequest.newBuilder().setName(name).build();
+    }
+
+    @Test
+    public void failedStreamIsReopenedByTheNextRequest() throws Exception {
+        assertEquals("Hello, a", pool.greetBlocking(request("a")).getGreeting());
+        assertEquals("Hello, b", pool.greetBlocking(request("b")).getGreeting());
+        assertEquals(1, streams.get());
+
+        try {
+            pool.greetBlocking(request("fail"));
+            fail();
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        }
+
+        assertEquals("Hello, c", pool.greetBlocking(request("c")).getGreeting());
+        assertEquals(2, streams.get());
+    }
+
+    @Test
+    public void requestsAfterShutdownAreRejected() {
+        pool.shutdown();
+        try {
+            pool.greetBlocking(request("a"));
+            fail();
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.grpc.client;
+
+import com.example.grpc.protocol.GreetRequest;
+import com.example.grpc.protocol.GreetResponse;
+import com.example.grpc.protocol.GreetServiceGrpc;
+import com.example.grpc.server.GreetServiceImpl;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Greetings per second through a real server over loopback, one unary call per greeting versus
+ * greetings coalesced by {@link GreetBatcher} or sent as messages of the long-lived streams of a
+ * {@link GreetStreamPool}. Every invocation keeps {@value #CALLS} greetings in flight and waits for
+ * all of them, the score is per greeting.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchingBenchmark {
+
+    private static final int CALLS = 256;
+
+    private static final GreetRequest REQUEST = GreetRequest.newBuilder().setName("Jack").build();
+
+    @Param({"unary", "batched", "streamed"})
+    public String mode;
+
+    /**
+     * Largest batch in {@code batched} mode, number of streams in {@code streamed} mode.
+     */
+    @Param({"16", "64"})
+    public int maxBatchSize;
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    private GreetServiceGrpc.GreetServiceFutureStub stub;
+
+    private GreetBatcher batcher;
+
+    private GreetStreamPool streams;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = ServerBuilder.forPort(0).addService(new GreetServiceImpl()).build().start();
+        channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        stub = GreetServiceGrpc.newFutureStub(channel);
+        batcher = new GreetBatcher(channel, maxBatchSize, GreetBatcher.DEFAULT_LINGER_MICROS, TimeUnit.MICROSECONDS);
+        streams = new GreetStreamPool(channel, maxBatchSize, 0, TimeUnit.SECONDS);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        batcher.shutdown();
+        streams.shutdown();
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public List<GreetResponse> greet() throws Exception {
+        List<ListenableFuture<GreetResponse>> responses = new ArrayList<>(CALLS);
+        for (int i = 0; i < CALLS; i++) {
+            responses.add(send());
+        }
+        return Futures.allAsList(responses).get();
+    }
+
+    private ListenableFuture<GreetResponse> send() {
+        if ("batched".equals(mode)) {
+            return batcher.greet(REQUEST);
+        } else if ("streamed".equals(mode)) {
+            return streams.greet(REQUEST);
+        }
+        return stub.greet(REQUEST);
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.Attributes;
+import io.grpc.ConnectivityState;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.Metadata;
+import io.grpc.internal.GrpcAttributes;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A {@link WeightedRoundRobinLoadBalancer} wired to a {@link FakeHelper}, with every backend
+ * READY. The backends carry the same attributes {@code ZKNameResolver} attaches.
+ */
+final class BalancerFixture {
+
+    static final String STICKINESS_KEY = "session";
+
+    static final Metadata.Key<String> STICKINESS_HEADER =
+            Metadata.Key.of(STICKINESS_KEY, Metadata.ASCII_STRING_MARSHALLER);
+
+    final FakeHelper helper = new FakeHelper();
+
+    final WeightedRoundRobinLoadBalancer balancer;
+
+    BalancerFixture(int backends, String skew, boolean sticky) {
+        this(backends, skew, sticky, LoadBalancerOptions.DEFAULT);
+    }
+
+    BalancerFixture(int backends, String skew, boolean sticky, LoadBalancerOptions options) {
+        this(backends, skew, sticky, options,
+                new WeightedSelector.Factory(SlowStartWeights.wrap(WeightCalculator.STATIC, options)));
+    }
+
+    BalancerFixture(int backends, String skew, SubchannelSelector.Factory selectorFactory) {
+        this(backends, skew, false, LoadBalancerOptions.DEFAULT, selectorFactory);
+    }
+
+    private BalancerFixture(int backends, String skew, boolean sticky, LoadBalancerOptions options,
+                            SubchannelSelector.Factory selectorFactory) {
+        balancer = new WeightedRoundRobinLoadBalancer(helper, options, selectorFactory);
+        Attributes attributes = Attributes.EMPTY;
+        if (sticky) {
+            attributes = Attributes.newBuilder()
+                    .set(GrpcAttributes.NAME_RESOLVER_SERVICE_CONFIG,
+                            Collections.singletonMap("stickinessMetadataKey", STICKINESS_KEY))
+                    .build();
+        }
+        balancer.handleResolvedAddresses(LoadBalancer.ResolvedAddresses.newBuilder()
+                .setAddresses(addressGroups(backends, skew))
+                .setAttributes(attributes)
+                .build());
+        for (FakeSubchannel subchannel : helper.subchannels) {
+            subchannel.updateState(ConnectivityState.READY);
+        }
+    }
+
+    LoadBalancer.SubchannelPicker picker() {
+        return helper.picker;
+    }
+
+    List<LoadBalancer.Subchannel> subchannels() {
+        return new ArrayList<LoadBalancer.Subchannel>(helper.subchannels);
+    }
+
+    /**
+     * Weight of backend {@code i}: {@code uniform} gives every backend 1, {@code linear} cycles
+     * through 1..10 and {@code hot} makes the first backend 100 times heavier than the others.
+     */
+    static int weight(int i, String skew) {
+        if ("uniform".equals(skew)) {
+            return 1;
+        } else if ("linear".equals(skew)) {
+            return i % 10 + 1;
+        } else if ("hot".equals(skew)) {
+            return i == 0 ? 100 : 1;
+        }
+        throw new IllegalArgumentException("unknown skew " + skew);
+    }
+
+    /**
+     * Zone of backend {@code i}, the backends are spread over three zones.
+     */
+    static String zone(int i) {
+        return "zone-" + i % 3;
+    }
+
+    static List<EquivalentAddressGroup> addressGroups(int backends, String skew) {
+        List<EquivalentAddressGroup> groups = new ArrayList<>(backends);
+        for (int i = 0; i < backends; i++) {
+            String host = String.format("10.0.%d.%d", i / 250, i % 250 + 1);
+            int port = 50051;
+            int weight = weight(i, skew);
+            Attributes attrs = Attributes.newBuilder()
+                    .set(GrpcLbAttributes.HOST_INFO,
+                            HostInfo.newBuilder().setHost(host).setPort(port).setWeight(weight)
+                                    .setZone(zone(i)).build())
+                    .build();
+            groups.add(new EquivalentAddressGroup(new InetSocketAddress(host, port), attrs));
+        }
+        return groups;
+    }
+}
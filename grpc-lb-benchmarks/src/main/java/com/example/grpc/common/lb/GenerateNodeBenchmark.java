@@ -0,0 +1,45 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of turning the subchannel attributes into {@link Node}s, paid once per picker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerateNodeBenchmark {
+
+    @Param({"3", "50", "1000"})
+    public int backends;
+
+    private List<LoadBalancer.Subchannel> subchannels;
+
+    @Setup
+    public void setUp() {
+        subchannels = new BalancerFixture(backends, "linear", false).subchannels();
+    }
+
+    @Benchmark
+    public List<Node> generateNode() {
+        return GrpcLbAttributes.generateNode(subchannels);
+    }
+}
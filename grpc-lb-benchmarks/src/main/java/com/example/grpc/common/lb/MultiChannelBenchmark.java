@@ -0,0 +1,71 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer;
+import io.grpc.Metadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Aggregate pick throughput of 64 threads spread over a varying number of channels, each with
+ * its own balancer. Since channels share no state, throughput should grow with the channel count
+ * until every thread has a channel to itself.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class MultiChannelBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Channels {
+        @Param({"1", "4", "16", "64"})
+        public int channels;
+
+        @Param({"50"})
+        public int backends;
+
+        LoadBalancer.SubchannelPicker[] pickers;
+
+        @Setup
+        public void setUp() {
+            pickers = new LoadBalancer.SubchannelPicker[channels];
+            for (int i = 0; i < channels; i++) {
+                pickers[i] = new BalancerFixture(backends, "linear", false).picker();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        LoadBalancer.SubchannelPicker picker;
+
+        LoadBalancer.PickSubchannelArgs args;
+
+        @Setup
+        public void setUp(Channels channels, ThreadParams threadParams) {
+            picker = channels.pickers[threadParams.getThreadIndex() % channels.channels];
+            args = new FakePickSubchannelArgs(new Metadata());
+        }
+    }
+
+    @Benchmark
+    public LoadBalancer.PickResult pick(Caller caller) {
+        return caller.picker.pickSubchannel(caller.args);
+    }
+}
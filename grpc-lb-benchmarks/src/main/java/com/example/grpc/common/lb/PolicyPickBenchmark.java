@@ -0,0 +1,94 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.ClientStreamTracer;
+import io.grpc.LoadBalancer;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Pick cost of each selection policy. {@code pickAndComplete} also opens and closes the stream
+ * tracer, as a real call would, so that policies reading call statistics see moving counters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyPickBenchmark {
+
+    private static final ClientStreamTracer.StreamInfo STREAM_INFO =
+            ClientStreamTracer.StreamInfo.newBuilder().build();
+
+    @Param({"weighted_round_robin", "latency_aware_weighted", "p2c_least_request", "weighted_least_request",
+            "ring_hash", "load_report_weighted", "locality_weighted"})
+    public String policy;
+
+    @Param({"3", "50", "1000"})
+    public int backends;
+
+    private LoadBalancer.SubchannelPicker picker;
+
+    private LoadBalancer.PickSubchannelArgs args;
+
+    @Setup
+    public void setUp() {
+        picker = new BalancerFixture(backends, "linear", selectorFactory(policy)).picker();
+        // only read by ring_hash, the other policies ignore it
+        Metadata headers = new Metadata();
+        headers.put(Metadata.Key.of(RingHashLoadBalanceProvider.DEFAULT_HASH_HEADER, Metadata.ASCII_STRING_MARSHALLER),
+                "user-42");
+        args = new FakePickSubchannelArgs(headers);
+    }
+
+    static SubchannelSelector.Factory selectorFactory(String policy) {
+        if (GrpcLbAttributes.WEIGHT_ROUND_ROBIN.equals(policy)) {
+            return new WeightedSelector.Factory(WeightCalculator.STATIC);
+        } else if (GrpcLbAttributes.LATENCY_AWARE_WEIGHTED.equals(policy)) {
+            return new WeightedSelector.Factory(new LatencyAwareWeights());
+        } else if (GrpcLbAttributes.P2C_LEAST_REQUEST.equals(policy)) {
+            return new LeastRequestSelector.Factory(true);
+        } else if (GrpcLbAttributes.WEIGHTED_LEAST_REQUEST.equals(policy)) {
+            return new LeastRequestSelector.Factory(false);
+        } else if (GrpcLbAttributes.LOAD_REPORT_WEIGHTED.equals(policy)) {
+            return new WeightedSelector.Factory(new LoadReportWeights());
+        } else if (GrpcLbAttributes.RING_HASH.equals(policy)) {
+            return new RingHashSelector.Factory(RingHashLoadBalanceProvider.DEFAULT_HASH_HEADER);
+        } else if (GrpcLbAttributes.LOCALITY_WEIGHTED.equals(policy)) {
+            return new LocalitySelector.Factory(BalancerFixture.zone(0),
+                    LocalityAwareLoadBalanceProvider.DEFAULT_MIN_LOCAL_CAPACITY,
+                    new WeightedSelector.Factory(WeightCalculator.STATIC),
+                    new WeightedSelector.Factory(WeightCalculator.STATIC));
+        }
+        throw new IllegalArgumentException("unknown policy " + policy);
+    }
+
+    @Benchmark
+    public LoadBalancer.PickResult pick() {
+        return picker.pickSubchannel(args);
+    }
+
+    @Benchmark
+    public LoadBalancer.PickResult pickAndComplete() {
+        LoadBalancer.PickResult result = picker.pickSubchannel(args);
+        ClientStreamTracer.Factory tracerFactory = result.getStreamTracerFactory();
+        if (tracerFactory != null) {
+            tracerFactory.newClientStreamTracer(STREAM_INFO, new Metadata()).streamClosed(Status.OK);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.grpc.common.lb;
+
+import io.grpc.LoadBalancer;
+import io.grpc.Metadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * End to end cost of {@code ReadyPicker.pickSubchannel}, with and without a stickiness header.
+ * Run with {@code -t 1} ... {@code -t 64} and {@code -prof gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadyPickerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Channel {
+        @Param({"3", "50", "1000"})
+        public int backends;
+
+        @Param({"uniform", "linear", "hot"})
+        public String skew;
+
+        @Param({"false", "true"})
+        public boolean metrics;
+
+        /** Stickiness cache size per channel, below the number of live sessions it keeps evicting. */
+        @Param({"1000", "100000"})
+        public int cacheSize;
+
+        LoadBalancer.SubchannelPicker plainPicker;
+
+        LoadBalancer.SubchannelPicker stickyPicker;
+
+        @Setup
+        public void setUp() {
+            LoadBalancerOptions.Builder builder = LoadBalancerOptions.newBuilder().setStickinessCacheSize(cacheSize);
+            if (metrics) {
+                builder.setMetricsRecorder(new PickMetricsRecorder());
+            }
+            LoadBalancerOptions options = builder.build();
+            plainPicker = new BalancerFixture(backends, skew, false, options).picker();
+            stickyPicker = new BalancerFixture(backends, skew, true, options).picker();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Calls {
+        /** Distinct session values each thread cycles through. */
+        @Param({"1024"})
+        public int sessions;
+
+        LoadBalancer.PickSubchannelArgs noHeader;
+
+        LoadBalancer.PickSubchannelArgs[] sticky;
+
+        int next;
+
+        @Setup
+        public void setUp() {
+            noHeader = new FakePickSubchannelArgs(new Metadata());
+            sticky = new LoadBalancer.PickSubchannelArgs[sessions];
+            for (int i = 0; i < sessions; i++) {
+                Metadata headers = new Metadata();
+                headers.put(BalancerFixture.STICKINESS_HEADER, Thread.currentThread().getId() + "-" + i);
+                sticky[i] = new FakePickSubchannelArgs(headers);
+            }
+        }
+
+        LoadBalancer.PickSubchannelArgs nextSticky() {
+            LoadBalancer.PickSubchannelArgs args = sticky[next];
+            next = next + 1 == sticky.length ? 0 : next + 1;
+            return args;
+        }
+    }
+
+    @Benchmark
+    public LoadBalancer.PickResult pick(Channel channel, Calls calls) {
+        return channel.plainPicker.pickSubchannel(calls.noHeader);
+    }
+
+    @Benchmark
+    public LoadBalancer.PickResult pickStickyPolicyWithoutHeader(Channel channel, Calls calls) {
+        return channel.stickyPicker.pickSubchannel(calls.noHeader);
+    }
+
+    @Benchmark
+    public LoadBalancer.PickResult pickWithStickinessHeader(Channel channel, Calls calls) {
+        return channel.stickyPicker.pickSubchannel(calls.nextSticky());
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.grpc.common.lb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of {@link WeightedRoundRobin#select()} and of building a schedule. Run with {@code -t 1},
+ * {@code -t 8} ... {@code -t 64} for the contended numbers and {@code -prof gc} for allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeightedRoundRobinBenchmark {
+
+    @Param({"3", "50", "1000"})
+    public int backends;
+
+    @Param({"uniform", "linear", "hot"})
+    public String skew;
+
+    private List<Node> nodes;
+
+    private WeightedRoundRobin weightedRoundRobin;
+
+    @Setup
+    public void setUp() {
+        nodes = new ArrayList<>(backends);
+        for (int i = 0; i < backends; i++) {
+            nodes.add(new Node("10.0.0." + i + ":50051", BalancerFixture.weight(i, skew)));
+        }
+        weightedRoundRobin = new WeightedRoundRobin(nodes);
+    }
+
+    @Benchmark
+    public Node select() {
+        return weightedRoundRobin.select();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public WeightedRoundRobin buildSchedule() {
+        return new WeightedRoundRobin(nodes);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.grpc.server;
+
+import com.example.grpc.protocol.GreetRequest;
+import com.example.grpc.protocol.GreetServiceGrpc;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Latency of a server pushed into overload: it serves {@value #CAPACITY} calls at a time, each
+ * taking {@value #SERVICE_MILLIS} ms, while {@value #CLIENTS} client threads call it back to back,
+ * so without admission control a call waits behind about 60 others. With the
+ * {@link ConcurrencyLimitInterceptor} the calls over the limit fail fast with
+ * {@code RESOURCE_EXHAUSTED} and the admitted ones stay close to the service time. The sampled
+ * times include the rejected calls, which fail fast and then back off for the service time, as a
+ * client would spend it on another backend.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(AdmissionControlBenchmark.CLIENTS)
+@State(Scope.Benchmark)
+public class AdmissionControlBenchmark {
+
+    static final int CLIENTS = 64;
+
+    private static final int CAPACITY = 4;
+
+    private static final int SERVICE_MILLIS = 2;
+
+    private static final GreetRequest REQUEST = GreetRequest.newBuilder().setName("Jack").build();
+
+    @Param({"none", "adaptive"})
+    public String limiter;
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    private GreetServiceGrpc.GreetServiceBlockingStub stub;
+
+    @Setup
+    public void setUp() throws Exception {
+        ServerInterceptor capacity = new SimulatedCapacity(CAPACITY, SERVICE_MILLIS);
+        server = ServerBuilder.forPort(0)
+                .addService("adaptive".equals(limiter)
+                        ? ServerInterceptors.intercept(new GreetServiceImpl(), capacity, new ConcurrencyLimitInterceptor())
+                        : ServerInterceptors.intercept(new GreetServiceImpl(), capacity))
+                .build()
+                .start();
+        channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        stub = GreetServiceGrpc.newBlockingStub(channel);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Status greet() {
+        try {
+            stub.greet(REQUEST);
+            return Status.OK;
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.RESOURCE_EXHAUSTED) {
+                // a real client would try another backend, don't let it spin on this one
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(SERVICE_MILLIS));
+            }
+            return e.getStatus();
+        }
+    }
+
+    /**
+     * A server with {@code permits} cores: a call holds one for the service time before the
+     * handler runs, and waits for it if none is free.
+     */
+    static final class SimulatedCapacity implements ServerInterceptor {
+        private final Semaphore cores;
+        private final long serviceMillis;
+
+        SimulatedCapacity(int permits, long serviceMillis) {
+            this.cores = new Semaphore(permits, true);
+            this.serviceMillis = serviceMillis;
+        }
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(next.startCall(call, headers)) {
+                @Override
+                public void onHalfClose() {
+                    cores.acquireUninterruptibly();
+                    try {
+                        Thread.sleep(serviceMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        cores.release();
+                    }
+                    super.onHalfClose();
+                }
+            };
+        }
+    }
+}
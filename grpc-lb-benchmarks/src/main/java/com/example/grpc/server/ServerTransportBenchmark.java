@@ -0,0 +1,90 @@
+package com.example.grpc.server;
+
+import com.example.grpc.protocol.GreetRequest;
+import com.example.grpc.protocol.GreetResponse;
+import com.example.grpc.protocol.GreetServiceGrpc;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Unary greetings per second through a real server over loopback, for each executor mode of
+ * {@link ServerTransport} on the NIO and the epoll transport. Every invocation keeps
+ * {@value #CALLS} calls in flight and waits for all of them, the score is per call. The
+ * {@code virtual} executor needs JDK 21, add it with {@code -p executor=virtual}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerTransportBenchmark {
+
+    private static final int CALLS = 256;
+
+    private static final GreetRequest REQUEST = GreetRequest.newBuilder().setName("Jack").build();
+
+    @Param({"cached", "direct", "fork_join"})
+    public String executor;
+
+    @Param({"nio", "epoll"})
+    public String transport;
+
+    private ServerTransport serverTransport;
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    private GreetServiceGrpc.GreetServiceFutureStub stub;
+
+    @Setup
+    public void setUp() throws Exception {
+        serverTransport = new ServerTransport(ServerTransportOptions.newBuilder()
+                .setExecutor(ServerTransportOptions.ExecutorMode.valueOf(executor.toUpperCase(Locale.ROOT)))
+                .setNativeTransport("epoll".equals(transport))
+                .build());
+        server = serverTransport.forPort(0).addService(new GreetServiceImpl()).build().start();
+        channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        stub = GreetServiceGrpc.newFutureStub(channel);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        serverTransport.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public List<GreetResponse> greet() throws Exception {
+        List<ListenableFuture<GreetResponse>> responses = new ArrayList<>(CALLS);
+        for (int i = 0; i < CALLS; i++) {
+            responses.add(stub.greet(REQUEST));
+        }
+        return Futures.allAsList(responses).get();
+    }
+}
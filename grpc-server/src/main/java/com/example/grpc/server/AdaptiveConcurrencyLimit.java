@@ -0,0 +1,129 @@
+package com.example.grpc.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The concurrency limit of one method, see {@link ConcurrencyLimitOptions}. Admission and
+ * updates are lock-free: a call is admitted by a compare-and-set on the in-flight counter, and
+ * the limit is a double updated by compare-and-set. Concurrent updates may race on the latency
+ * window and on the last backoff, which only delays an adjustment by a sample.
+ */
+final class AdaptiveConcurrencyLimit {
+
+    private final ConcurrencyLimitOptions options;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong limitBits;
+
+    // fastest call of the current and of the previous window
+    private final AtomicLong windowMinLatencyNanos = new AtomicLong(Long.MAX_VALUE);
+
+    private volatile long previousMinLatencyNanos = Long.MAX_VALUE;
+
+    private final AtomicLong windowStartNanos;
+
+    private final AtomicLong lastBackoffNanos;
+
+    AdaptiveConcurrencyLimit(ConcurrencyLimitOptions options, long nowNanos) {
+        this.options = options;
+        this.limitBits = new AtomicLong(Double.doubleToRawLongBits(options.getInitialLimit()));
+        this.windowStartNanos = new AtomicLong(nowNanos);
+        this.lastBackoffNanos = new AtomicLong(nowNanos);
+    }
+
+    int getLimit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Takes a slot, returns the number of calls in flight including this one, or -1 if the
+     * limit is reached.
+     */
+    int tryAcquire() {
+        int limit = getLimit();
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * Releases the slot of a call that completed.
+     *
+     * @param inFlightAtStart what {@link #tryAcquire} returned for the call
+     * @param dropped         whether the client gave up on the call, which is a congestion
+     *                        signal whatever its latency
+     */
+    void release(int inFlightAtStart, long latencyNanos, boolean dropped, long nowNanos) {
+        inFlight.decrementAndGet();
+        long minLatency = recordLatency(latencyNanos, nowNanos);
+        if (dropped || latencyNanos > minLatency * options.getLatencyTolerance()) {
+            backoff(minLatency, nowNanos);
+        } else if (inFlightAtStart * 2 >= getLimit()) {
+            // only grow a limit that is actually used, else an idle method ends at the max
+            grow();
+        }
+    }
+
+    private long recordLatency(long latencyNanos, long nowNanos) {
+        long start = windowStartNanos.get();
+        if (nowNanos - start > options.getMinLatencyWindowNanos() && windowStartNanos.compareAndSet(start, nowNanos)) {
+            previousMinLatencyNanos = windowMinLatencyNanos.getAndSet(latencyNanos);
+        } else {
+            while (true) {
+                long min = windowMinLatencyNanos.get();
+                if (latencyNanos >= min || windowMinLatencyNanos.compareAndSet(min, latencyNanos)) {
+                    break;
+                }
+            }
+        }
+        return Math.min(windowMinLatencyNanos.get(), previousMinLatencyNanos);
+    }
+
+    private void grow() {
+        while (true) {
+            long oldBits = limitBits.get();
+            double old = Double.longBitsToDouble(oldBits);
+            // +1 once the whole limit has completed, that is about once per round trip
+            double next = Math.min(options.getMaxLimit(), old + 1 / old);
+            if (next == old || limitBits.compareAndSet(oldBits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    private void backoff(long minLatency, long nowNanos) {
+        long last = lastBackoffNanos.get();
+        // the calls of one round trip saw the same congestion, count it once
+        if (nowNanos - last < minLatency || !lastBackoffNanos.compareAndSet(last, nowNanos)) {
+            return;
+        }
+        while (true) {
+            long oldBits = limitBits.get();
+            double old = Double.longBitsToDouble(oldBits);
+            double next = Math.max(options.getMinLimit(), old * options.getBackoffRatio());
+            if (next == old || limitBits.compareAndSet(oldBits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Releases the slot of a call without taking its latency into account.
+     */
+    void releaseWithoutSample() {
+        inFlight.decrementAndGet();
+    }
+}
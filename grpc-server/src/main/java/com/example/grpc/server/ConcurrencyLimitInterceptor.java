@@ -0,0 +1,119 @@
+package com.example.grpc.server;
+
+import com.example.grpc.common.lb.GrpcLbAttributes;
+import com.example.grpc.load.ConcurrencyReport;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Admission control: every unary method gets an adaptive limit of concurrent calls, see
+ * {@link ConcurrencyLimitOptions}, and a call over the limit of its method is rejected right
+ * away with {@code RESOURCE_EXHAUSTED} instead of queueing up behind the others. Streaming calls
+ * are long-lived and pass through unlimited.
+ * <p>
+ * Every call, admitted or rejected, carries a {@link ConcurrencyReport} in its trailers, so the
+ * {@code load_report_weighted} policy of the clients moves traffic away from a server before it
+ * has to reject it. The limits only see the calls once they reached the interceptors; install
+ * this one last so it runs first, and prefer an executor that does not queue the calls before.
+ */
+public final class ConcurrencyLimitInterceptor implements ServerInterceptor {
+
+    private final ConcurrencyLimitOptions options;
+
+    private final ConcurrentMap<String, AdaptiveConcurrencyLimit> limits = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimitInterceptor() {
+        this(ConcurrencyLimitOptions.DEFAULT);
+    }
+
+    public ConcurrencyLimitInterceptor(ConcurrencyLimitOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Returns the current limit of a method, or the initial limit if it was not called yet.
+     */
+    public int getLimit(String fullMethodName) {
+        AdaptiveConcurrencyLimit limit = limits.get(fullMethodName);
+        return limit == null ? options.getInitialLimit() : limit.getLimit();
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        MethodDescriptor<ReqT, RespT> method = call.getMethodDescriptor();
+        if (method.getType() != MethodDescriptor.MethodType.UNARY) {
+            return next.startCall(call, headers);
+        }
+        final AdaptiveConcurrencyLimit limit = limitOf(method.getFullMethodName());
+        final int inFlightAtStart = limit.tryAcquire();
+        if (inFlightAtStart < 0) {
+            Metadata trailers = new Metadata();
+            trailers.put(GrpcLbAttributes.CONCURRENCY_REPORT_KEY, report(limit));
+            call.close(Status.RESOURCE_EXHAUSTED.withDescription(
+                    "concurrency limit of " + method.getFullMethodName() + " reached"), trailers);
+            return new ServerCall.Listener<ReqT>() {
+            };
+        }
+        final long startNanos = System.nanoTime();
+        ServerCall<ReqT, RespT> reportingCall =
+                new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+                    @Override
+                    public void close(Status status, Metadata trailers) {
+                        trailers.put(GrpcLbAttributes.CONCURRENCY_REPORT_KEY, report(limit));
+                        super.close(status, trailers);
+                    }
+                };
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(reportingCall, headers);
+        } catch (RuntimeException e) {
+            limit.releaseWithoutSample();
+            throw e;
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+            @Override
+            public void onComplete() {
+                long now = System.nanoTime();
+                limit.release(inFlightAtStart, now - startNanos, false, now);
+                super.onComplete();
+            }
+
+            @Override
+            public void onCancel() {
+                long now = System.nanoTime();
+                limit.release(inFlightAtStart, now - startNanos, true, now);
+                super.onCancel();
+            }
+        };
+    }
+
+    private AdaptiveConcurrencyLimit limitOf(String fullMethodName) {
+        AdaptiveConcurrencyLimit limit = limits.get(fullMethodName);
+        if (limit == null) {
+            AdaptiveConcurrencyLimit created = new AdaptiveConcurrencyLimit(options, System.nanoTime());
+            limit = limits.putIfAbsent(fullMethodName, created);
+            if (limit == null) {
+                limit = created;
+            }
+        }
+        return limit;
+    }
+
+    private static ConcurrencyReport report(AdaptiveConcurrencyLimit limit) {
+        return ConcurrencyReport.newBuilder()
+                .setLimit(limit.getLimit())
+                .setInFlight(limit.getInFlight())
+                .build();
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.grpc.server;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Settings of the adaptive concurrency limits of {@link ConcurrencyLimitInterceptor}. Every
+ * method gets its own limit, which follows an AIMD scheme with latency as the congestion signal:
+ * it grows by one per round trip while the calls are about as fast as the fastest ones seen
+ * recently, and is cut by the backoff ratio when they get slower than the tolerance allows or
+ * when the clients give up on them.
+ */
+public final class ConcurrencyLimitOptions {
+
+    public static final ConcurrencyLimitOptions DEFAULT = newBuilder().build();
+
+    private final int initialLimit;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double latencyTolerance;
+
+    private final double backoffRatio;
+
+    private final long minLatencyWindowNanos;
+
+    private ConcurrencyLimitOptions(Builder builder) {
+        this.initialLimit = builder.initialLimit;
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.latencyTolerance = builder.latencyTolerance;
+        this.backoffRatio = builder.backoffRatio;
+        this.minLatencyWindowNanos = builder.minLatencyWindowNanos;
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    public long getMinLatencyWindowNanos() {
+        return minLatencyWindowNanos;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 1000;
+        private double latencyTolerance = 2;
+        private double backoffRatio = 0.9;
+        private long minLatencyWindowNanos = TimeUnit.SECONDS.toNanos(30);
+
+        private Builder() {
+        }
+
+        /**
+         * Limit of a method before its first call. Defaults to 20.
+         */
+        public Builder setInitialLimit(int initialLimit) {
+            Preconditions.checkArgument(initialLimit > 0, "initialLimit must be positive");
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * Lowest limit the backoff can reach. Defaults to 1.
+         */
+        public Builder setMinLimit(int minLimit) {
+            Preconditions.checkArgument(minLimit > 0, "minLimit must be positive");
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * Highest limit the growth can reach. Defaults to 1000.
+         */
+        public Builder setMaxLimit(int maxLimit) {
+            Preconditions.checkArgument(maxLimit > 0, "maxLimit must be positive");
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * A call slower than {@code tolerance} times the fastest recent call signals that calls
+         * are queueing up. Defaults to 2.
+         */
+        public Builder setLatencyTolerance(double tolerance) {
+            Preconditions.checkArgument(tolerance > 1, "tolerance must be greater than 1");
+            this.latencyTolerance = tolerance;
+            return this;
+        }
+
+        /**
+         * Factor the limit is multiplied by on congestion, at most once per round trip. Defaults
+         * to 0.9.
+         */
+        public Builder setBackoffRatio(double backoffRatio) {
+            Preconditions.checkArgument(backoffRatio > 0 && backoffRatio < 1, "backoffRatio must be in (0, 1)");
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * How long the fastest call is remembered as the latency of an idle server; it is
+         * measured again over every window, so that the limits follow a change of the workload.
+         * Defaults to 30 seconds.
+         */
+        public Builder setMinLatencyWindow(long window, TimeUnit unit) {
+            Preconditions.checkArgument(window > 0, "window must be positive");
+            this.minLatencyWindowNanos = unit.toNanos(window);
+            return this;
+        }
+
+        public ConcurrencyLimitOptions build() {
+            Preconditions.checkArgument(minLimit <= maxLimit, "minLimit must not be above maxLimit");
+            Preconditions.checkArgument(initialLimit >= minLimit && initialLimit <= maxLimit,
+                    "initialLimit must be within [minLimit, maxLimit]");
+            return new ConcurrencyLimitOptions(this);
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.example.grpc.server;
 
+import com.example.grpc.protocol.GreetBatchRequest;
+import com.example.grpc.protocol.GreetBatchResponse;
 import com.example.grpc.protocol.GreetRequest;
 import com.example.grpc.protocol.GreetResponse;
 import com.example.grpc.protocol.GreetServiceGrpc;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import java.util.logging.Logger;
@@ -14,13 +17,82 @@ public class GreetServiceImpl extends GreetServiceGrpc.GreetServiceImplBase {
 
     @Override
     public void greet(GreetRequest request, StreamObserver<GreetResponse> responseObserver) {
-        String name = request.getName();
         //System.out.println("receive from: " + name);
-        String responseContent = "Hello, " + name;
-        GreetResponse response = GreetResponse.newBuilder()
+        responseObserver.onNext(greeting(request));
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void greetBatch(GreetBatchRequest request, StreamObserver<GreetBatchResponse> responseObserver) {
+        GreetBatchResponse.Builder response = GreetBatchResponse.newBuilder();
+        for (GreetRequest greetRequest : request.getRequestsList()) {
+            response.addResponses(greeting(greetRequest));
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Answers every request of the stream in order, with manual flow control: the next request is
+     * only read while the response stream is ready, so a client that does not read its responses
+     * holds back its own requests instead of growing the buffers of the server.
+     */
+    @Override
+    public StreamObserver<GreetRequest> greetStream(StreamObserver<GreetResponse> responseObserver) {
+        final ServerCallStreamObserver<GreetResponse> serverObserver =
+                (ServerCallStreamObserver<GreetResponse>) responseObserver;
+        serverObserver.disableAutoInboundFlowControl();
+        final OnReadyHandler onReadyHandler = new OnReadyHandler(serverObserver);
+        serverObserver.setOnReadyHandler(onReadyHandler);
+        return new StreamObserver<GreetRequest>() {
+            @Override
+            public void onNext(GreetRequest request) {
+                serverObserver.onNext(greeting(request));
+                if (serverObserver.isReady()) {
+                    serverObserver.request(1);
+                } else {
+                    // resumed by the handler once the client has read some responses
+                    onReadyHandler.wasReady = false;
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                logger.fine("greet stream failed: " + t);
+            }
+
+            @Override
+            public void onCompleted() {
+                serverObserver.onCompleted();
+            }
+        };
+    }
+
+    private static GreetResponse greeting(GreetRequest request) {
+        String responseContent = "Hello, " + request.getName();
+        return GreetResponse.newBuilder()
                 .setGreeting(responseContent)
                 .build();
-        responseObserver.onNext(response);
-        responseObserver.onCompleted();
+    }
+
+    /**
+     * Requests the next message when the response stream turns ready. Runs on the call executor,
+     * serialized with the listener callbacks, so the flag needs no synchronization.
+     */
+    private static final class OnReadyHandler implements Runnable {
+        private final ServerCallStreamObserver<GreetResponse> serverObserver;
+        private boolean wasReady;
+
+        OnReadyHandler(ServerCallStreamObserver<GreetResponse> serverObserver) {
+            this.serverObserver = serverObserver;
+        }
+
+        @Override
+        public void run() {
+            if (serverObserver.isReady() && !wasReady) {
+                wasReady = true;
+                serverObserver.request(1);
+            }
+        }
     }
 }
@@ -1,23 +1,53 @@
 package com.example.grpc.server;
 
+import com.example.grpc.common.lb.HostInfo;
 import com.example.grpc.common.zk.ZookeeperConnection;
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
 
+import javax.management.JMException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 public class GrpcServer {
 
+    /**
+     * Set to {@code true} to limit the concurrency per method instead of accepting every call.
+     * Off by default, as it turns overload into rejected calls the clients have to handle.
+     */
+    private static final String CONCURRENCY_LIMIT_PROPERTY = ServerTransportOptions.PROPERTY_PREFIX + "concurrencyLimit";
+
+    /**
+     * Set to {@code true} to register in the binary format. Off by default, as clients older than
+     * the format drop a host they cannot parse; turn it on once every client reads it.
+     */
+    private static final String BINARY_REGISTRATION_PROPERTY = ServerTransportOptions.PROPERTY_PREFIX + "binaryRegistration";
+
     private Server server;
 
-    private void start(String port) throws IOException {
-        server = ServerBuilder
+    private LoadReportingInterceptor loadReporting;
+
+    private ServerTransport transport;
+
+    private void start(String port, ServerTransportOptions options) throws IOException {
+        transport = new ServerTransport(options);
+        loadReporting = new LoadReportingInterceptor(transport.queueDepth());
+        List<ServerInterceptor> interceptors = new ArrayList<>();
+        interceptors.add(loadReporting);
+        if (Boolean.parseBoolean(System.getProperty(CONCURRENCY_LIMIT_PROPERTY, "false"))) {
+            // last, so that it runs first and rejected calls cost nothing further
+            interceptors.add(new ConcurrencyLimitInterceptor());
+        }
+        server = transport
                 .forPort(Integer.parseInt(port))
-                .addService(new GreetServiceImpl())
+                .addService(ServerInterceptors.intercept(new GreetServiceImpl(), interceptors))
                 .build()
                 .start();
-        System.out.println("Server started, listening on " + port);
+        System.out.println("Server started, listening on " + port + " with " + transport);
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
@@ -31,6 +61,17 @@ public class GrpcServer {
     private void stop() {
         if (server != null) {
             server.shutdown();
+            try {
+                server.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (loadReporting != null) {
+            loadReporting.shutdown();
+        }
+        if (transport != null) {
+            transport.shutdown();
         }
     }
 
@@ -42,29 +83,55 @@ public class GrpcServer {
 
     public static void main(String[] args) throws IOException, InterruptedException {
         //args = new String[]{"50051", "1", "zk://10.30.61.45:2181"};
-        if (args.length != 3) {
-            System.out.println("Usage: grpc-server PORT LB_WEIGHT zk://ADDR:PORT");
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Usage: grpc-server PORT LB_WEIGHT zk://ADDR:PORT [ZONE]");
+            System.out.println("The transport is tuned with -D" + ServerTransportOptions.PROPERTY_PREFIX
+                    + "{executor,executorThreads,bossThreads,workerThreads,nativeTransport,"
+                    + "flowControlWindow,maxConcurrentCallsPerConnection}");
+            System.out.println("the adaptive concurrency limit is turned on with -D" + CONCURRENCY_LIMIT_PROPERTY + "=true");
+            System.out.println("and the binary registration format with -D" + BINARY_REGISTRATION_PROPERTY + "=true");
+            return;
+        }
+        ServerTransportOptions transportOptions;
+        try {
+            transportOptions = ServerTransportOptions.fromSystemProperties();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid transport setting: " + e.getMessage());
             return;
         }
         String zkAddress;
         int lbWeight;
         String portStr;
+        String zone;
         try {
             portStr = args[0];
             lbWeight = Integer.parseInt(args[1]);
             zkAddress = args[2];
+            zone = args.length == 4 ? args[3] : "";
         } catch (Exception e) {
             System.out.println("Usage: helloworld_server PORT zk://ADDR:PORT");
             return;
         }
 
         ZookeeperConnection zkConnection = new ZookeeperConnection();
-        if (!zkConnection.connect(zkAddress, "localhost", portStr, lbWeight)) {
+        zkConnection.setBinaryFormat(Boolean.parseBoolean(System.getProperty(BINARY_REGISTRATION_PROPERTY, "false")));
+        HostInfo hostInfo = HostInfo.newBuilder()
+                .setHost("localhost")
+                .setPort(Integer.parseInt(portStr))
+                .setWeight(lbWeight)
+                .setZone(zone)
+                .build();
+        if (!zkConnection.connect(zkAddress, hostInfo)) {
             return;
         }
+        try {
+            new ServerWeight(zkConnection).register();
+        } catch (JMException e) {
+            System.err.println("Could not register the weight admin hook: " + e);
+        }
 
         final GrpcServer grpcServer = new GrpcServer();
-        grpcServer.start(portStr);
+        grpcServer.start(portStr, transportOptions);
         grpcServer.blockUntilShutdown();
     }
 }
@@ -0,0 +1,142 @@
+package com.example.grpc.server;
+
+import com.example.grpc.common.lb.GrpcLbAttributes;
+import com.example.grpc.load.LoadReport;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+
+/**
+ * Sends a {@link LoadReport} in the trailers of every call, for the {@code load_report_weighted}
+ * balancing policy of the clients. CPU utilization and QPS are sampled once per second by a
+ * background thread, so a call only reads them and the in-flight counter.
+ */
+public final class LoadReportingInterceptor implements ServerInterceptor {
+
+    private static final long SAMPLE_PERIOD_MS = 1000;
+
+    private final IntSupplier queueDepth;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder completed = new LongAdder();
+
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("load-report-sampler").build());
+
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    private volatile double cpuUtilization;
+
+    private volatile double qps;
+
+    private long lastCompleted;
+
+    private long lastSampleNanos = System.nanoTime();
+
+    public LoadReportingInterceptor() {
+        this(new IntSupplier() {
+            @Override
+            public int getAsInt() {
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * @param queueDepth number of calls waiting for a thread of the server executor
+     */
+    public LoadReportingInterceptor(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, SAMPLE_PERIOD_MS, SAMPLE_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        sampler.shutdown();
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long total = completed.sum();
+        qps = (total - lastCompleted) * 1e9 / Math.max(1, now - lastSampleNanos);
+        lastCompleted = total;
+        lastSampleNanos = now;
+        cpuUtilization = processCpuLoad();
+    }
+
+    private double processCpuLoad() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            if (load >= 0) {
+                return load;
+            }
+        }
+        // not available on this JVM, fall back to the load of the whole machine
+        double loadAverage = os.getSystemLoadAverage();
+        return loadAverage < 0 ? 0 : Math.min(1, loadAverage / os.getAvailableProcessors());
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        inFlight.incrementAndGet();
+        ServerCall<ReqT, RespT> reportingCall =
+                new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+                    @Override
+                    public void close(Status status, Metadata trailers) {
+                        trailers.put(GrpcLbAttributes.LOAD_REPORT_KEY, LoadReport.newBuilder()
+                                .setCpuUtilization(cpuUtilization)
+                                .setInFlight(inFlight.get())
+                                .setQueueDepth(queueDepth.getAsInt())
+                                .setQps(qps)
+                                .build());
+                        super.close(status, trailers);
+                    }
+                };
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(reportingCall, headers);
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+            @Override
+            public void onComplete() {
+                done();
+                super.onComplete();
+            }
+
+            @Override
+            public void onCancel() {
+                done();
+                super.onCancel();
+            }
+        };
+    }
+
+    private void done() {
+        inFlight.decrementAndGet();
+        completed.increment();
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.grpc.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.ServerChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+
+/**
+ * The event loops and the executor of a server, built from {@link ServerTransportOptions}. They
+ * are owned by this object rather than by the server, so that they outlive a server that is
+ * stopped and can be shared by several of them; {@link #shutdown()} releases them once the
+ * servers are terminated.
+ */
+public final class ServerTransport {
+
+    private final ServerTransportOptions options;
+
+    private final boolean nativeTransport;
+
+    private final EventLoopGroup bossGroup;
+
+    private final EventLoopGroup workerGroup;
+
+    private final Class<? extends ServerChannel> channelType;
+
+    // null when the calls run on the shared pool of gRPC or on the event loops
+    @Nullable
+    private final ExecutorService executor;
+
+    public ServerTransport(ServerTransportOptions options) {
+        this.options = options;
+        this.nativeTransport = options.isNativeTransport() && Epoll.isAvailable();
+        ThreadFactory bossThreads = threadFactory("grpc-server-boss-%d");
+        ThreadFactory workerThreads = threadFactory("grpc-server-worker-%d");
+        if (nativeTransport) {
+            bossGroup = new EpollEventLoopGroup(options.getBossThreads(), bossThreads);
+            workerGroup = new EpollEventLoopGroup(options.getWorkerThreads(), workerThreads);
+            channelType = EpollServerSocketChannel.class;
+        } else {
+            bossGroup = new NioEventLoopGroup(options.getBossThreads(), bossThreads);
+            workerGroup = new NioEventLoopGroup(options.getWorkerThreads(), workerThreads);
+            channelType = NioServerSocketChannel.class;
+        }
+        this.executor = newExecutor(options);
+    }
+
+    private static ThreadFactory threadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build();
+    }
+
+    @Nullable
+    private static ExecutorService newExecutor(ServerTransportOptions options) {
+        switch (options.getExecutor()) {
+            case FORK_JOIN:
+                return new ForkJoinPool(options.getExecutorThreads(), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("grpc-server-executor-" + thread.getPoolIndex());
+                        return thread;
+                    }
+                }, null, true);
+            case VIRTUAL:
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("virtual threads need JDK 21 or later", e);
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns a builder listening on {@code port} with the event loops, the executor and the
+     * HTTP/2 settings of this transport.
+     */
+    public NettyServerBuilder forPort(int port) {
+        NettyServerBuilder builder = NettyServerBuilder.forPort(port)
+                .bossEventLoopGroup(bossGroup)
+                .workerEventLoopGroup(workerGroup)
+                .channelType(channelType)
+                .flowControlWindow(options.getFlowControlWindow())
+                .maxConcurrentCallsPerConnection(options.getMaxConcurrentCallsPerConnection());
+        if (options.getExecutor() == ServerTransportOptions.ExecutorMode.DIRECT) {
+            builder.directExecutor();
+        } else if (executor != null) {
+            builder.executor(executor);
+        }
+        return builder;
+    }
+
+    /**
+     * Whether the native epoll transport is used, which depends on the options and on the
+     * platform.
+     */
+    public boolean isNativeTransport() {
+        return nativeTransport;
+    }
+
+    /**
+     * Number of tasks waiting for a thread of the executor, for {@link LoadReportingInterceptor}.
+     * Only the fork-join executor has a queue; the cached pool starts a thread instead of queueing,
+     * and the direct executor runs the calls on the event loops.
+     */
+    public IntSupplier queueDepth() {
+        if (executor instanceof ForkJoinPool) {
+            final ForkJoinPool pool = (ForkJoinPool) executor;
+            return new IntSupplier() {
+                @Override
+                public int getAsInt() {
+                    return pool.getQueuedSubmissionCount();
+                }
+            };
+        }
+        return new IntSupplier() {
+            @Override
+            public int getAsInt() {
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Releases the event loops and the executor; the servers built from this transport must be
+     * terminated first.
+     */
+    public void shutdown() {
+        bossGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        workerGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return options + (options.isNativeTransport() && !nativeTransport ? " (epoll unavailable, using nio)" : "");
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.grpc.server;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Locale;
+
+
+/**
+ * Settings of the Netty transport of {@link GrpcServer}, see {@link ServerTransport}. The
+ * defaults keep the behavior of a plain {@code ServerBuilder}: calls run on the shared cached
+ * thread pool of gRPC and every setting of Netty is left alone, except that the native epoll
+ * transport is used where it is available.
+ */
+public final class ServerTransportOptions {
+
+    public static final ServerTransportOptions DEFAULT = newBuilder().build();
+
+    /**
+     * Prefix of the system properties read by {@link #fromSystemProperties()}, followed by the
+     * name of a setter without {@code set}, e.g. {@code -Dgrpc.server.executor=direct} or
+     * {@code -Dgrpc.server.workerThreads=4}.
+     */
+    public static final String PROPERTY_PREFIX = "grpc.server.";
+
+    /**
+     * Where the service code of a call runs.
+     */
+    public enum ExecutorMode {
+        /**
+         * The shared cached thread pool of gRPC, one hand-off to a pooled thread per callback.
+         */
+        CACHED,
+        /**
+         * The event loop thread that read the message; no hand-off at all, but a handler that
+         * blocks stalls every connection of that event loop.
+         */
+        DIRECT,
+        /**
+         * A {@code ForkJoinPool} in async mode bounded to {@code executorThreads} threads.
+         */
+        FORK_JOIN,
+        /**
+         * A new virtual thread per task; needs JDK 21 or later.
+         */
+        VIRTUAL
+    }
+
+    private final ExecutorMode executor;
+
+    private final int executorThreads;
+
+    private final int bossThreads;
+
+    private final int workerThreads;
+
+    private final boolean nativeTransport;
+
+    private final int flowControlWindow;
+
+    private final int maxConcurrentCallsPerConnection;
+
+    private ServerTransportOptions(Builder builder) {
+        this.executor = builder.executor;
+        this.executorThreads = builder.executorThreads;
+        this.bossThreads = builder.bossThreads;
+        this.workerThreads = builder.workerThreads;
+        this.nativeTransport = builder.nativeTransport;
+        this.flowControlWindow = builder.flowControlWindow;
+        this.maxConcurrentCallsPerConnection = builder.maxConcurrentCallsPerConnection;
+    }
+
+    public ExecutorMode getExecutor() {
+        return executor;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    public int getBossThreads() {
+        return bossThreads;
+    }
+
+    /**
+     * Number of worker event loops, 0 for the default of Netty (twice the number of cores).
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public boolean isNativeTransport() {
+        return nativeTransport;
+    }
+
+    public int getFlowControlWindow() {
+        return flowControlWindow;
+    }
+
+    public int getMaxConcurrentCallsPerConnection() {
+        return maxConcurrentCallsPerConnection;
+    }
+
+    @Override
+    public String toString() {
+        return "executor=" + executor.name().toLowerCase(Locale.ROOT)
+                + (executor == ExecutorMode.FORK_JOIN ? "(" + executorThreads + ")" : "")
+                + ", bossThreads=" + bossThreads
+                + ", workerThreads=" + (workerThreads == 0 ? "default" : String.valueOf(workerThreads))
+                + ", nativeTransport=" + nativeTransport
+                + ", flowControlWindow=" + flowControlWindow
+                + ", maxConcurrentCallsPerConnection=" + maxConcurrentCallsPerConnection;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Reads the settings from the system properties starting with {@value #PROPERTY_PREFIX};
+     * a property that is not set keeps its default.
+     *
+     * @throws IllegalArgumentException if a property has an invalid value
+     */
+    public static ServerTransportOptions fromSystemProperties() {
+        Builder builder = newBuilder();
+        String executor = property("executor");
+        if (executor != null) {
+            builder.setExecutor(ExecutorMode.valueOf(executor.trim().toUpperCase(Locale.ROOT)));
+        }
+        String executorThreads = property("executorThreads");
+        if (executorThreads != null) {
+            builder.setExecutorThreads(Integer.parseInt(executorThreads.trim()));
+        }
+        String bossThreads = property("bossThreads");
+        if (bossThreads != null) {
+            builder.setBossThreads(Integer.parseInt(bossThreads.trim()));
+        }
+        String workerThreads = property("workerThreads");
+        if (workerThreads != null) {
+            builder.setWorkerThreads(Integer.parseInt(workerThreads.trim()));
+        }
+        String nativeTransport = property("nativeTransport");
+        if (nativeTransport != null) {
+            builder.setNativeTransport(Boolean.parseBoolean(nativeTransport.trim()));
+        }
+        String flowControlWindow = property("flowControlWindow");
+        if (flowControlWindow != null) {
+            builder.setFlowControlWindow(Integer.parseInt(flowControlWindow.trim()));
+        }
+        String maxConcurrentCalls = property("maxConcurrentCallsPerConnection");
+        if (maxConcurrentCalls != null) {
+            builder.setMaxConcurrentCallsPerConnection(Integer.parseInt(maxConcurrentCalls.trim()));
+        }
+        return builder.build();
+    }
+
+    private static String property(String name) {
+        return System.getProperty(PROPERTY_PREFIX + name);
+    }
+
+    public static final class Builder {
+        private ExecutorMode executor = ExecutorMode.CACHED;
+        private int executorThreads = Runtime.getRuntime().availableProcessors();
+        private int bossThreads = 1;
+        private int workerThreads;
+        private boolean nativeTransport = true;
+        private int flowControlWindow = 1024 * 1024;
+        private int maxConcurrentCallsPerConnection = Integer.MAX_VALUE;
+
+        private Builder() {
+        }
+
+        /**
+         * Defaults to {@link ExecutorMode#CACHED}. {@link ExecutorMode#DIRECT} only suits
+         * services whose handlers never block, like {@link GreetServiceImpl}.
+         */
+        public Builder setExecutor(ExecutorMode executor) {
+            this.executor = Preconditions.checkNotNull(executor, "executor");
+            return this;
+        }
+
+        /**
+         * Parallelism of the {@link ExecutorMode#FORK_JOIN} executor. Defaults to the number of
+         * cores.
+         */
+        public Builder setExecutorThreads(int executorThreads) {
+            Preconditions.checkArgument(executorThreads > 0, "executorThreads must be positive");
+            this.executorThreads = executorThreads;
+            return this;
+        }
+
+        /**
+         * Number of event loops accepting connections. Defaults to 1, which is enough for one
+         * listening port.
+         */
+        public Builder setBossThreads(int bossThreads) {
+            Preconditions.checkArgument(bossThreads > 0, "bossThreads must be positive");
+            this.bossThreads = bossThreads;
+            return this;
+        }
+
+        /**
+         * Number of event loops serving the connections. Defaults to 0, the default of Netty.
+         */
+        public Builder setWorkerThreads(int workerThreads) {
+            Preconditions.checkArgument(workerThreads >= 0, "workerThreads must not be negative");
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        /**
+         * Whether to use the native epoll transport when it is available; the NIO transport is
+         * used otherwise. Defaults to true.
+         */
+        public Builder setNativeTransport(boolean nativeTransport) {
+            this.nativeTransport = nativeTransport;
+            return this;
+        }
+
+        /**
+         * Initial HTTP/2 flow control window of every stream, in bytes. Defaults to 1 MiB, the
+         * default of gRPC.
+         */
+        public Builder setFlowControlWindow(int flowControlWindow) {
+            Preconditions.checkArgument(flowControlWindow > 0, "flowControlWindow must be positive");
+            this.flowControlWindow = flowControlWindow;
+            return this;
+        }
+
+        /**
+         * Maximum number of concurrent calls a client can open on one connection, advertised as
+         * {@code SETTINGS_MAX_CONCURRENT_STREAMS}. Defaults to unlimited.
+         */
+        public Builder setMaxConcurrentCallsPerConnection(int maxConcurrentCallsPerConnection) {
+            Preconditions.checkArgument(maxConcurrentCallsPerConnection > 0,
+                    "maxConcurrentCallsPerConnection must be positive");
+            this.maxConcurrentCallsPerConnection = maxConcurrentCallsPerConnection;
+            return this;
+        }
+
+        public ServerTransportOptions build() {
+            return new ServerTransportOptions(this);
+        }
+    }
+}
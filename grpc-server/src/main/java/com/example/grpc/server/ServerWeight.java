@@ -0,0 +1,40 @@
+package com.example.grpc.server;
+
+import com.example.grpc.common.zk.ZookeeperConnection;
+import com.google.common.base.Preconditions;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * Exposes the registered weight of the server over JMX.
+ */
+final class ServerWeight implements ServerWeightMXBean {
+
+    static final String OBJECT_NAME = "com.example.grpc.server:type=ServerWeight";
+
+    private final ZookeeperConnection zkConnection;
+
+    ServerWeight(ZookeeperConnection zkConnection) {
+        this.zkConnection = zkConnection;
+    }
+
+    void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    @Override
+    public int getWeight() {
+        return zkConnection.getWeight();
+    }
+
+    @Override
+    public void setWeight(int weight) {
+        Preconditions.checkArgument(weight >= 0, "weight must not be negative");
+        if (!zkConnection.updateWeight(weight)) {
+            throw new IllegalStateException("failed to update the weight in ZooKeeper");
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.grpc.server;
+
+
+/**
+ * Admin hook to shift traffic to or away from a running server, for example from {@code jconsole}
+ * during a canary or a capacity event. Registered as {@value ServerWeight#OBJECT_NAME}.
+ */
+public interface ServerWeightMXBean {
+
+    int getWeight();
+
+    /**
+     * Registers the new weight in ZooKeeper; the clients apply it without reconnecting.
+     *
+     * @throws IllegalArgumentException if the weight is negative
+     * @throws IllegalStateException if ZooKeeper could not be updated
+     */
+    void setWeight(int weight);
+}
@@ -0,0 +1,142 @@
+package com.example.grpc.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ConcurrencyLimitOptions options = ConcurrencyLimitOptions.newBuilder()
+            .setInitialLimit(10)
+            .setMinLimit(2)
+            .setMaxLimit(12)
+            .setBackoffRatio(0.5)
+            .build();
+
+    private long now = System.nanoTime();
+
+    private final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(options, now);
+
+    /**
+     * Completes {@code calls} calls, each admitted with {@code inFlight} calls in flight.
+     */
+    private void complete(int calls, int inFlight, long latencyNanos) {
+        for (int i = 0; i < calls; i++) {
+            int inFlightAtStart = limit.tryAcquire();
+            assertTrue(inFlightAtStart > 0);
+            now += latencyNanos;
+            limit.release(inFlight, latencyNanos, false, now);
+        }
+    }
+
+    @Test
+    public void admitsUpToTheLimit() {
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i, limit.tryAcquire());
+        }
+        assertEquals(-1, limit.tryAcquire());
+        assertEquals(10, limit.getInFlight());
+
+        limit.releaseWithoutSample();
+        assertEquals(10, limit.tryAcquire());
+    }
+
+    @Test
+    public void growsByAboutOnePerLimitOfFastCalls() {
+        // +1/limit per call
+        complete(10, 10, MILLI);
+        assertEquals(10, limit.getLimit());
+        complete(1, 10, MILLI);
+        assertEquals(11, limit.getLimit());
+        complete(11, 11, MILLI);
+        assertEquals(12, limit.getLimit());
+        // up to the max
+        complete(100, 12, MILLI);
+        assertEquals(12, limit.getLimit());
+    }
+
+    @Test
+    public void unusedLimitDoesNotGrow() {
+        complete(100, 4, MILLI);
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void latencySpikeCutsTheLimit() {
+        complete(1, 5, MILLI);
+        // within the tolerance of twice the fastest call
+        complete(1, 5, 2 * MILLI);
+        assertEquals(10, limit.getLimit());
+
+        complete(1, 5, 3 * MILLI);
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void oneRoundTripOfSlowCallsCutsOnce() {
+        complete(1, 5, MILLI);
+        int[] inFlightAtStart = new int[4];
+        for (int i = 0; i < inFlightAtStart.length; i++) {
+            inFlightAtStart[i] = limit.tryAcquire();
+        }
+        now += 5 * MILLI;
+        for (int started : inFlightAtStart) {
+            limit.release(started, 5 * MILLI, false, now);
+        }
+        assertEquals(5, limit.getLimit());
+
+        // the next round trip is still congested
+        now += 5 * MILLI;
+        complete(1, 5, 5 * MILLI);
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void droppedCallCutsTheLimitWhateverItsLatency() {
+        complete(1, 5, MILLI);
+        limit.tryAcquire();
+        now += MILLI;
+        limit.release(5, MILLI, true, now);
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void limitDoesNotDropBelowTheMin() {
+        complete(1, 5, MILLI);
+        for (int i = 0; i < 10; i++) {
+            complete(1, 1, 10 * MILLI);
+        }
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void recoversOnceCallsAreFastAgain() {
+        complete(1, 5, MILLI);
+        for (int i = 0; i < 10; i++) {
+            complete(1, 1, 10 * MILLI);
+        }
+        assertEquals(2, limit.getLimit());
+
+        complete(100, 12, MILLI);
+        assertEquals(12, limit.getLimit());
+    }
+
+    @Test
+    public void fastestCallIsForgottenAfterTwoWindows() {
+        complete(1, 5, MILLI);
+        // the workload got slower for good, a window later it is the new normal
+        now += options.getMinLatencyWindowNanos() + 1;
+        complete(1, 5, 10 * MILLI);
+        assertEquals(5, limit.getLimit());
+        now += options.getMinLatencyWindowNanos() + 1;
+        complete(1, 5, 10 * MILLI);
+        complete(10, 10, 10 * MILLI);
+        assertEquals(6, limit.getLimit());
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.grpc.server;
+
+import com.example.grpc.protocol.GreetRequest;
+import com.example.grpc.protocol.GreetServiceGrpc;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Overloads a server that can only serve a few calls at once and checks that the limit sheds the
+ * excess instead of queueing it.
+ */
+public class ConcurrencyLimitInterceptorTest {
+
+    private static final int CAPACITY = 4;
+
+    private static final long SERVICE_MILLIS = 10;
+
+    private final ConcurrencyLimitInterceptor limiter = new ConcurrencyLimitInterceptor();
+
+    private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+
+    private final ExecutorService clientExecutor = Executors.newCachedThreadPool();
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    // the same server without the limit, for the latency of queueing every call
+    private Server unlimitedServer;
+
+    private ManagedChannel unlimitedChannel;
+
+    @Before
+    public void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .executor(serverExecutor)
+                .addService(ServerInterceptors.intercept(new GreetServiceImpl(), new SimulatedCapacity(), limiter))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        String unlimitedName = InProcessServerBuilder.generateName();
+        unlimitedServer = InProcessServerBuilder.forName(unlimitedName)
+                .executor(serverExecutor)
+                .addService(ServerInterceptors.intercept(new GreetServiceImpl(), new SimulatedCapacity()))
+                .build()
+                .start();
+        unlimitedChannel = InProcessChannelBuilder.forName(unlimitedName).directExecutor().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channel.shutdownNow();
+        server.shutdownNow();
+        unlimitedChannel.shutdownNow();
+        unlimitedServer.shutdownNow();
+        clientExecutor.shutdownNow();
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void excessCallsAreRejectedAndTheLimitRecovers() throws Exception {
+        // eight times the capacity, where every call queues for about 8 service times
+        Load queued = run(unlimitedChannel, 8 * CAPACITY, 1000);
+        assertEquals(0, queued.rejected.get());
+
+        // the same load for two seconds with the limit
+        Load overload = run(channel, 8 * CAPACITY, 2000);
+        assertTrue("rejected " + overload.rejected, overload.rejected.get() > 0);
+        assertEquals(0, overload.failed.get());
+        // bounds relative to the same run, the exact limits are left to AdaptiveConcurrencyLimitTest
+        long median = overload.percentile(50);
+        long queuedMedian = queued.percentile(50);
+        assertTrue("median latency " + median + " ms, " + queuedMedian + " ms without the limit",
+                median < queuedMedian / 2);
+
+        // then within the capacity: a second to settle, then nothing is rejected anymore
+        run(channel, CAPACITY - 1, 1000);
+        Load normal = run(channel, CAPACITY - 1, 1000);
+        assertEquals(0, normal.rejected.get());
+        assertTrue(normal.completed.get() > 0);
+    }
+
+    /**
+     * Runs closed-loop clients for a while. A client that was rejected waits a service time
+     * before trying again, like a client backing off, so that the rejections do not take the
+     * CPU from the server.
+     */
+    private Load run(ManagedChannel channel, int clients, final long millis) throws Exception {
+        final Load load = new Load();
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        final GreetServiceGrpc.GreetServiceBlockingStub stub = GreetServiceGrpc.newBlockingStub(channel);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            futures.add(clientExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        try {
+                            stub.withDeadlineAfter(5, TimeUnit.SECONDS)
+                                    .greet(GreetRequest.newBuilder().setName("test").build());
+                            load.record(System.nanoTime() - start);
+                        } catch (StatusRuntimeException e) {
+                            if (e.getStatus().getCode() != Status.Code.RESOURCE_EXHAUSTED) {
+                                load.failed.incrementAndGet();
+                                return;
+                            }
+                            load.rejected.incrementAndGet();
+                            sleep(SERVICE_MILLIS);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return load;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Load {
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        private final List<Long> latencies = new ArrayList<>();
+
+        synchronized void record(long latencyNanos) {
+            completed.incrementAndGet();
+            latencies.add(latencyNanos);
+        }
+
+        synchronized long percentile(int percentile) {
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            return TimeUnit.NANOSECONDS.toMillis(sorted.get((sorted.size() - 1) * percentile / 100));
+        }
+    }
+
+    /**
+     * Lets {@value #CAPACITY} calls through at a time and makes each of them take
+     * {@value #SERVICE_MILLIS} ms, the others wait for their turn.
+     */
+    private static final class SimulatedCapacity implements ServerInterceptor {
+        private final Semaphore permits = new Semaphore(CAPACITY, true);
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(
+                    next.startCall(call, headers)) {
+                @Override
+                public void onHalfClose() {
+                    permits.acquireUninterruptibly();
+                    try {
+                        sleep(SERVICE_MILLIS);
+                    } finally {
+                        permits.release();
+                    }
+                    super.onHalfClose();
+                }
+            };
+        }
+    }
+}
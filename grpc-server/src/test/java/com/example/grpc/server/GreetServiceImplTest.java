@@ -0,0 +1,132 @@
+package com.example.grpc.server;
+
+import com.example.grpc.protocol.GreetRequest;
+import com.example.grpc.protocol.GreetResponse;
+import com.example.grpc.protocol.GreetServiceGrpc;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class GreetServiceImplTest {
+
+    private static final int REQUESTS = 10;
+
+    // messages the service has read from its streams
+    private final AtomicInteger received = new AtomicInteger();
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(ServerInterceptors.intercept(new GreetServiceImpl(), new ServerInterceptor() {
+                    @Override
+                    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(
+                                next.startCall(call, headers)) {
+                            @Override
+                            public void onMessage(ReqT message) {
+                                received.incrementAndGet();
+                                super.onMessage(message);
+                            }
+                        };
+                    }
+                }))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void clientThatStopsReadingHoldsBackItsRequests() throws Exception {
+        RecordingCall call = new RecordingCall(channel.newCall(GreetServiceGrpc.getGreetStreamMethod(), CallOptions.DEFAULT));
+        for (int i = 0; i < REQUESTS; i++) {
+            call.call.sendMessage(GreetRequest.newBuilder().setName("client-" + i).build());
+        }
+        // the client has not asked for a response, so the server cannot write one and stops
+        // reading after at most one request
+        Thread.sleep(200);
+        assertTrue("received " + received.get(), received.get() <= 1);
+        assertEquals(0, call.responses.size());
+
+        call.call.request(3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Hello, client-" + i, call.next().getGreeting());
+        }
+        Thread.sleep(200);
+        assertTrue("received " + received.get(), received.get() <= 4);
+
+        call.call.request(REQUESTS);
+        for (int i = 3; i < REQUESTS; i++) {
+            assertEquals("Hello, client-" + i, call.next().getGreeting());
+        }
+        call.call.halfClose();
+        assertEquals(Status.Code.OK, call.status.poll(10, TimeUnit.SECONDS).getCode());
+        assertEquals(REQUESTS, received.get());
+    }
+
+    /**
+     * A raw call, so that the test decides when the responses are read.
+     */
+    private static final class RecordingCall extends ClientCall.Listener<GreetResponse> {
+        final ClientCall<GreetRequest, GreetResponse> call;
+
+        final BlockingQueue<GreetResponse> responses = new LinkedBlockingQueue<>();
+
+        final BlockingQueue<Status> status = new LinkedBlockingQueue<>();
+
+        RecordingCall(ClientCall<GreetRequest, GreetResponse> call) {
+            this.call = call;
+            call.start(this, new Metadata());
+        }
+
+        @Override
+        public void onMessage(GreetResponse message) {
+            responses.add(message);
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            this.status.add(status);
+        }
+
+        GreetResponse next() throws InterruptedException {
+            GreetResponse response = responses.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no response", response);
+            return response;
+        }
+    }
+}